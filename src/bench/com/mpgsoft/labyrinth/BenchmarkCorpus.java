@@ -0,0 +1,146 @@
+//
+// $Id$
+
+package com.mpgsoft.labyrinth;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.threerings.presents.dobj.DSet;
+import com.threerings.util.DirectionCodes;
+import com.threerings.util.Name;
+
+/**
+ * This class builds the fixed corpus of games that the benchmarks are run
+ * against.  Each game is generated from a seed so every run measures exactly
+ * the same positions: a maze filled with randomly shaped and oriented walls,
+ * a ghost for each player, and the treasures with some of them already
+ * collected.
+ *
+ * @author Jeffrey D. Hoffman
+ */
+final class BenchmarkCorpus {
+
+    /**
+     * Static constant defining the number of games in the corpus.
+     */
+    static final int CORPUS_SIZE = 16;
+
+    /**
+     * Static constant defining the number of players in each game.
+     */
+    static final int PLAYER_COUNT = 4;
+
+    /**
+     * This is a private array of the orientations a wall can be given.
+     */
+    private static final int[] ORIENTATIONS = new int[] {
+        DirectionCodes.NORTH, DirectionCodes.EAST, DirectionCodes.SOUTH, DirectionCodes.WEST 
+    };
+
+    /**
+     * This class can not be instantiated.
+     */
+    private BenchmarkCorpus() { }
+
+    /**
+     * Returns the games of the corpus for a board of the designated size.
+     */
+    static final LabyrinthObject[] createGameObjects(final int iSize) {
+        final LabyrinthObject[] atGameObjects = new LabyrinthObject[CORPUS_SIZE];
+        for (int iGame = 0; iGame < CORPUS_SIZE; ++iGame)
+            atGameObjects[iGame] = createGameObject(iSize, iGame);
+        return atGameObjects;
+    }
+
+    /**
+     * Returns the game generated from the designated seed for a board of the
+     * designated size.
+     */
+    static final LabyrinthObject createGameObject(final int iSize, final long lSeed) {
+        final Random tRandom = new Random(lSeed);
+        final LabyrinthObject tGameObject = new LabyrinthObject();
+        tGameObject.board_size = iSize;
+
+        // Name each of the players.
+        tGameObject.players = new Name[PLAYER_COUNT];
+        for (int iPlayer = 0; iPlayer < PLAYER_COUNT; ++iPlayer)
+            tGameObject.players[iPlayer] = new Name("player" + iPlayer);
+
+        // Fill every square of the maze with a wall.  The floating wall is given
+        // the next identity.
+        final List<Wall> tWalls = new ArrayList<Wall>();
+        int iUniqueID = 0;
+        for (int iY = 1; iY < iSize - 1; ++iY) {
+            for (int iX = 1; iX < iSize - 1; ++iX)
+                tWalls.add(createWall(tRandom, ++iUniqueID, iX, iY));
+        }
+        tGameObject.walls = new DSet<Wall>(tWalls);
+        tGameObject.floating_wall = createWall(tRandom, ++iUniqueID, 0, 0);
+
+        // Drop a ghost for each player anywhere in the maze.
+        final List<Ghost> tGhosts = new ArrayList<Ghost>();
+        for (int iPlayer = 0; iPlayer < PLAYER_COUNT; ++iPlayer)
+            tGhosts.add(new Ghost(iPlayer, createLocation(tRandom, iSize)));
+        tGameObject.ghosts = new DSet<Ghost>(tGhosts);
+
+        // Collect a quarter of the treasures and scatter the rest.  The first
+        // treasure still on the board is the active one.
+        final List<Treasure> tTreasures = new ArrayList<Treasure>();
+        for (int iTreasure = 0; iTreasure < Treasure.TREASURE_COUNT; ++iTreasure) {
+            final Treasure tTreasure = new Treasure(iTreasure, createLocation(tRandom, iSize));
+            if (iTreasure < Treasure.TREASURE_COUNT / 4) {
+                tTreasure.owner = tRandom.nextInt(PLAYER_COUNT);
+                tTreasure.x = Board.OFF_BOARD;
+                tTreasure.y = Board.OFF_BOARD;
+            } else if (tGameObject.active_treasure < 0)
+                tGameObject.active_treasure = iTreasure;
+            tTreasures.add(tTreasure);
+        }
+        tGameObject.treasures = new DSet<Treasure>(tTreasures);
+
+        return tGameObject;
+    }
+
+    /**
+     * Returns the shifts of the designated game, one for each row and column
+     * that can be shifted in each direction.  The shift that would push the
+     * floating wall back where it came from is left out.
+     */
+    static final ShiftContext[] createShifts(final LabyrinthObject tGameObject) {
+        final List<ShiftContext> tShifts = new ArrayList<ShiftContext>();
+        final int iSize = tGameObject.board_size;
+        for (int iLane = 2; iLane < iSize - 1; iLane += 2) {
+            addShift(tShifts, ShiftContext.createContext(tGameObject, 0, iLane));
+            addShift(tShifts, ShiftContext.createContext(tGameObject, iSize - 1, iLane));
+            addShift(tShifts, ShiftContext.createContext(tGameObject, iLane, 0));
+            addShift(tShifts, ShiftContext.createContext(tGameObject, iLane, iSize - 1));
+        }
+        return tShifts.toArray(new ShiftContext[tShifts.size()]);
+    }
+
+    /**
+     * Returns a random square within the maze of a board of the designated size.
+     */
+    static final Point createLocation(final Random tRandom, final int iSize) {
+        return new Point(1 + tRandom.nextInt(iSize - 2), 1 + tRandom.nextInt(iSize - 2));
+    }
+
+    /**
+     * Private method which creates a wall of random shape and orientation.
+     */
+    private static final Wall createWall(final Random tRandom, final int iUniqueID, final int iX, final int iY) {
+        return new Wall(iUniqueID, iX, iY, tRandom.nextInt(3), ORIENTATIONS[tRandom.nextInt(ORIENTATIONS.length)]);
+    }
+
+    /**
+     * Private method which adds the provided shift to the list if it is valid.
+     */
+    private static final void addShift(final List<ShiftContext> tShifts, final ShiftContext tShift) {
+        if (tShift != null)
+            tShifts.add(tShift);
+    }
+
+}
@@ -0,0 +1,303 @@
+//
+// $Id$
+
+package com.mpgsoft.labyrinth;
+
+import java.awt.Point;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.threerings.util.DirectionCodes;
+
+/**
+ * This class holds the JMH benchmarks of the rules engine.  Each benchmark
+ * steps through the games of the {@link BenchmarkCorpus} so that a single
+ * unusual position does not dominate the results.  Run them with
+ * <code>ant bench</code>, which also reports the allocation rate of each
+ * benchmark through the GC profiler.
+ *
+ * @author Jeffrey D. Hoffman
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RulesBenchmark {
+
+    /**
+     * Static constant defining the seed used to pick the squares searched for
+     * paths.
+     */
+    private static final long PATH_SEED = 7L;
+
+    /**
+     * Static constant defining the number of playouts made by each Monte
+     * Carlo benchmark.
+     */
+    private static final int PLAYOUTS = 1000;
+
+    /**
+     * This is the state shared by the benchmarks - the games of the corpus for
+     * one size of board along with everything derived from them.
+     */
+    @State(Scope.Thread)
+    public static class Corpus {
+
+        /**
+         * This is the width and height of the boards being measured.
+         */
+        @Param({ "7", "15", "31" })
+        public int size;
+
+        /**
+         * These are the games of the corpus and the equivalent boards and regions.
+         */
+        LabyrinthObject[] matGameObjects;
+        Board[] matBoards;
+        Connectivity[] matConnectivity;
+
+        /**
+         * These are the valid shifts of each game.
+         */
+        ShiftContext[][] maatShifts;
+
+        /**
+         * These are the searches of each game, two turns deep, and the copies
+         * they are divided between on the executor.  They are built up front
+         * so that the search benchmarks measure searching rather than the
+         * construction of the boards and transposition table.
+         */
+        Search[][] maatSearches;
+
+        /**
+         * These are the squares between which paths are searched in each game.
+         */
+        Point[] matStarts;
+        Point[] matDestinations;
+
+        /**
+         * This is the board that shifts are applied to and it's regions.  It is
+         * reset from the corpus before each shift.
+         */
+        Board mtWorkingBoard;
+        Connectivity mtWorkingConnectivity;
+
+        /**
+         * This is the executor the AI searches on in parallel.
+         */
+        ExecutorService mtExecutor;
+
+        /**
+         * This is the index of the game the next invocation is run against and
+         * the number of invocations so far.
+         */
+        int miGame;
+        int miInvocation;
+
+        /**
+         * Builds the corpus for the current size of board.
+         */
+        @Setup(Level.Trial)
+        public final void setUp() {
+            matGameObjects = BenchmarkCorpus.createGameObjects(size);
+            matBoards = new Board[matGameObjects.length];
+            matConnectivity = new Connectivity[matGameObjects.length];
+            maatShifts = new ShiftContext[matGameObjects.length][];
+            maatSearches = new Search[matGameObjects.length][];
+            matStarts = new Point[matGameObjects.length];
+            matDestinations = new Point[matGameObjects.length];
+
+            final Random tRandom = new Random(PATH_SEED);
+            for (int iIndex = 0; iIndex < matGameObjects.length; ++iIndex) {
+                matBoards[iIndex] = Board.create(matGameObjects[iIndex]);
+                matConnectivity[iIndex] = new Connectivity(matBoards[iIndex]);
+                maatShifts[iIndex] = BenchmarkCorpus.createShifts(matGameObjects[iIndex]);
+                maatSearches[iIndex] = LabyrinthAI.createSearches(matBoards[iIndex], matConnectivity[iIndex], iIndex % BenchmarkCorpus.PLAYER_COUNT, 2);
+                matStarts[iIndex] = BenchmarkCorpus.createLocation(tRandom, size);
+                matDestinations[iIndex] = BenchmarkCorpus.createLocation(tRandom, size);
+            }
+
+            mtWorkingBoard = matBoards[0].copy();
+            mtWorkingConnectivity = matConnectivity[0].copy(mtWorkingBoard);
+            mtExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+
+        /**
+         * Stops the executor.
+         */
+        @TearDown(Level.Trial)
+        public final void tearDown() {
+            mtExecutor.shutdown();
+        }
+
+        /**
+         * Advances to the next game of the corpus and returns it's index.
+         */
+        final int next() {
+            ++miInvocation;
+            miGame = (miGame + 1) % matGameObjects.length;
+            return miGame;
+        }
+
+        /**
+         * Returns the searches of the current game, moved to it's position and
+         * with an empty transposition table as though searching it for the
+         * first time.
+         */
+        final Search[] getSearches() {
+            final Search[] atSearches = maatSearches[miGame];
+            atSearches[0].setPosition(matBoards[miGame], matConnectivity[miGame]);
+            atSearches[0].clearTable();
+            return atSearches;
+        }
+
+        /**
+         * Returns the shift to apply to the current game, stepping through each
+         * of it's valid shifts in turn.
+         */
+        final ShiftContext getShift() {
+            final ShiftContext[] atShifts = maatShifts[miGame];
+            return atShifts[(miInvocation / matGameObjects.length) % atShifts.length];
+        }
+
+    }
+
+    /**
+     * Searches for a path between two squares of the maze.
+     */
+    @Benchmark
+    public final Path findPath(final Corpus tCorpus) {
+        final int iGame = tCorpus.next();
+        return Path.findPath(tCorpus.matGameObjects[iGame], tCorpus.matStarts[iGame], tCorpus.matDestinations[iGame]);
+    }
+
+    /**
+     * Looks up the exits of every wall in the maze and whether it can be
+     * entered from each direction.
+     */
+    @Benchmark
+    public final void getExits(final Corpus tCorpus, final Blackhole tBlackhole) {
+        final int iGame = tCorpus.next();
+        for (Wall tWall : tCorpus.matGameObjects[iGame].walls) {
+            tBlackhole.consume(tWall.getExits());
+            tBlackhole.consume(tWall.canBeEnteredFrom(DirectionCodes.NORTH));
+            tBlackhole.consume(tWall.canBeEnteredFrom(DirectionCodes.EAST));
+            tBlackhole.consume(tWall.canBeEnteredFrom(DirectionCodes.SOUTH));
+            tBlackhole.consume(tWall.canBeEnteredFrom(DirectionCodes.WEST));
+        }
+    }
+
+    /**
+     * Shifts a row or column of the walls.  The walls wrap around the maze
+     * so the corpus stays valid after any number of shifts.
+     */
+    @Benchmark
+    public final Object shiftWalls(final Corpus tCorpus) {
+        final int iGame = tCorpus.next();
+        return tCorpus.getShift().shift(tCorpus.matGameObjects[iGame].getWallIndex(), true);
+    }
+
+    /**
+     * Shifts the ghosts in a row or column.
+     */
+    @Benchmark
+    public final Object shiftGhosts(final Corpus tCorpus) {
+        final int iGame = tCorpus.next();
+        return tCorpus.getShift().shift(tCorpus.matGameObjects[iGame].getGhostIndex(), true);
+    }
+
+    /**
+     * Shifts the treasures in a row or column.
+     */
+    @Benchmark
+    public final Object shiftTreasures(final Corpus tCorpus) {
+        final int iGame = tCorpus.next();
+        return tCorpus.getShift().shift(tCorpus.matGameObjects[iGame].getTreasureIndex(), true);
+    }
+
+    /**
+     * Shifts a row or column of the board and updates it's regions, which is
+     * what the server does for each wall placed.
+     */
+    @Benchmark
+    public final int shiftBoard(final Corpus tCorpus) {
+        final int iGame = tCorpus.next();
+        final ShiftContext tShift = tCorpus.getShift();
+        tCorpus.mtWorkingBoard.copyFrom(tCorpus.matBoards[iGame]);
+        tCorpus.mtWorkingConnectivity.copyFrom(tCorpus.matConnectivity[iGame]);
+        final int iWall = tShift.shift(tCorpus.mtWorkingBoard);
+        tCorpus.mtWorkingConnectivity.update(tShift);
+        return iWall;
+    }
+
+    /**
+     * Totals the points of each player.
+     */
+    @Benchmark
+    public final int[] getPoints(final Corpus tCorpus) {
+        return LabyrinthUtil.getPoints(tCorpus.matGameObjects[tCorpus.next()]);
+    }
+
+    /**
+     * Searches the AI's own turn alone - every shift it can make - on a
+     * single thread.
+     */
+    @Benchmark
+    public final int selectMove(final Corpus tCorpus) {
+        tCorpus.next();
+        return LabyrinthAI.selectMove(tCorpus.getSearches(), 1, 0, null, null);
+    }
+
+    /**
+     * Searches two turns ahead - the AI's and the next opponent's - on a
+     * single thread.
+     */
+    @Benchmark
+    public final int search(final Corpus tCorpus) {
+        tCorpus.next();
+        return LabyrinthAI.selectMove(tCorpus.getSearches(), 2, 0, null, null);
+    }
+
+    /**
+     * Searches two turns ahead with the moves divided between the available
+     * processors.
+     */
+    @Benchmark
+    public final int searchParallel(final Corpus tCorpus) {
+        tCorpus.next();
+        return LabyrinthAI.selectMove(tCorpus.getSearches(), 2, 0, null, tCorpus.mtExecutor);
+    }
+
+    /**
+     * Makes a fixed number of Monte Carlo playouts, with a fresh tree, on a
+     * single thread.  The time reported is per playout, so it's inverse is the
+     * playout throughput of a single processor.
+     */
+    @Benchmark
+    @OperationsPerInvocation(PLAYOUTS)
+    public final int monteCarlo(final Corpus tCorpus) {
+        final int iGame = tCorpus.next();
+        final MonteCarlo tMonteCarlo = new MonteCarlo(iGame % BenchmarkCorpus.PLAYER_COUNT);
+        return tMonteCarlo.selectMove(tCorpus.matBoards[iGame], tCorpus.matConnectivity[iGame], 0, PLAYOUTS, null, null);
+    }
+
+}
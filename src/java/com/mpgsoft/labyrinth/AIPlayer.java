@@ -0,0 +1,104 @@
+//
+// $Id$
+
+package com.mpgsoft.labyrinth;
+
+import java.awt.Point;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * This class holds what an AI player keeps between it's turns: either the
+ * searches of the turns ahead, along with the transposition table they share,
+ * or the Monte Carlo trees.  Whatever is learned while pondering the turns of the
+ * opponents is kept here and reused when the player's own turn comes.
+ * <p>
+ * Every method must be called holding the lock of this object.  A turn
+ * therefore waits for the player's pondering to stop, and the move selected
+ * is described from the position it was selected from.
+ *
+ * @author Jeffrey D. Hoffman
+ */
+final class AIPlayer {
+
+    /**
+     * This is the player's index.
+     */
+    private final int miPlayer;
+
+    /**
+     * This is the player's Monte Carlo tree search or null if the player
+     * searches ahead instead.
+     */
+    private final MonteCarlo mtMonteCarlo;
+
+    /**
+     * These are the player's search and the copies of it the moves are dealt
+     * out between, which are created for the first turn.  Pondering fills the
+     * table the copies share.
+     */
+    private Search[] matSearches;
+
+    /**
+     * Constructs the designated AI player, which plays out turns if Monte
+     * Carlo is true and otherwise searches them.
+     */
+    AIPlayer(final int iPlayer, final boolean bMonteCarlo) {
+        miPlayer = iPlayer;
+        mtMonteCarlo = bMonteCarlo ? new MonteCarlo(iPlayer) : null;
+    }
+
+    /**
+     * Selects the player's move from the provided position, thinking until the
+     * deadline (as given by <code>System.nanoTime()</code>) or until the
+     * provided turn is stopped, with the help of the provided executor.
+     */
+    final int selectMove(final Board tBoard, final Connectivity tConnectivity, final long lDeadline, final Stoppable tTurn, final ExecutorService tExecutor) {
+        if (mtMonteCarlo != null)
+            return mtMonteCarlo.selectMove(tBoard, tConnectivity, lDeadline, 0, tTurn, tExecutor);
+
+        setPosition(tBoard, tConnectivity);
+        return LabyrinthAI.selectMove(matSearches, LabyrinthAI.MAXIMUM_DEPTH, lDeadline, tTurn, tExecutor);
+    }
+
+    /**
+     * Returns the floating wall positioned and oriented for the designated move
+     * from the position the last move was selected from.
+     */
+    final Wall getShift(final int iMove) {
+        return (mtMonteCarlo != null) ? mtMonteCarlo.getShift(iMove) : matSearches[0].getShift(iMove);
+    }
+
+    /**
+     * Returns the square the player's ghost moves to after the designated move
+     * from the position the last move was selected from.
+     */
+    final Point getDestination(final int iMove) {
+        return (mtMonteCarlo != null) ? mtMonteCarlo.getDestination(iMove) : matSearches[0].getDestination(iMove);
+    }
+
+    /**
+     * Thinks about the provided position, in which the designated player holds
+     * the turn, until the provided ponder is stopped.
+     */
+    final void ponder(final Board tBoard, final Connectivity tConnectivity, final int iTurnHolder, final Ponder tPonder) {
+        if (mtMonteCarlo != null) {
+            mtMonteCarlo.ponder(tBoard, tConnectivity, iTurnHolder, tPonder);
+            return;
+        }
+
+        setPosition(tBoard, tConnectivity);
+        matSearches[0].ponder(iTurnHolder, tPonder);
+    }
+
+    /**
+     * Private method which moves the search to the provided position, creating
+     * it for the first.
+     */
+    private final void setPosition(final Board tBoard, final Connectivity tConnectivity) {
+        if (matSearches == null)
+            matSearches = LabyrinthAI.createSearches(tBoard, tConnectivity, miPlayer, LabyrinthAI.MAXIMUM_DEPTH);
+        else
+            matSearches[0].setPosition(tBoard, tConnectivity);
+    }
+
+}
@@ -0,0 +1,463 @@
+//
+// $Id$
+
+package com.mpgsoft.labyrinth;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class holds the threads shared by the AI players of every game on the
+ * server.  The turns of the AI players are searched on a bounded pool of
+ * search threads, which divide each search between a bounded pool of
+ * evaluation threads.  The delays between the moves of an AI player are
+ * timers rather than sleeping threads and the moves themselves are posted to
+ * the event queue of the game so that the game is only ever modified from
+ * it's own thread.
+ * <p>
+ * The search threads are shared fairly between the games rather than each
+ * game taking what it can.  Turns waiting for a search thread are queued with
+ * those of the games being followed by real players ahead of the rest, so a
+ * burst of AI turns from games no one is watching does not hold up the ones
+ * people are waiting on.  While turns are queued, each search is given a
+ * smaller share of it's time so the queue drains, and the turns of a game
+ * that ends are cancelled whether they are queued or being searched.  The
+ * depth of the queue and the time turns spend waiting in it are recorded and
+ * logged, along with the rest of the statistics, every
+ * <code>STATS_INTERVAL</code> once the first turn has started.
+ * <p>
+ * AI players ponder the turns of their opponents on a separate pool of
+ * threads of the lowest priority.  Pondering is paused whenever a turn is
+ * being searched, so it only ever uses capacity the turns leave idle.
+ * <p>
+ * Every thread is a daemon so the scheduler never keeps the server alive.
+ *
+ * @author Jeffrey D. Hoffman
+ */
+final class AIScheduler {
+
+    /**
+     * Static constant defining the number of threads in each of the pools.
+     */
+    private static final int THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Static constant defining the number of milliseconds between the lines of
+     * statistics the scheduler logs.
+     */
+    private static final long STATS_INTERVAL = 5 * 60 * 1000L;
+
+    /**
+     * This is the pool that the turns are searched on.  A search waits for it's
+     * evaluations so these are kept apart from the evaluation threads.  The
+     * turns waiting for a thread are queued in the order of their priority.
+     */
+    private static final ThreadPoolExecutor SEARCH = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 0L, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<Runnable>(), createThreadFactory("AI Search Thread", Thread.NORM_PRIORITY));
+
+    /**
+     * This is the pool that the copies of each search are run on and the
+     * Monte Carlo trees are grown on.
+     * @see LabyrinthAI#selectMove(Search, int, long, Stoppable, ExecutorService)
+     */
+    private static final ExecutorService EVALUATOR = Executors.newFixedThreadPool(THREAD_COUNT, createThreadFactory("AI Evaluation Thread", Thread.NORM_PRIORITY));
+
+    /**
+     * This is the pool that the AI players ponder on.
+     */
+    private static final ExecutorService PONDER = Executors.newFixedThreadPool(THREAD_COUNT, createThreadFactory("AI Ponder Thread", Thread.MIN_PRIORITY));
+
+    /**
+     * This is the timer that delays the moves of the AI players and logs the
+     * statistics.
+     */
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(createThreadFactory("AI Timer Thread", Thread.NORM_PRIORITY));
+
+    /**
+     * This is set once the statistics are being logged.
+     */
+    private static final AtomicBoolean LOGGING = new AtomicBoolean();
+
+    /**
+     * This is the number of AI turns that have started but not yet finished.
+     */
+    private static final AtomicInteger ACTIVE_TURNS = new AtomicInteger();
+
+    /**
+     * These are the turns that are waiting for, or being searched on, a search
+     * thread.
+     */
+    private static final ConcurrentHashMap<Turn, Boolean> TURNS = new ConcurrentHashMap<Turn, Boolean>();
+
+    /**
+     * These are the number of turns that have waited for a search thread, the
+     * total and the longest number of nanoseconds they waited and the number
+     * of turns cancelled because their game ended.
+     */
+    private static final AtomicLong WAITS = new AtomicLong();
+    private static final AtomicLong WAIT_NANOS = new AtomicLong();
+    private static final AtomicLong MAXIMUM_WAIT_NANOS = new AtomicLong();
+    private static final AtomicLong CANCELLED_TURNS = new AtomicLong();
+
+    /**
+     * This is the number of turns being searched right now.
+     */
+    private static final AtomicInteger ACTIVE_SEARCHES = new AtomicInteger();
+
+    /**
+     * These are the ponders that have been started and not yet stopped.
+     */
+    private static final ConcurrentHashMap<Ponder, Boolean> PONDERS = new ConcurrentHashMap<Ponder, Boolean>();
+
+    /**
+     * This is the total number of nanoseconds the AI players have spent
+     * pondering.
+     */
+    private static final AtomicLong PONDER_NANOS = new AtomicLong();
+
+    /**
+     * These are the number of searches made by the AI players, the total
+     * number of turns ahead they reached and the total number of positions
+     * they visited.
+     */
+    private static final AtomicLong SEARCHES = new AtomicLong();
+    private static final AtomicLong SEARCHED_DEPTH = new AtomicLong();
+    private static final AtomicLong SEARCHED_NODES = new AtomicLong();
+
+    /**
+     * These are the number of playouts made by the Monte Carlo AI players and
+     * the total number of nanoseconds spent making them.
+     */
+    private static final AtomicLong PLAYOUTS = new AtomicLong();
+    private static final AtomicLong PLAYOUT_NANOS = new AtomicLong();
+
+    /**
+     * This class can not be instantiated.
+     */
+    private AIScheduler() { }
+
+    /**
+     * Records that an AI turn has started and queues the provided turn to be
+     * searched on one of the search threads.
+     */
+    static final void startTurn(final Turn tTurn) {
+
+        // Start logging the statistics with the first turn.
+        if (LOGGING.compareAndSet(false, true)) {
+            TIMER.scheduleAtFixedRate(new Runnable() {
+                public final void run() {
+                    logStats();
+                }
+            }, STATS_INTERVAL, STATS_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+
+        ACTIVE_TURNS.incrementAndGet();
+        TURNS.put(tTurn, Boolean.TRUE);
+        SEARCH.execute(tTurn);
+    }
+
+    /**
+     * Records that the provided turn no longer needs a search thread, either
+     * because it has been searched or because it was cancelled.
+     */
+    static final void finishTurn(final Turn tTurn) {
+        TURNS.remove(tTurn);
+    }
+
+    /**
+     * Cancels every turn of the designated game.  The turns still waiting for a
+     * search thread are dropped from the queue and the turns being searched
+     * stop as soon as they next check.
+     */
+    static final void cancelTurns(final LabyrinthManager tGameManager) {
+        for (Turn tTurn : TURNS.keySet()) {
+            if (tTurn.mtGameManager != tGameManager)
+                continue;
+
+            tTurn.cancel();
+            CANCELLED_TURNS.incrementAndGet();
+            if (SEARCH.remove(tTurn)) {
+                finishTurn(tTurn);
+                endTurn();
+            }
+        }
+    }
+
+    /**
+     * Returns the time, as given by <code>System.nanoTime()</code>, a search
+     * that must be finished by the designated time should stop given the number
+     * of turns waiting for a search thread.  The time left is shared between
+     * the turn and those waiting, as though each thread had one more turn for
+     * every <code>THREAD_COUNT</code> turns queued, so the busier the threads
+     * the sooner the search stops.
+     */
+    static final long getDeadline(final long lDeadline) {
+        final long lNow = System.nanoTime();
+        return lNow + Math.max(0, lDeadline - lNow) * THREAD_COUNT / (THREAD_COUNT + getQueueDepth());
+    }
+
+    /**
+     * Returns the number of turns waiting for a search thread.
+     */
+    static final int getQueueDepth() {
+        return SEARCH.getQueue().size();
+    }
+
+    /**
+     * Records that a turn waited the designated number of nanoseconds for a
+     * search thread.
+     */
+    static final void recordWait(final long lNanos) {
+        WAITS.incrementAndGet();
+        WAIT_NANOS.addAndGet(lNanos);
+        long lMaximum = MAXIMUM_WAIT_NANOS.get();
+        while (lNanos > lMaximum && !MAXIMUM_WAIT_NANOS.compareAndSet(lMaximum, lNanos))
+            lMaximum = MAXIMUM_WAIT_NANOS.get();
+    }
+
+    /**
+     * Returns the number of turns that have waited for a search thread.
+     */
+    static final long getWaits() {
+        return WAITS.get();
+    }
+
+    /**
+     * Returns the total number of nanoseconds turns have waited for a search
+     * thread.  Divided by the number of waits, this is the average wait.
+     */
+    static final long getWaitNanos() {
+        return WAIT_NANOS.get();
+    }
+
+    /**
+     * Returns the longest number of nanoseconds a turn has waited for a search
+     * thread.
+     */
+    static final long getMaximumWaitNanos() {
+        return MAXIMUM_WAIT_NANOS.get();
+    }
+
+    /**
+     * Returns the number of turns cancelled because their game ended.
+     */
+    static final long getCancelledTurns() {
+        return CANCELLED_TURNS.get();
+    }
+
+    /**
+     * Records that an AI turn has finished, either because the AI player has
+     * moved or because the turn was abandoned.
+     */
+    static final void endTurn() {
+        ACTIVE_TURNS.decrementAndGet();
+    }
+
+    /**
+     * Returns the number of AI turns, across every game on the server, that
+     * have started but not yet finished.
+     */
+    static final int getActiveTurns() {
+        return ACTIVE_TURNS.get();
+    }
+
+    /**
+     * Records that a turn is being searched, pausing every ponder until no
+     * turns are.
+     */
+    static final void startSearch() {
+        ACTIVE_SEARCHES.incrementAndGet();
+        for (Ponder tPonder : PONDERS.keySet())
+            tPonder.pause();
+    }
+
+    /**
+     * Records that a turn has been searched, resuming the ponders if no turns
+     * are being searched any longer.
+     */
+    static final void endSearch() {
+        if (ACTIVE_SEARCHES.decrementAndGet() == 0)
+            resumePonders();
+    }
+
+    /**
+     * Returns true if any turn is being searched.
+     */
+    static final boolean isBusy() {
+        return ACTIVE_SEARCHES.get() > 0;
+    }
+
+    /**
+     * Starts the provided ponder, right away unless a turn is being searched.
+     */
+    static final void startPonder(final Ponder tPonder) {
+        PONDERS.put(tPonder, Boolean.TRUE);
+        tPonder.pause();
+        if (!isBusy() && tPonder.resume())
+            PONDER.execute(tPonder);
+    }
+
+    /**
+     * Cancels the provided ponder.
+     */
+    static final void stopPonder(final Ponder tPonder) {
+        tPonder.cancel();
+        PONDERS.remove(tPonder);
+    }
+
+    /**
+     * Records that an AI player spent the designated number of nanoseconds
+     * pondering.
+     */
+    static final void recordPonder(final long lNanos) {
+        PONDER_NANOS.addAndGet(lNanos);
+    }
+
+    /**
+     * Returns the total number of nanoseconds the AI players have spent pondering.
+     */
+    static final long getPonderNanos() {
+        return PONDER_NANOS.get();
+    }
+
+    /**
+     * Private static method which runs each of the paused ponders again.
+     */
+    private static final void resumePonders() {
+        for (Ponder tPonder : PONDERS.keySet()) {
+            if (tPonder.resume())
+                PONDER.execute(tPonder);
+        }
+    }
+
+    /**
+     * Records a search that reached the designated number of turns ahead after
+     * visiting the designated number of positions.
+     */
+    static final void recordSearch(final int iDepth, final long lNodes) {
+        SEARCHES.incrementAndGet();
+        SEARCHED_DEPTH.addAndGet(iDepth);
+        SEARCHED_NODES.addAndGet(lNodes);
+    }
+
+    /**
+     * Returns the number of searches made by the AI players.
+     */
+    static final long getSearches() {
+        return SEARCHES.get();
+    }
+
+    /**
+     * Returns the total number of turns ahead reached by the searches.  Divided
+     * by the number of searches, this is the average depth reached.
+     */
+    static final long getSearchedDepth() {
+        return SEARCHED_DEPTH.get();
+    }
+
+    /**
+     * Returns the total number of positions visited by the searches.
+     */
+    static final long getSearchedNodes() {
+        return SEARCHED_NODES.get();
+    }
+
+    /**
+     * Records that the designated number of playouts were made over the
+     * designated number of nanoseconds.
+     */
+    static final void recordPlayouts(final long lPlayouts, final long lNanos) {
+        PLAYOUTS.addAndGet(lPlayouts);
+        PLAYOUT_NANOS.addAndGet(lNanos);
+    }
+
+    /**
+     * Returns the number of playouts made by the Monte Carlo AI players.
+     */
+    static final long getPlayouts() {
+        return PLAYOUTS.get();
+    }
+
+    /**
+     * Returns the total number of nanoseconds spent making playouts.
+     */
+    static final long getPlayoutNanos() {
+        return PLAYOUT_NANOS.get();
+    }
+
+    /**
+     * Returns the number of playouts made per second, across every thread,
+     * by the Monte Carlo AI players so far or zero if none have been made.
+     */
+    static final long getPlayoutRate() {
+        final long lNanos = PLAYOUT_NANOS.get();
+        return (lNanos == 0) ? 0 : (long) (PLAYOUTS.get() * 1000000000.0 / lNanos);
+    }
+
+    /**
+     * Returns the executor that the shifts of a search are evaluated on.
+     */
+    static final ExecutorService getEvaluator() {
+        return EVALUATOR;
+    }
+
+    /**
+     * Posts the provided move to the event queue of the designated game once
+     * the designated number of milliseconds have passed.  A move without a
+     * delay is posted right away rather than through the timer.
+     */
+    static final void schedule(final LabyrinthManager tGameManager, final Runnable tMove, final long lDelay) {
+        if (lDelay <= 0) {
+            tGameManager.postRunnable(tMove);
+            return;
+        }
+
+        TIMER.schedule(new Runnable() {
+            public final void run() {
+                tGameManager.postRunnable(tMove);
+            }
+        }, lDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Private static method which logs the statistics of the scheduler: the
+     * AI turns under way, the turns queued, the time they waited and the number cancelled, the
+     * searches made along with the average number of turns ahead reached, the
+     * rate of the Monte Carlo playouts and the time spent pondering.
+     */
+    private static final void logStats() {
+        final long lWaits = getWaits();
+        final long lSearches = getSearches();
+        System.err.println("AI scheduler statistics [active=" + getActiveTurns() + ", queued=" + getQueueDepth() + ", waits=" + lWaits
+                + ", averageWait=" + ((lWaits == 0) ? 0 : getWaitNanos() / lWaits / 1000000L) + "ms"
+                + ", maximumWait=" + getMaximumWaitNanos() / 1000000L + "ms, cancelled=" + getCancelledTurns()
+                + ", searches=" + lSearches + ", averageDepth=" + ((lSearches == 0) ? 0 : Math.round(10.0 * getSearchedDepth() / lSearches) / 10.0)
+                + ", nodes=" + getSearchedNodes() + ", playouts=" + getPlayouts() + ", playoutRate=" + getPlayoutRate() + "/s"
+                + ", ponder=" + getPonderNanos() / 1000000L + "ms].");
+    }
+
+    /**
+     * Private method which creates a factory for daemon threads with the
+     * designated name and priority.
+     */
+    private static final ThreadFactory createThreadFactory(final String sName, final int iPriority) {
+        return new ThreadFactory() {
+            public final Thread newThread(final Runnable tRunnable) {
+                final Thread tThread = new Thread(tRunnable, sName);
+                tThread.setDaemon(true);
+                tThread.setPriority(iPriority);
+                return tThread;
+            }
+        };
+    }
+
+}
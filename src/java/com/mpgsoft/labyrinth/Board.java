@@ -0,0 +1,582 @@
+//
+// $Id$
+
+package com.mpgsoft.labyrinth;
+
+import java.util.Arrays;
+
+/**
+ * This class is a packed, primitive model of the maze.  Each square on the
+ * board holds the identity of the {@link Wall} located there along with the
+ * exit mask of that wall so that looking up the passages from any square is
+ * a single array access.  The locations of the {@link Ghost}s and
+ * {@link Treasure}s are held in primitive coordinate arrays indexed by their
+ * unique identities.
+ * <p>
+ * On the server, the <code>Board</code> is the authoritative state of the
+ * game.  The distributed sets in {@link LabyrinthObject} are a projection of
+ * this model which is published to the clients.
+ * <p>
+ * The board also maintains a 64-bit hash of the complete position which is
+ * updated as each piece moves.  Two boards in the same position have the
+ * same hash so it can be used to recognize positions that have already been
+ * seen, for example by building a board for each game object with
+ * <code>create()</code> and comparing the hashes.
+ * @see Zobrist
+ *
+ * @author Jeffrey D. Hoffman
+ */
+final class Board {
+
+    /**
+     * Static constant used to identify a square that does not hold a wall.
+     * Wall identities are assigned starting from one.
+     */
+    static final int NO_WALL = 0;
+
+    /**
+     * Static constant used as the coordinate of a piece that is not on the
+     * board, such as a treasure that has been collected.
+     */
+    static final int OFF_BOARD = -1;
+
+    /**
+     * Static arrays of grid offsets corresponding to the bits of an exit mask.
+     * @see Wall#NORTH_EXIT
+     */
+    static final int[] EXIT_OFFSET_X = new int[] { 0, 1, 0, -1 };
+    static final int[] EXIT_OFFSET_Y = new int[] { -1, 0, 1, 0 };
+
+    /**
+     * This is the width of the board, including the area surrounding the maze.
+     */
+    final int width;
+
+    /**
+     * This is the height of the board, including the area surrounding the maze.
+     */
+    final int height;
+
+    /**
+     * This is the identity of the wall in each square, indexed by
+     * <code>y * width + x</code>.
+     */
+    private final int[] maiWalls;
+
+    /**
+     * This is the exit mask of the wall in each square.  Squares without a
+     * wall have no exits.
+     */
+    private final int[] maiExits;
+
+    /**
+     * This is the shape of each wall, indexed by the wall's identity.
+     */
+    private final int[] maiShapes;
+
+    /**
+     * This is the orientation of each wall, indexed by the wall's identity.
+     */
+    private final int[] maiOrientations;
+
+    /**
+     * These are the locations of the ghosts, indexed by player.
+     */
+    private final int[] maiGhostX;
+    private final int[] maiGhostY;
+
+    /**
+     * These are the locations of the treasures, indexed by the treasure's
+     * identity.
+     */
+    private final int[] maiTreasureX;
+    private final int[] maiTreasureY;
+
+    /**
+     * This is the identity of the wall that is not currently in the maze.
+     */
+    private int miFloatingWall = NO_WALL;
+
+    /**
+     * This is the location from which the floating wall was shifted out of the
+     * maze.
+     * @see LabyrinthObject#floating_wall_origin
+     */
+    private int miFloatingWallOrigin = 0;
+
+    /**
+     * These are the masks of the squares within the maze from which a ghost
+     * can step in each direction, indexed by exit index and then by row.  They
+     * are updated for the affected squares whenever a wall moves.
+     * @see Reachability
+     */
+    private final long[][] malMoves;
+
+    /**
+     * This is the identity of the treasure being sought or -1 if none is.
+     * @see LabyrinthObject#active_treasure
+     */
+    private int miActiveTreasure = -1;
+
+    /**
+     * This is the hash of the position, which is updated as pieces move.
+     */
+    private long mlHash = 0;
+
+    /**
+     * Package-private constructor which creates an empty board of the
+     * designated size with room for the specified number of ghosts.
+     */
+    Board(final int iWidth, final int iHeight, final int iGhosts) {
+
+        // Each row of the board must fit into a single mask.
+        if (iWidth > Long.SIZE)
+            throw new IllegalArgumentException("Board is too wide [width=" + iWidth + "].");
+
+        width = iWidth;
+        height = iHeight;
+
+        // Allocate the squares.
+        maiWalls = new int[iWidth * iHeight];
+        maiExits = new int[iWidth * iHeight];
+        malMoves = new long[EXIT_OFFSET_X.length][iHeight];
+
+        // Every square in the maze holds a wall, plus the floating wall.  Identities
+        // start from one so there is one more entry than there are walls.
+        final int iWalls = (iWidth - 2) * (iHeight - 2) + 2;
+        maiShapes = new int[iWalls];
+        maiOrientations = new int[iWalls];
+
+        // Allocate the pieces, none of which are on the board yet.
+        maiGhostX = new int[iGhosts];
+        maiGhostY = new int[iGhosts];
+        maiTreasureX = new int[Treasure.TREASURE_COUNT];
+        maiTreasureY = new int[Treasure.TREASURE_COUNT];
+        Arrays.fill(maiGhostX, OFF_BOARD);
+        Arrays.fill(maiGhostY, OFF_BOARD);
+        Arrays.fill(maiTreasureX, OFF_BOARD);
+        Arrays.fill(maiTreasureY, OFF_BOARD);
+
+        // The hash starts from the initial location of the floating wall.
+        mlHash = Zobrist.getFloatingOriginKey(miFloatingWallOrigin);
+
+    }
+
+    /**
+     * Static factory method which builds a board from the distributed state of
+     * the game.
+     */
+    static final Board create(final LabyrinthObject tGameObject) {
+
+        // Create an empty board with room for each of the players.
+        final Board tBoard = new Board(tGameObject.board_size, tGameObject.board_size, tGameObject.players.length);
+
+        // Copy the walls into the maze.
+        for (Wall tWall : tGameObject.walls)
+            tBoard.setWall(tWall.unique_id, tWall.x, tWall.y, tWall.shape, tWall.orientation);
+
+        // Copy the floating wall, if there is one.
+        if (tGameObject.floating_wall != null) {
+            final Wall tWall = tGameObject.floating_wall;
+            tBoard.setFloatingWall(tWall.unique_id, tWall.shape, tWall.orientation);
+        }
+        tBoard.setFloatingWallOrigin(tGameObject.floating_wall_origin);
+
+        // Copy the locations of the ghosts and treasures.
+        for (Ghost tGhost : tGameObject.ghosts)
+            tBoard.setGhost(tGhost.unique_id, tGhost.x, tGhost.y);
+        for (Treasure tTreasure : tGameObject.treasures)
+            tBoard.setTreasure(tTreasure.unique_id, tTreasure.x, tTreasure.y);
+        tBoard.setActiveTreasure(tGameObject.active_treasure);
+
+        return tBoard;
+    }
+
+    /**
+     * Returns a new <code>Board</code> holding the same state as this one.
+     */
+    final Board copy() {
+        final Board tBoard = new Board(width, height, maiGhostX.length);
+        tBoard.copyFrom(this);
+        return tBoard;
+    }
+
+    /**
+     * Overwrites the state of this board with the state of the provided board
+     * which must be of the same size.  This allows a board to be reused.
+     */
+    final void copyFrom(final Board tBoard) {
+        System.arraycopy(tBoard.maiWalls, 0, maiWalls, 0, maiWalls.length);
+        System.arraycopy(tBoard.maiExits, 0, maiExits, 0, maiExits.length);
+        System.arraycopy(tBoard.maiShapes, 0, maiShapes, 0, maiShapes.length);
+        System.arraycopy(tBoard.maiOrientations, 0, maiOrientations, 0, maiOrientations.length);
+        System.arraycopy(tBoard.maiGhostX, 0, maiGhostX, 0, maiGhostX.length);
+        System.arraycopy(tBoard.maiGhostY, 0, maiGhostY, 0, maiGhostY.length);
+        System.arraycopy(tBoard.maiTreasureX, 0, maiTreasureX, 0, maiTreasureX.length);
+        System.arraycopy(tBoard.maiTreasureY, 0, maiTreasureY, 0, maiTreasureY.length);
+        miFloatingWall = tBoard.miFloatingWall;
+        miFloatingWallOrigin = tBoard.miFloatingWallOrigin;
+        for (int iExit = 0; iExit < malMoves.length; ++iExit)
+            System.arraycopy(tBoard.malMoves[iExit], 0, malMoves[iExit], 0, height);
+        miActiveTreasure = tBoard.miActiveTreasure;
+        mlHash = tBoard.mlHash;
+    }
+
+    /**
+     * Returns true if the designated position is within the bounds of the
+     * board, including the area surrounding the maze.
+     */
+    final boolean contains(final int iX, final int iY) {
+        return iX >= 0 && iY >= 0 && iX < width && iY < height;
+    }
+
+    /**
+     * Returns true if the designated position is within the maze itself, 
+     * excluding the area surrounding it.
+     */
+    final boolean isWithinMaze(final int iX, final int iY) {
+        return iX >= 1 && iY >= 1 && iX < width - 1 && iY < height - 1;
+    }
+
+    /**
+     * Returns the identity of the wall at the designated position or
+     * <code>NO_WALL</code> if there is none.
+     */
+    final int getWall(final int iX, final int iY) {
+        return contains(iX, iY) ? maiWalls[iY * width + iX] : NO_WALL;
+    }
+
+    /**
+     * Returns the exit mask of the wall at the designated position.  Positions
+     * that do not hold a wall have no exits.
+     */
+    final int getExits(final int iX, final int iY) {
+        return contains(iX, iY) ? maiExits[iY * width + iX] : 0;
+    }
+
+    /**
+     * Returns true if a ghost can step from the designated position in the
+     * direction of the provided exit index (the bit number of the exit).
+     */
+    final boolean canMove(final int iX, final int iY, final int iExitIndex) {
+
+        // There must be an exit in this direction and the neighboring wall must
+        // have an exit leading back the other way.
+        return Wall.canConnect(getExits(iX, iY), getExits(iX + EXIT_OFFSET_X[iExitIndex], iY + EXIT_OFFSET_Y[iExitIndex]), 1 << iExitIndex);
+    }
+
+    /**
+     * Returns the shape of the designated wall.
+     */
+    final int getShape(final int iWall) {
+        return maiShapes[iWall];
+    }
+
+    /**
+     * Returns the orientation of the designated wall.
+     */
+    final int getOrientation(final int iWall) {
+        return maiOrientations[iWall];
+    }
+
+    /**
+     * Records the shape and orientation of the designated wall and places it
+     * into the maze at the provided position.
+     */
+    final void setWall(final int iWall, final int iX, final int iY, final int iShape, final int iOrientation) {
+
+        // Clear the square first in case it already holds this wall.
+        final int iIndex = iY * width + iX;
+        mlHash ^= getWallKey(iIndex);
+        maiWalls[iIndex] = NO_WALL;
+
+        maiShapes[iWall] = iShape;
+        maiOrientations[iWall] = iOrientation;
+        moveWall(iWall, iX, iY);
+    }
+
+    /**
+     * Moves the designated wall, which must already be known to the board,
+     * into the square at the provided position.
+     */
+    final void moveWall(final int iWall, final int iX, final int iY) {
+        final int iIndex = iY * width + iX;
+        mlHash ^= getWallKey(iIndex);
+        maiWalls[iIndex] = iWall;
+        mlHash ^= getWallKey(iIndex);
+        maiExits[iIndex] = (iWall == NO_WALL) ? 0 : Wall.getExitMask(maiShapes[iWall], maiOrientations[iWall]);
+
+        // The moves from this square and from each of it's neighbors may have changed.
+        updateMoves(iX, iY);
+        for (int iExit = 0; iExit < EXIT_OFFSET_X.length; ++iExit)
+            updateMoves(iX + EXIT_OFFSET_X[iExit], iY + EXIT_OFFSET_Y[iExit]);
+
+    }
+
+    /**
+     * Private method which updates the masks of moves for the designated square.
+     */
+    private final void updateMoves(final int iX, final int iY) {
+
+        // Only squares within the maze are tracked.
+        if (!isWithinMaze(iX, iY))
+            return;
+
+        // Record each of the directions a ghost can step from this square.
+        for (int iExit = 0; iExit < malMoves.length; ++iExit) {
+            if (canMove(iX, iY, iExit))
+                malMoves[iExit][iY] |= 1L << iX;
+            else
+                malMoves[iExit][iY] &= ~(1L << iX);
+        }
+
+    }
+
+    /**
+     * Returns the mask of the squares in the designated row from which a ghost
+     * can step in the direction of the designated exit index.  Bits are numbered
+     * as described in {@link Reachability}.
+     */
+    final long getMoves(final int iExitIndex, final int iY) {
+        return malMoves[iExitIndex][iY];
+    }
+
+    /**
+     * Returns the identity of the floating wall.
+     */
+    final int getFloatingWall() {
+        return miFloatingWall;
+    }
+
+    /**
+     * Records the shape and orientation of the designated wall and makes it
+     * the floating wall.
+     */
+    final void setFloatingWall(final int iWall, final int iShape, final int iOrientation) {
+        mlHash ^= getFloatingWallKey();
+        maiShapes[iWall] = iShape;
+        maiOrientations[iWall] = iOrientation;
+        miFloatingWall = iWall;
+        mlHash ^= getFloatingWallKey();
+    }
+
+    /**
+     * Makes the designated wall, which must already be known to the board, the
+     * floating wall.  The location from which it was shifted out of the maze
+     * is recorded as well.
+     */
+    final void setFloatingWall(final int iWall, final int iOrigin) {
+        mlHash ^= getFloatingWallKey();
+        miFloatingWall = iWall;
+        mlHash ^= getFloatingWallKey();
+        setFloatingWallOrigin(iOrigin);
+    }
+
+    /**
+     * Changes the orientation of the floating wall.
+     */
+    final void setFloatingOrientation(final int iOrientation) {
+        mlHash ^= getFloatingWallKey();
+        maiOrientations[miFloatingWall] = iOrientation;
+        mlHash ^= getFloatingWallKey();
+    }
+
+    /**
+     * Private method which records the location from which the floating wall
+     * was shifted out of the maze.
+     */
+    private final void setFloatingWallOrigin(final int iOrigin) {
+        mlHash ^= Zobrist.getFloatingOriginKey(miFloatingWallOrigin);
+        miFloatingWallOrigin = iOrigin;
+        mlHash ^= Zobrist.getFloatingOriginKey(miFloatingWallOrigin);
+    }
+
+    /**
+     * Returns the location from which the floating wall was shifted out of
+     * the maze.
+     */
+    final int getFloatingWallOrigin() {
+        return miFloatingWallOrigin;
+    }
+
+    /**
+     * Returns the number of ghosts the board has room for.
+     */
+    final int getGhostCount() {
+        return maiGhostX.length;
+    }
+
+    /**
+     * Returns the x-position of the designated player's ghost.
+     */
+    final int getGhostX(final int iPlayer) {
+        return maiGhostX[iPlayer];
+    }
+
+    /**
+     * Returns the y-position of the designated player's ghost.
+     */
+    final int getGhostY(final int iPlayer) {
+        return maiGhostY[iPlayer];
+    }
+
+    /**
+     * Moves the designated player's ghost to the provided position.
+     */
+    final void setGhost(final int iPlayer, final int iX, final int iY) {
+        mlHash ^= getGhostKey(iPlayer);
+        maiGhostX[iPlayer] = iX;
+        maiGhostY[iPlayer] = iY;
+        mlHash ^= getGhostKey(iPlayer);
+    }
+
+    /**
+     * Returns the x-position of the designated treasure or <code>OFF_BOARD</code>
+     * if it has been collected.
+     */
+    final int getTreasureX(final int iTreasure) {
+        return maiTreasureX[iTreasure];
+    }
+
+    /**
+     * Returns the y-position of the designated treasure or <code>OFF_BOARD</code>
+     * if it has been collected.
+     */
+    final int getTreasureY(final int iTreasure) {
+        return maiTreasureY[iTreasure];
+    }
+
+    /**
+     * Moves the designated treasure to the provided position.
+     */
+    final void setTreasure(final int iTreasure, final int iX, final int iY) {
+        mlHash ^= getTreasureKey(iTreasure);
+        maiTreasureX[iTreasure] = iX;
+        maiTreasureY[iTreasure] = iY;
+        mlHash ^= getTreasureKey(iTreasure);
+    }
+
+    /**
+     * Returns the identity of the treasure being sought or -1 if none is.
+     */
+    final int getActiveTreasure() {
+        return miActiveTreasure;
+    }
+
+    /**
+     * Changes the treasure being sought.  A value of -1 indicates that no
+     * treasure is being sought.
+     */
+    final void setActiveTreasure(final int iTreasure) {
+        if (miActiveTreasure >= 0)
+            mlHash ^= Zobrist.getActiveTreasureKey(miActiveTreasure);
+        miActiveTreasure = iTreasure;
+        if (miActiveTreasure >= 0)
+            mlHash ^= Zobrist.getActiveTreasureKey(miActiveTreasure);
+    }
+
+    /**
+     * Returns the 64-bit hash of the position.  Boards in the same position
+     * always have the same hash.
+     */
+    final long getHash() {
+        return mlHash;
+    }
+
+    /**
+     * Private method which returns the hash key of the wall in the square with
+     * the designated index.  Empty squares contribute nothing to the hash.
+     */
+    private final long getWallKey(final int iIndex) {
+        final int iWall = maiWalls[iIndex];
+        return (iWall == NO_WALL) ? 0 : Zobrist.getWallKey(iIndex, maiShapes[iWall], maiOrientations[iWall]);
+    }
+
+    /**
+     * Private method which returns the hash key of the floating wall.
+     */
+    private final long getFloatingWallKey() {
+        return (miFloatingWall == NO_WALL) ? 0 : Zobrist.getFloatingWallKey(maiShapes[miFloatingWall], maiOrientations[miFloatingWall]);
+    }
+
+    /**
+     * Private method which returns the hash key of the designated player's 
+     * ghost.  Ghosts that are not on the board contribute nothing to the hash.
+     */
+    private final long getGhostKey(final int iPlayer) {
+        return (maiGhostX[iPlayer] == OFF_BOARD) ? 0 : Zobrist.getGhostKey(iPlayer, maiGhostY[iPlayer] * width + maiGhostX[iPlayer]);
+    }
+
+    /**
+     * Private method which returns the hash key of the designated treasure.
+     * Collected treasures contribute nothing to the hash.
+     */
+    private final long getTreasureKey(final int iTreasure) {
+        return (maiTreasureX[iTreasure] == OFF_BOARD) ? 0 : Zobrist.getTreasureKey(iTreasure, maiTreasureY[iTreasure] * width + maiTreasureX[iTreasure]);
+    }
+
+    /**
+     * Package-private method which shifts the ghosts and treasures that are
+     * located in the designated row or column by one square.  Pieces that leave
+     * the maze wrap to the opposite side.
+     * @see ShiftContext#shift(Board)
+     */
+    final void shiftPieces(final boolean bHorizontal, final int iLocation, final int iDirection) {
+
+        // The pieces stay in the same row or column so their keys are removed
+        // from the hash before they move and added back afterwards.
+        mlHash ^= getLaneKeys(bHorizontal, iLocation);
+        shiftPieces(maiGhostX, maiGhostY, bHorizontal, iLocation, iDirection);
+        shiftPieces(maiTreasureX, maiTreasureY, bHorizontal, iLocation, iDirection);
+        mlHash ^= getLaneKeys(bHorizontal, iLocation);
+
+    }
+
+    /**
+     * Private method which combines the hash keys of the ghosts and treasures
+     * located in the designated row or column.
+     */
+    private final long getLaneKeys(final boolean bHorizontal, final int iLocation) {
+        long lKeys = 0;
+        for (int iPlayer = 0; iPlayer < maiGhostX.length; ++iPlayer) {
+            if ((bHorizontal ? maiGhostY[iPlayer] : maiGhostX[iPlayer]) == iLocation)
+                lKeys ^= getGhostKey(iPlayer);
+        }
+        for (int iTreasure = 0; iTreasure < maiTreasureX.length; ++iTreasure) {
+            if ((bHorizontal ? maiTreasureY[iTreasure] : maiTreasureX[iTreasure]) == iLocation)
+                lKeys ^= getTreasureKey(iTreasure);
+        }
+        return lKeys;
+    }
+
+    /**
+     * Shifts the pieces held in the provided coordinate arrays.
+     */
+    private final void shiftPieces(final int[] aiX, final int[] aiY, final boolean bHorizontal, final int iLocation, final int iDirection) {
+
+        // Determine which coordinate identifies the row or column and which
+        // coordinate is being moved.
+        final int[] aiLane  = bHorizontal ? aiY : aiX;
+        final int[] aiMoved = bHorizontal ? aiX : aiY;
+
+        // The last square within the maze along the direction of the shift.
+        final int iLast = (bHorizontal ? width : height) - 2;
+
+        // Step through the pieces and move those in the row or column.
+        for (int iPiece = 0; iPiece < aiLane.length; ++iPiece) {
+            if (aiLane[iPiece] != iLocation)
+                continue;
+
+            // Move the piece and wrap it if it left the maze.
+            int iPosition = aiMoved[iPiece] + iDirection;
+            if (iPosition < 1)
+                iPosition = iLast;
+            else if (iPosition > iLast)
+                iPosition = 1;
+            aiMoved[iPiece] = iPosition;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,280 @@
+//
+// $Id$
+
+package com.mpgsoft.labyrinth;
+
+import java.util.Arrays;
+
+/**
+ * This class maintains the connected regions of the maze for a {@link Board}.
+ * Every square within the maze is labeled with the region it belongs to so
+ * that asking whether a ghost can reach a square is a single comparison.
+ * <p>
+ * Labeling the whole maze is only done once.  A shift changes a single row
+ * or column so afterwards only the regions that passed through that row or
+ * column are relabeled; regions that merely touch it are absorbed when they
+ * become connected to it.  Squares are indexed by <code>y * width + x</code>
+ * and a region is labeled with the lowest index it holds.
+ * <p>
+ * The labels can also be copied into a primitive array covering the whole
+ * board with <code>getLabels()</code> so that region membership and region
+ * sizes can be looked up for every square without any pathfinding.
+ *
+ * @author Jeffrey D. Hoffman
+ */
+final class Connectivity {
+
+    /**
+     * Static constant defining the label of a square that does not belong to
+     * any region because it is not within the maze.
+     */
+    static final int NO_REGION = -1;
+
+    /**
+     * This is the <code>Board</code> whose regions are being maintained.
+     */
+    private final Board mtBoard;
+
+    /**
+     * This is the label of the region holding each square, indexed by
+     * <code>y * width + x</code>.
+     */
+    private final int[] maiLabels;
+
+    /**
+     * This is the number of squares in each region, indexed by label.  Only
+     * the entries of labels that are currently in use are meaningful.
+     */
+    private final int[] maiSizes;
+
+    /**
+     * These are working buffers used while relabeling.  They flag the labels
+     * of the regions that changed, and hold the squares remaining to be
+     * labeled and the region being labeled.
+     * @see Reachability
+     */
+    private final boolean[] mabChanged;
+    private final long[] malRemaining;
+    private final long[] malRegion;
+
+    /**
+     * Constructs the regions of the provided board.  The board is retained so
+     * that the regions can be updated after it has been shifted.
+     */
+    Connectivity(final Board tBoard) {
+        mtBoard = tBoard;
+        maiLabels = new int[tBoard.width * tBoard.height];
+        maiSizes = new int[maiLabels.length];
+        mabChanged = new boolean[maiLabels.length];
+        malRemaining = Reachability.createMask(tBoard);
+        malRegion = Reachability.createMask(tBoard);
+        Arrays.fill(maiLabels, NO_REGION);
+
+        // Label every square within the maze.
+        final long lRow = ((1L << (tBoard.width - 2)) - 1) << 1;
+        for (int iY = 1; iY < tBoard.height - 1; ++iY)
+            malRemaining[iY] = lRow;
+        relabel();
+
+    }
+
+    /**
+     * Convenience factory method which labels the regions of the board held
+     * by the provided game object.
+     * @see Board#create(LabyrinthObject)
+     */
+    static final Connectivity create(final LabyrinthObject tGameObject) {
+        return new Connectivity(Board.create(tGameObject));
+    }
+
+    /**
+     * Private constructor used when copying the regions of another
+     * <code>Connectivity</code>.
+     */
+    private Connectivity(final Board tBoard, final Connectivity tConnectivity) {
+        mtBoard = tBoard;
+        maiLabels = tConnectivity.maiLabels.clone();
+        maiSizes = tConnectivity.maiSizes.clone();
+        mabChanged = new boolean[maiLabels.length];
+        malRemaining = Reachability.createMask(tBoard);
+        malRegion = Reachability.createMask(tBoard);
+    }
+
+    /**
+     * Returns a copy of these regions that is maintained for the provided
+     * board, which must be a copy of the board these regions describe.
+     */
+    final Connectivity copy(final Board tBoard) {
+        return new Connectivity(tBoard, this);
+    }
+
+    /**
+     * Copies the regions of another <code>Connectivity</code> of the same size.
+     * This is used along with {@link Board#copyFrom(Board)} to reset a working
+     * copy without allocating.
+     */
+    final void copyFrom(final Connectivity tConnectivity) {
+        System.arraycopy(tConnectivity.maiLabels, 0, maiLabels, 0, maiLabels.length);
+        System.arraycopy(tConnectivity.maiSizes, 0, maiSizes, 0, maiSizes.length);
+    }
+
+    /**
+     * Returns the <code>Board</code> whose regions are being maintained.
+     */
+    final Board getBoard() {
+        return mtBoard;
+    }
+
+    /**
+     * Updates the regions after the provided shift has been applied to the
+     * board.  Only the regions that held a square of the shifted row or column
+     * are relabeled.
+     */
+    final void update(final ShiftContext tShiftContext) {
+
+        // Every region that held a square of the row or column may have been
+        // split apart by the shift.
+        for (int iPosition = 1; iPosition <= tShiftContext.last; ++iPosition)
+            mabChanged[maiLabels[tShiftContext.getTileY(iPosition) * mtBoard.width + tShiftContext.getTileX(iPosition)]] = true;
+
+        // Gather the squares of those regions.
+        for (int iY = 1; iY < mtBoard.height - 1; ++iY) {
+            long lRow = 0;
+            for (int iX = 1; iX < mtBoard.width - 1; ++iX) {
+                if (mabChanged[maiLabels[iY * mtBoard.width + iX]])
+                    lRow |= 1L << iX;
+            }
+            malRemaining[iY] = lRow;
+        }
+
+        // Clear the flags before the labels are changed.
+        for (int iPosition = 1; iPosition <= tShiftContext.last; ++iPosition)
+            mabChanged[maiLabels[tShiftContext.getTileY(iPosition) * mtBoard.width + tShiftContext.getTileX(iPosition)]] = false;
+
+        relabel();
+    }
+
+    /**
+     * Private method which labels the regions that hold the squares remaining
+     * to be labeled.  Regions that are not remaining are relabeled only if they
+     * have become connected to one of the remaining squares.
+     */
+    private final void relabel() {
+        for (int iY = 1; iY < mtBoard.height - 1; ++iY) {
+            while (malRemaining[iY] != 0) {
+
+                // Spread from the lowest remaining square to find it's region.
+                Arrays.fill(malRegion, 0);
+                malRegion[iY] = Long.lowestOneBit(malRemaining[iY]);
+                Reachability.spread(mtBoard, malRegion);
+
+                // The region is labeled with it's first square, which may be in an
+                // earlier row if another region was absorbed.
+                int iLabel = NO_REGION;
+                int iSize = 0;
+                for (int iRegionY = 1; iRegionY < mtBoard.height - 1; ++iRegionY) {
+                    long lRow = malRegion[iRegionY];
+                    if (lRow == 0)
+                        continue;
+                    if (iLabel == NO_REGION)
+                        iLabel = iRegionY * mtBoard.width + Long.numberOfTrailingZeros(lRow);
+
+                    // Label every square in this row of the region.
+                    iSize += Long.bitCount(lRow);
+                    for (; lRow != 0; lRow &= lRow - 1)
+                        maiLabels[iRegionY * mtBoard.width + Long.numberOfTrailingZeros(lRow)] = iLabel;
+                    malRemaining[iRegionY] &= ~malRegion[iRegionY];
+
+                }
+                maiSizes[iLabel] = iSize;
+
+            }
+        }
+    }
+
+    /**
+     * Returns the label of the region holding the designated square or
+     * <code>NO_REGION</code> if the square is not within the maze.
+     */
+    final int getLabel(final int iX, final int iY) {
+        return mtBoard.isWithinMaze(iX, iY) ? maiLabels[iY * mtBoard.width + iX] : NO_REGION;
+    }
+
+    /**
+     * Copies the label of every square of the board into the provided array,
+     * indexed by <code>y * width + x</code>.  Squares that are not within the
+     * maze are labeled <code>NO_REGION</code>.  A new array is allocated if the
+     * one provided is null or too small; either way, the filled array is returned.
+     */
+    final int[] getLabels(int[] aiLabels) {
+        if (aiLabels == null || aiLabels.length < maiLabels.length)
+            aiLabels = new int[maiLabels.length];
+        System.arraycopy(maiLabels, 0, aiLabels, 0, maiLabels.length);
+        return aiLabels;
+    }
+
+    /**
+     * Returns the number of squares in the region with the designated label.
+     */
+    final int getRegionSize(final int iLabel) {
+        return maiSizes[iLabel];
+    }
+
+    /**
+     * Fills the provided mask with the squares in the region holding the
+     * designated square.  The mask is left empty if the square is not within
+     * the maze.  The mask is returned.
+     * @see Reachability
+     */
+    final long[] getRegion(final int iX, final int iY, final long[] alMask) {
+        Arrays.fill(alMask, 0, mtBoard.height, 0);
+
+        // Quick abort if the square is not within the maze.
+        final int iLabel = getLabel(iX, iY);
+        if (iLabel == NO_REGION)
+            return alMask;
+
+        // Collect every square with the same label.
+        for (int iRegionY = 1; iRegionY < mtBoard.height - 1; ++iRegionY) {
+            for (int iRegionX = 1; iRegionX < mtBoard.width - 1; ++iRegionX) {
+                if (maiLabels[iRegionY * mtBoard.width + iRegionX] == iLabel)
+                    alMask[iRegionY] |= 1L << iRegionX;
+            }
+        }
+
+        return alMask;
+    }
+
+    /**
+     * Returns true if both of the designated squares are in the same region.
+     */
+    final boolean isConnected(final int iFromX, final int iFromY, final int iToX, final int iToY) {
+        final int iLabel = getLabel(iFromX, iFromY);
+        return iLabel != NO_REGION && iLabel == getLabel(iToX, iToY);
+    }
+
+    /**
+     * Returns true if the designated player's ghost can reach the designated square.
+     */
+    final boolean canReach(final int iPlayer, final int iX, final int iY) {
+        return isConnected(mtBoard.getGhostX(iPlayer), mtBoard.getGhostY(iPlayer), iX, iY);
+    }
+
+    /**
+     * Returns a mask of the identities of the treasures still on the board
+     * that the designated player's ghost can reach.  Bit <code>n</code> is set
+     * if the treasure with the unique identity <code>n</code> can be reached.
+     */
+    final int getReachableTreasures(final int iPlayer) {
+
+        // Test each treasure against the ghost's region.
+        int iTreasures = 0;
+        for (int iTreasure = 0; iTreasure < Treasure.TREASURE_COUNT; ++iTreasure) {
+            if (canReach(iPlayer, mtBoard.getTreasureX(iTreasure), mtBoard.getTreasureY(iTreasure)))
+                iTreasures |= 1 << iTreasure;
+        }
+
+        return iTreasures;
+    }
+
+}
@@ -0,0 +1,141 @@
+//
+// $Id$
+
+package com.mpgsoft.labyrinth;
+
+import java.util.Arrays;
+
+/**
+ * This class holds the number of steps a ghost needs to reach every square
+ * of the maze from a given origin.  The field is computed with a single
+ * breadth-first search over a {@link Board}.  The buffers are kept between
+ * calls to <code>compute()</code> so a single instance can be reused for as
+ * many searches as necessary without allocating.
+ *
+ * @author Jeffrey D. Hoffman
+ */
+final class DistanceField {
+
+    /**
+     * Static constant defining the distance of a square that can not be reached.
+     */
+    static final int UNREACHABLE = -1;
+
+    /**
+     * This is the distance to each square, indexed by <code>y * width + x</code>.
+     */
+    private int[] maiDistances = new int[0];
+
+    /**
+     * This is the queue of square indices used during the search.
+     */
+    private int[] maiQueue = new int[0];
+
+    /**
+     * This is the <code>Board</code> the field was last computed for.
+     */
+    private Board mtBoard;
+
+    /**
+     * This is the square the field was last computed from.
+     */
+    private int miOriginX;
+    private int miOriginY;
+
+    /**
+     * This is the number of squares that were reached by the last search,
+     * including the origin.
+     */
+    private int miReachable;
+
+    /**
+     * Computes the distance from the designated square to every square of the
+     * provided board.  Squares outside of the maze are never reachable.
+     */
+    final void compute(final Board tBoard, final int iOriginX, final int iOriginY) {
+        mtBoard = tBoard;
+        miOriginX = iOriginX;
+        miOriginY = iOriginY;
+        miReachable = 0;
+
+        // Grow the buffers if this board is larger than any seen before.
+        final int iSquares = tBoard.width * tBoard.height;
+        if (maiDistances.length < iSquares) {
+            maiDistances = new int[iSquares];
+            maiQueue = new int[iSquares];
+        }
+        Arrays.fill(maiDistances, 0, iSquares, UNREACHABLE);
+
+        // Quick abort if the origin is not within the maze.
+        if (!tBoard.isWithinMaze(iOriginX, iOriginY))
+            return;
+
+        // Seed the search with the origin.
+        int iHead = 0;
+        int iTail = 0;
+        maiQueue[iTail++] = iOriginY * tBoard.width + iOriginX;
+        maiDistances[maiQueue[0]] = 0;
+
+        // Visit each square in the order it was reached and record the distance
+        // to each of it's unvisited neighbors.
+        while (iHead < iTail) {
+            final int iIndex = maiQueue[iHead++];
+            final int iX = iIndex % tBoard.width;
+            final int iY = iIndex / tBoard.width;
+
+            for (int iExit = 0; iExit < Board.EXIT_OFFSET_X.length; ++iExit) {
+                if (!tBoard.canMove(iX, iY, iExit))
+                    continue;
+
+                // Skip neighbors that have already been reached.
+                final int iNext = iIndex + Board.EXIT_OFFSET_Y[iExit] * tBoard.width + Board.EXIT_OFFSET_X[iExit];
+                if (maiDistances[iNext] != UNREACHABLE)
+                    continue;
+
+                maiDistances[iNext] = maiDistances[iIndex] + 1;
+                maiQueue[iTail++] = iNext;
+
+            }
+        }
+
+        miReachable = iTail;
+    }
+
+    /**
+     * Returns the <code>Board</code> the field was last computed for.
+     */
+    final Board getBoard() {
+        return mtBoard;
+    }
+
+    /**
+     * Returns the number of steps needed to reach the designated square or
+     * <code>UNREACHABLE</code> if it can not be reached.
+     */
+    final int getDistance(final int iX, final int iY) {
+        if (mtBoard == null || !mtBoard.contains(iX, iY))
+            return UNREACHABLE;
+        return maiDistances[iY * mtBoard.width + iX];
+    }
+
+    /**
+     * Returns how far the designated square is from the origin: the number of
+     * steps needed if it can be reached, and otherwise the number of squares
+     * between them (ignoring walls) plus the width of the maze, since the maze
+     * has to be shifted before it can be reached.
+     */
+    final int getApproach(final int iX, final int iY) {
+        final int iDistance = getDistance(iX, iY);
+        if (iDistance != UNREACHABLE)
+            return iDistance;
+        return Math.abs(iX - miOriginX) + Math.abs(iY - miOriginY) + mtBoard.width - 2;
+    }
+
+    /**
+     * Returns the number of squares that can be reached, including the origin.
+     */
+    final int getReachableCount() {
+        return miReachable;
+    }
+
+}
@@ -0,0 +1,587 @@
+//
+// $Id$
+
+package com.mpgsoft.labyrinth;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.threerings.util.Name;
+
+/**
+ * This class is the journal of a single game: an append-only file recording
+ * the board the game started with followed by every turn, wall placed and
+ * ghost moved, from which the game can be rebuilt with {@link #load(File)}
+ * after the server restarts or replayed to see how it unfolded.
+ * <p>
+ * Each record is the length of the rest of the record as an
+ * <code>int</code>, followed by a byte giving the type of the record and
+ * then it's contents.  A record that was cut short by a crash is ignored.
+ * <ul>
+ * <li><code>START</code>: the number of players, each name as a
+ * <code>short</code> length and UTF-8 bytes, then the pieces as packed by
+ * {@link PackedBoard}.</li>
+ * <li><code>TURN</code>: the turn holder and the active treasure.</li>
+ * <li><code>WALL</code>: the turn holder, the position and orientation of
+ * the floating wall as it was placed and it's unique identity as a
+ * <code>short</code>.</li>
+ * <li><code>GHOST</code>: the turn holder and the position the ghost moved
+ * to.  A treasure it picks up is implied by the move.</li>
+ * </ul>
+ * <p>
+ * The game thread only encodes each record and queues it, so journaling
+ * never waits on the disk.  The records of every game are written in
+ * batches by a single writer thread through a buffered <code>FileChannel</code>
+ * and forced to the disk at most once every <code>FORCE_INTERVAL</code>.
+ * <p>
+ * Games are only journaled when the <code>labyrinth.journal</code> system
+ * property names the directory the journals are kept in.
+ *
+ * @author Jeffrey D. Hoffman
+ */
+final class Journal {
+
+    /**
+     * Static constants defining the types of the records.
+     */
+    static final byte START = 1;
+    static final byte TURN  = 2;
+    static final byte WALL  = 3;
+    static final byte GHOST = 4;
+
+    /**
+     * Static constant defining the directory the journals are kept in, or null
+     * if games are not journaled.
+     */
+    private static final String DIRECTORY = System.getProperty("labyrinth.journal");
+
+    /**
+     * Static constant defining the longest the records written may wait
+     * before they are forced to the disk, in nanoseconds.
+     */
+    private static final long FORCE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Static constant defining the size of the buffer each journal's records
+     * are gathered in before they are written.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Static constant defining the character set of the names of the players.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * This is the queue of records waiting to be written.
+     */
+    private static final BlockingQueue<Record> RECORDS = new LinkedBlockingQueue<Record>();
+
+    /**
+     * This is the single thread that writes the records of every game.  It is
+     * a daemon so it never keeps the server alive, and is only started once
+     * the first game to be journaled is created.
+     */
+    private static final Thread WRITER = new Thread("Journal Writer Thread") {
+        public final void run() {
+            write();
+        }
+    };
+
+    /**
+     * This is set once the writer thread has been started.
+     */
+    private static final AtomicBoolean STARTED = new AtomicBoolean();
+
+    /**
+     * This is the file of the journal or null if the game is not journaled.
+     */
+    private final File mtFile;
+
+    /**
+     * This is the channel the journal is written through and the buffer the
+     * records are gathered in.  These are only touched by the writer thread
+     * and are opened with the first record.
+     */
+    private FileChannel mtChannel;
+    private ByteBuffer mtBuffer;
+
+    /**
+     * This is set by the writer thread while records have been written that
+     * are not yet forced to the disk.
+     */
+    private boolean mbUnforced;
+
+    /**
+     * This is set by the writer thread once the journal has failed, after
+     * which nothing more is written to it.
+     */
+    private boolean mbFailed;
+
+    /**
+     * This is released by the writer thread once the journal is closed.
+     */
+    private final CountDownLatch mtClosed = new CountDownLatch(1);
+
+    /**
+     * Private constructor accepting the file of the journal, which is null if
+     * the game is not journaled.
+     */
+    private Journal(final File tFile) {
+        mtFile = tFile;
+    }
+
+    /**
+     * Package-private static method which creates the journal of the game with
+     * the provided distributed object identity.  Every game is given a new
+     * file since identities are reused after the server restarts.  The
+     * journal records nothing if games are not being journaled.
+     */
+    static final Journal create(final int iGameOid) {
+        if (DIRECTORY == null)
+            return new Journal(null);
+        return create(new File(DIRECTORY, "labyrinth-" + iGameOid + "-" + System.currentTimeMillis() + ".journal"));
+    }
+
+    /**
+     * Package-private static method which creates a journal recording to the
+     * provided file, whether or not games are being journaled.
+     */
+    static final Journal create(final File tFile) {
+
+        // Start the writer thread with the first journal.
+        if (STARTED.compareAndSet(false, true)) {
+            WRITER.setDaemon(true);
+            WRITER.start();
+        }
+
+        return new Journal(tFile);
+    }
+
+    /**
+     * Records the players and the pieces of the provided game as it starts.
+     */
+    final void recordStart(final LabyrinthObject tGameObject) {
+        if (mtFile == null)
+            return;
+
+        // Encode the names of the players ahead of the pieces.
+        final byte[][] aabNames = new byte[tGameObject.players.length][];
+        int iLength = 1;
+        for (int iPlayer = 0; iPlayer < aabNames.length; ++iPlayer) {
+            final Name tName = tGameObject.players[iPlayer];
+            aabNames[iPlayer] = (tName == null) ? new byte[0] : tName.toString().getBytes(UTF8);
+            iLength += 2 + aabNames[iPlayer].length;
+        }
+        final byte[] abPacked = PackedBoard.pack(tGameObject);
+
+        final ByteBuffer tRecord = createRecord(START, iLength + abPacked.length);
+        tRecord.put((byte) aabNames.length);
+        for (byte[] abName : aabNames) {
+            tRecord.putShort((short) abName.length);
+            tRecord.put(abName);
+        }
+        tRecord.put(abPacked);
+        queue(tRecord);
+    }
+
+    /**
+     * Records the start of the designated player's turn along with the
+     * treasure being sought.
+     */
+    final void recordTurn(final int iPlayer, final int iActiveTreasure) {
+        if (mtFile == null)
+            return;
+        final ByteBuffer tRecord = createRecord(TURN, 2);
+        tRecord.put((byte) iPlayer);
+        tRecord.put((byte) iActiveTreasure);
+        queue(tRecord);
+    }
+
+    /**
+     * Records the provided wall being placed by the designated player.
+     */
+    final void recordWall(final int iPlayer, final Wall tWall) {
+        if (mtFile == null)
+            return;
+        final ByteBuffer tRecord = createRecord(WALL, 6);
+        tRecord.put((byte) iPlayer);
+        tRecord.put((byte) tWall.x);
+        tRecord.put((byte) tWall.y);
+        tRecord.put((byte) tWall.orientation);
+        tRecord.putShort((short) tWall.unique_id);
+        queue(tRecord);
+    }
+
+    /**
+     * Records the designated player's ghost moving to the designated square.
+     */
+    final void recordGhost(final int iPlayer, final int iX, final int iY) {
+        if (mtFile == null)
+            return;
+        final ByteBuffer tRecord = createRecord(GHOST, 3);
+        tRecord.put((byte) iPlayer);
+        tRecord.put((byte) iX);
+        tRecord.put((byte) iY);
+        queue(tRecord);
+    }
+
+    /**
+     * Closes the journal once the records already queued have been written
+     * and forced to the disk.  Nothing more may be recorded.
+     */
+    final void close() {
+        if (mtFile != null)
+            RECORDS.add(new Record(this, null));
+    }
+
+    /**
+     * Waits for the journal to be closed, after which everything recorded is
+     * on the disk unless the journal failed.
+     */
+    final void awaitClose() throws InterruptedException {
+        if (mtFile != null)
+            mtClosed.await();
+    }
+
+    /**
+     * Private static method which returns a buffer for a record of the
+     * designated type with room for the designated number of bytes of
+     * contents, positioned after the type.
+     */
+    private static final ByteBuffer createRecord(final byte bType, final int iLength) {
+        final ByteBuffer tRecord = ByteBuffer.allocate(4 + 1 + iLength);
+        tRecord.putInt(1 + iLength);
+        tRecord.put(bType);
+        return tRecord;
+    }
+
+    /**
+     * Private method which queues the provided record to be written.
+     */
+    private final void queue(final ByteBuffer tRecord) {
+        tRecord.flip();
+        RECORDS.add(new Record(this, tRecord));
+    }
+
+    /**
+     * Private static method which is the body of the writer thread.  Every
+     * record waiting is written in one batch and the journals written are
+     * forced to the disk once the interval has passed since they last were.
+     */
+    private static final void write() {
+        final List<Record> tBatch = new ArrayList<Record>();
+        final Set<Journal> tOpen = new HashSet<Journal>();
+        long lForced = System.nanoTime();
+
+        while (true) {
+
+            // Wait for records, but no longer than it takes to be due to force the
+            // journals to the disk.
+            final long lWait = Math.max(0, FORCE_INTERVAL - (System.nanoTime() - lForced));
+            try {
+                final Record tRecord = RECORDS.poll(lWait, TimeUnit.NANOSECONDS);
+                if (tRecord != null) {
+                    tBatch.add(tRecord);
+                    RECORDS.drainTo(tBatch);
+                }
+            } catch (InterruptedException tEx) {
+                return;
+            }
+
+            // Gather the records into the buffers of their journals, writing a buffer
+            // out whenever it fills.
+            for (Record tRecord : tBatch) {
+                final Journal tJournal = tRecord.journal;
+                if (tRecord.contents == null) {
+                    tJournal.closeChannel();
+                    tOpen.remove(tJournal);
+                } else if (tJournal.append(tRecord.contents))
+                    tOpen.add(tJournal);
+            }
+            tBatch.clear();
+
+            // Write out whatever is left in the buffers.
+            for (Journal tJournal : tOpen)
+                tJournal.flush();
+
+            // Force everything written to the disk once the interval has passed.
+            if (System.nanoTime() - lForced >= FORCE_INTERVAL) {
+                for (Journal tJournal : tOpen)
+                    tJournal.force();
+                lForced = System.nanoTime();
+            }
+
+        }
+    }
+
+    /**
+     * Private method which adds the provided record to the buffer of the
+     * journal, opening the file with the first record.  Returns false if the
+     * journal could not be opened or has failed.
+     */
+    private final boolean append(final ByteBuffer tRecord) {
+        if (mbFailed)
+            return false;
+        try {
+            if (mtChannel == null) {
+                mtFile.getAbsoluteFile().getParentFile().mkdirs();
+                mtChannel = new RandomAccessFile(mtFile, "rw").getChannel();
+                mtChannel.position(mtChannel.size());
+                mtBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            }
+
+            // Make room for the record, writing it directly if it is larger than
+            // the buffer.
+            if (tRecord.remaining() > mtBuffer.remaining()) {
+                flush();
+                if (mbFailed)
+                    return false;
+            }
+            if (tRecord.remaining() > mtBuffer.remaining()) {
+                while (tRecord.hasRemaining())
+                    mtChannel.write(tRecord);
+                mbUnforced = true;
+            } else
+                mtBuffer.put(tRecord);
+            return true;
+        } catch (IOException tEx) {
+            fail(tEx);
+            return false;
+        }
+    }
+
+    /**
+     * Private method which writes out the records gathered in the buffer.
+     */
+    private final void flush() {
+        if (mtChannel == null || mtBuffer.position() == 0)
+            return;
+        try {
+            mtBuffer.flip();
+            while (mtBuffer.hasRemaining())
+                mtChannel.write(mtBuffer);
+            mtBuffer.clear();
+            mbUnforced = true;
+        } catch (IOException tEx) {
+            fail(tEx);
+        }
+    }
+
+    /**
+     * Private method which forces the records written to the disk.
+     */
+    private final void force() {
+        if (mtChannel == null || !mbUnforced)
+            return;
+        try {
+            mtChannel.force(false);
+            mbUnforced = false;
+        } catch (IOException tEx) {
+            fail(tEx);
+        }
+    }
+
+    /**
+     * Private method which writes out and forces any records left and then
+     * closes the file.
+     */
+    private final void closeChannel() {
+        flush();
+        force();
+        if (mtChannel != null) {
+            try {
+                mtChannel.close();
+            } catch (IOException tEx) {
+                System.err.println("Unable to close journal [file=" + mtFile + ", error=" + tEx + "].");
+            }
+            mtChannel = null;
+        }
+        mtClosed.countDown();
+    }
+
+    /**
+     * Private method which gives up on the journal after the provided error.
+     * Nothing more is written to it.
+     */
+    private final void fail(final IOException tEx) {
+        System.err.println("Journal failed [file=" + mtFile + ", error=" + tEx + "].");
+        try {
+            if (mtChannel != null)
+                mtChannel.close();
+        } catch (IOException tCloseEx) {
+            // The journal has already failed.
+        }
+        mtChannel = null;
+        mbFailed = true;
+    }
+
+    /**
+     * Package-private static method which rebuilds the game recorded in the
+     * provided journal, replaying every turn, wall and ghost up to the last
+     * complete record.  Returns null if the journal does not record the start
+     * of a game.
+     *
+     * @throws IOException if the journal can not be read or records a move
+     *         that could not have been made.
+     */
+    static final LabyrinthObject load(final File tFile) throws IOException {
+        final RandomAccessFile tRandomAccessFile = new RandomAccessFile(tFile, "r");
+        try {
+            final FileChannel tChannel = tRandomAccessFile.getChannel();
+            final MappedByteBuffer tJournal = tChannel.map(FileChannel.MapMode.READ_ONLY, 0, tChannel.size());
+            LabyrinthObject tGameObject = null;
+
+            // Read each complete record in turn.
+            while (tJournal.remaining() >= 4) {
+                final int iLength = tJournal.getInt();
+                if (iLength < 1 || iLength > tJournal.remaining())
+                    break;
+                final ByteBuffer tRecord = tJournal.slice();
+                tRecord.limit(iLength);
+                tJournal.position(tJournal.position() + iLength);
+
+                final byte bType = tRecord.get();
+                try {
+                    if (bType == START)
+                        tGameObject = loadStart(tRecord);
+                    else if (tGameObject == null)
+                        throw new IOException("Journal does not start with the board [file=" + tFile + "].");
+                    else if (bType == TURN)
+                        loadTurn(tGameObject, tRecord);
+                    else if (bType == WALL)
+                        loadWall(tGameObject, tRecord);
+                    else if (bType == GHOST)
+                        loadGhost(tGameObject, tRecord);
+                    else
+                        throw new IOException("Unknown journal record [type=" + bType + "].");
+                } catch (BufferUnderflowException tEx) {
+                    throw new IOException("Journal record is too short [type=" + bType + ", length=" + iLength + "].");
+                }
+            }
+
+            if (tGameObject != null)
+                tGameObject.board_state = PackedBoard.pack(tGameObject);
+            return tGameObject;
+        } finally {
+            tRandomAccessFile.close();
+        }
+    }
+
+    /**
+     * Private static method which creates a game from the provided
+     * <code>START</code> record.
+     */
+    private static final LabyrinthObject loadStart(final ByteBuffer tRecord) throws IOException {
+        final LabyrinthObject tGameObject = new LabyrinthObject();
+        tGameObject.players = new Name[tRecord.get()];
+        for (int iPlayer = 0; iPlayer < tGameObject.players.length; ++iPlayer) {
+            final byte[] abName = new byte[tRecord.getShort()];
+            tRecord.get(abName);
+            tGameObject.players[iPlayer] = new Name(new String(abName, UTF8));
+        }
+
+        final byte[] abPacked = new byte[tRecord.remaining()];
+        tRecord.get(abPacked);
+        if (!PackedBoard.unpack(abPacked, tGameObject))
+            throw new IOException("Journal holds a board that can not be unpacked.");
+        tGameObject.active_treasure = -1;
+        return tGameObject;
+    }
+
+    /**
+     * Private static method which starts the turn in the provided
+     * <code>TURN</code> record.
+     */
+    private static final void loadTurn(final LabyrinthObject tGameObject, final ByteBuffer tRecord) throws IOException {
+        final int iPlayer = tRecord.get();
+        final int iTreasure = tRecord.get();
+        if (iPlayer < 0 || iPlayer >= tGameObject.players.length || (iTreasure >= 0 && tGameObject.treasures.get(iTreasure) == null))
+            throw new IOException("Journal records an illegal turn [player=" + iPlayer + ", treasure=" + iTreasure + "].");
+
+        tGameObject.turnHolder = tGameObject.players[iPlayer];
+        tGameObject.active_treasure = iTreasure;
+        tGameObject.wall_placed = false;
+    }
+
+    /**
+     * Private static method which replays the shift in the provided
+     * <code>WALL</code> record.
+     */
+    private static final void loadWall(final LabyrinthObject tGameObject, final ByteBuffer tRecord) throws IOException {
+        tRecord.get();
+        final int iX = tRecord.get();
+        final int iY = tRecord.get();
+        final int iOrientation = tRecord.get();
+        final int iUniqueID = tRecord.getShort();
+
+        // Verify the shift as the server did when the wall was placed.
+        final ShiftContext tShiftContext = ShiftContext.createContext(tGameObject, iX, iY);
+        if (tShiftContext == null || tGameObject.floating_wall.unique_id != iUniqueID || !Wall.isOrientation(iOrientation))
+            throw new IOException("Journal records an illegal shift [x=" + iX + ", y=" + iY + ", orientation=" + iOrientation + ", key=" + iUniqueID + "].");
+        if (tGameObject.applyShift(tShiftContext, iOrientation) == null)
+            throw new IOException("Journal records a shift that ejects no wall [x=" + iX + ", y=" + iY + "].");
+        tGameObject.wall_placed = true;
+    }
+
+    /**
+     * Private static method which replays the move in the provided
+     * <code>GHOST</code> record, picking up the active treasure if the ghost
+     * lands on it.
+     */
+    private static final void loadGhost(final LabyrinthObject tGameObject, final ByteBuffer tRecord) throws IOException {
+        final int iPlayer = tRecord.get();
+        final int iX = tRecord.get();
+        final int iY = tRecord.get();
+
+        // Verify the move as the server did when the ghost was placed.
+        final Ghost tGhost = (iPlayer >= 0 && iPlayer < tGameObject.players.length) ? tGameObject.ghosts.get(iPlayer) : null;
+        if (tGhost == null || !tGameObject.wall_placed || !Reachability.canReach(Board.create(tGameObject), tGhost.x, tGhost.y, iX, iY))
+            throw new IOException("Journal records an illegal ghost move [player=" + iPlayer + ", x=" + iX + ", y=" + iY + "].");
+        tGhost.x = iX;
+        tGhost.y = iY;
+        tGameObject.reindex(LabyrinthObject.GHOSTS);
+
+        final int iTreasure = tGameObject.active_treasure;
+        if (iTreasure >= 0) {
+            final Treasure tTreasure = tGameObject.treasures.get(iTreasure);
+            if (tTreasure.x == tGhost.x && tTreasure.y == tGhost.y) {
+                tTreasure.owner = iPlayer;
+                tTreasure.x = Board.OFF_BOARD;
+                tTreasure.y = Board.OFF_BOARD;
+                tGameObject.active_treasure = -1;
+                tGameObject.reindex(LabyrinthObject.TREASURES);
+            }
+        }
+    }
+
+    /**
+     * This class pairs a record with the journal it belongs to as it waits to
+     * be written.  A record without contents closes the journal.
+     */
+    private static final class Record {
+        final Journal journal;
+        final ByteBuffer contents;
+
+        Record(final Journal tJournal, final ByteBuffer tContents) {
+            journal = tJournal;
+            contents = tContents;
+        }
+    }
+
+}
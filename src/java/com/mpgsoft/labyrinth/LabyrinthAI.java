@@ -5,11 +5,11 @@ package com.mpgsoft.labyrinth;
 
 import java.awt.Point;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-
-import com.threerings.presents.dobj.DSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * @author Jeffrey D. Hoffman
@@ -17,10 +17,23 @@ import com.threerings.presents.dobj.DSet;
 final class LabyrinthAI {
     
     /**
-     * Static constant defining the delay between moves the AI makes.  This is done
-     * to ease the speed with which the AI solves the board.
+     * Static constant defining the delay between the AI shifting the maze and
+     * moving it's ghost.  This gives the real players participating in the game
+     * the opportunity to comprehend what just happened.
      */
     private static final long TURN_THROTTLE = 3000l;
+
+    /**
+     * Static constant defining the number of copies of the search the moves
+     * are divided between when they are searched in parallel.
+     */
+    private static final int EVALUATION_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Static constant defining the greatest number of turns, starting with the
+     * AI's own, that the AI looks ahead.  It usually runs out of time first.
+     */
+    static final int MAXIMUM_DEPTH = 8;
     
     /**
      * This class can not be instantiated.
@@ -28,225 +41,289 @@ final class LabyrinthAI {
     private LabyrinthAI() { }
             
     /**
-     * Restores the {@link Piece}s in the provided <code>DSet</code> to the positions
-     * they held at the time the map of <code>Point</code>s was created.
-     * @see LabyrinthAI#extract(DSet)
+     * Package-private static method which is called to process a
+     * turn of the AI for the provided <code>GameManager</code> and
+     * distributed <code>GameObject</code>.  This must be called on the
+     * game's thread; the turn is searched on the {@link AIScheduler}'s
+     * threads and the moves are posted back to the game's thread.  The AI
+     * thinks for the time budgeted by the game and then shifts the maze, or
+     * shifts it as soon as it is done thinking in fast mode.  The turns of
+     * games being followed by real players are searched first and, while turns
+     * are waiting, the AI thinks for less of it's time.
      */
-    private static final void restore(final DSet<? extends Piece> tPieces, final Map<Comparable, Point> tPointsByID) {
+    static final void processTurn(final LabyrinthManager tGameManager, final LabyrinthObject tGameObject, final int iPlayerIndex) {
         
-        // Iterate through the {@link Piece}s and copy their original locations
-        // into the set.
-        for (final Piece tPiece : tPieces) {
-            
-            // Get it's original location.
-            final Point tOriginalLocation = tPointsByID.get(tPiece.unique_id);
-            if (tOriginalLocation == null)
-                continue;
-            
-            // Copy the original location into the piece.
-            tPiece.x = tOriginalLocation.x;
-            tPiece.y = tOriginalLocation.y;
-            
-        }
+        // Take the latest snapshot of the board.  The AI only ever reads the
+        // snapshot, or shifts private copies of it, so the live game state is
+        // never touched from the AI's threads.
+        final Snapshot tSnapshot = tGameManager.getSnapshot();
+
+        // This is when the AI must stop thinking and act.  Any time spent waiting
+        // for a search thread comes out of the time the AI has to think.
+        final long lDeadline = System.nanoTime() + tGameManager.getAIBudget() * 1000000L;
+
+        // This is whether the AI should skip the pauses that let others follow along.
+        final boolean bFastMode = tGameManager.isFastMode();
+
+        // This is what the AI has kept from earlier turns and learned while pondering.
+        final AIPlayer tAIPlayer = tGameManager.getAIPlayer(iPlayerIndex);
+
+        AIScheduler.startTurn(new Turn(tGameManager, tGameManager.isWatched()) {
+            protected final void search() {
+                try {
+
+                    // Search the turns ahead of a copy of the snapshot, or play them out, until
+                    // the deadline and select a move.  This gives the shift to make and the
+                    // square the ghost will move to once the server has applied it.  Any
+                    // pondering is paused while the turn is searched.
+                    final Wall tSelectedWall;
+                    final Point tDestination;
+                    AIScheduler.startSearch();
+                    try {
+                        synchronized (tAIPlayer) {
+                            final Board tBoard = tSnapshot.copyBoard();
+                            final long lSearchDeadline = AIScheduler.getDeadline(lDeadline);
+                            final int iMove = tAIPlayer.selectMove(tBoard, tSnapshot.copyConnectivity(tBoard), lSearchDeadline, this, AIScheduler.getEvaluator());
+                            tSelectedWall = tAIPlayer.getShift(iMove);
+                            tDestination = tAIPlayer.getDestination(iMove);
+                        }
+                    } finally {
+                        AIScheduler.endSearch();
+                    }
+
+                    // Abandon the turn if the game ended while we were thinking.
+                    if (isStopped()) {
+                        AIScheduler.endTurn();
+                        return;
+                    }
+
+                    // Wait out the rest of the time before making a move even if the search
+                    // finished early.  Without this, the board shifts almost immediately 
+                    // after the player makes their move which is disorienting.  In fast
+                    // mode no one is following along, so the move is made right away.
+                    final long lDelay = bFastMode ? 0 : Math.max(0, (lDeadline - System.nanoTime()) / 1000000L);
+                    AIScheduler.schedule(tGameManager, new Runnable() {
+                        public final void run() {
+                            placeWall(tGameManager, tGameObject, iPlayerIndex, tSnapshot.version, tSelectedWall, tDestination);
+                        }
+                    }, lDelay);
+
+                } catch (RuntimeException tEx) {
+                    System.err.println("AI turn failed [player=" + iPlayerIndex + ", error=" + tEx + "].");
+                    AIScheduler.endTurn();
+                }
+            }
+        });
         
     }
-    
+
     /**
-     * This is a private method which iterates across the provided 
-     * {@Piece} <code>DSet</code> and extracts the current locations
-     * into a set of <code>Point</code>s.
-     * @see LabyrinthAI#restore(DSet, Map)
+     * Package-private static method which starts the designated AI player
+     * pondering the current position of the provided game, in which the
+     * designated player holds the turn, and returns the ponder so that it can
+     * be stopped when the turn ends.  This must be called on the game's thread.
      */
-    private static final Map<Comparable, Point> extract(final DSet<? extends Piece> tPieces) {
-        
-        // This map will hold the points by identity.
-        final Map<Comparable, Point> tPointsByID = new HashMap<Comparable, Point>();
-        
-        // Iterate across the pieces and copy their locations into points.
-        for (final Piece tPiece : tPieces)
-            tPointsByID.put(tPiece.unique_id, new Point(tPiece.x, tPiece.y));
-
-        return tPointsByID;
+    static final Ponder ponder(final LabyrinthManager tGameManager, final int iPlayerIndex, final int iTurnHolder) {
+        final Ponder tPonder = new Ponder(tGameManager.getAIPlayer(iPlayerIndex), tGameManager.getSnapshot(), iTurnHolder);
+        AIScheduler.startPonder(tPonder);
+        return tPonder;
     }
-    
+
     /**
-     * Package-private static method which is called to process a
-     * turn of the AI for the provided <code>GameManager</code> and
-     * distributed <code>GameObject</code>.
+     * Private method which places the wall selected by the AI and schedules the
+     * move of it's ghost.  This is run on the game's thread.
      */
-    static final void processTurn(final LabyrinthManager tGameManager, final LabyrinthObject tGameObject, final int iPlayerIndex) {
-        
-        // The AI needs to run on a background thread in order to emulate the decision
-        // time that a real player would require to evaluate the maze.  In order to 
-        // sleep, we need a secondary thread.  I looked through the APIs and forums and
-        // found no immediate information about the recommendations for threading on 
-        // the server so I'm going ahead and creating a new short-lived temporary thread.
-        //
-        // Really, this could be easily handled by a thread pool and should be better
-        // managed than simply spawning new threads.
-        new Thread(new Runnable() {
+    private static final void placeWall(final LabyrinthManager tGameManager, final LabyrinthObject tGameObject, final int iPlayerIndex, final long lVersion, final Wall tSelectedWall, final Point tDestination) {
+
+        // Abandon the turn if the game has moved on while we were thinking.
+        if (!isCurrent(tGameManager, tGameObject, iPlayerIndex, lVersion)) {
+            AIScheduler.endTurn();
+            return;
+        }
+
+        // Place the wall.
+        tGameManager.placeWall(iPlayerIndex, tSelectedWall);
+
+        // Now delay a short time to allow real players participating in this game
+        // the opportunity to comprehend what just happened, unless no one is
+        // following along.
+        final long lPlacedVersion = tGameManager.getSnapshot().version;
+        AIScheduler.schedule(tGameManager, new Runnable() {
             public final void run() {
-        
-                // These maps will be used to remember the original locations of the
-                // objects in each of the distributed sets.  Because we're destructively
-                // shifting the maze in order to evaluate a position, we need to be able
-                // to put it back to it's normal position after each attempt.
-                final Map<Comparable, Point> tWallPositionsByID     = extract(tGameObject.walls);
-                final Map<Comparable, Point> tTreasurePositionsByID = extract(tGameObject.treasures);
-                final Map<Comparable, Point> tGhostPositionsByID    = extract(tGameObject.ghosts);
-
-                // This will hold a list of possible shift positions that
-                // result in the player reaching the treasure.  If multiple
-                // shifts are possible, one will be randomly selected.
-                final List<Wall> tPreferredShifts = new ArrayList<Wall>();
-
-                // This will hold a list of possible shift positions which
-                // are used if a viable location can not be resolved.
-                final List<Wall> tPossibleShifts = new ArrayList<Wall>();
-
-                // We're going to iterate across the board and determine which 
-                // squares we can insert the floating wall piece.
-                for (int iY = 0; iY < LabyrinthBoardView.SIZE.height; ++iY) {
-                    for (int iX = 0; iX < LabyrinthBoardView.SIZE.width; ++iX) {
-
-                        // Skip non-moveable columns.
-                        if (!LabyrinthUtil.isMoveable(iX, iY))
-                            continue;
-
-                        // Move the floating wall.
-                        tGameObject.floating_wall.x = iX;
-                        tGameObject.floating_wall.y = iY;
-
-                        // For each of the possible rotations for the wall, try shifting the maze
-                        // based on that orientation and if a path opens to the treasure, use it.
-                        for (int iD = 0; iD < 4; ++ iD) {
-
-                            // Rotate the wall.
-                            tGameObject.floating_wall.rotate();
-
-                            // Check to see if we can initiate a shift from this position.
-                            final ShiftContext tShiftContext = ShiftContext.createContext(tGameObject, iX, iY);
-                            if (tShiftContext == null)
-                                continue;
-
-                            // This will hold the <code>Path</code> that is resolved from the ghost's
-                            // position to the treasure.
-                            final Path tPath;
-
-                            try {
-
-                                // Shift the objects in the maze.
-                                tShiftContext.shift(tGameObject.walls, false);
-                                tShiftContext.shift(tGameObject.ghosts, true);
-                                tShiftContext.shift(tGameObject.ghosts, true);
-
-                                // Check to see if there is a path to the location of the
-                                // active treasure.  We get the location of the treasure
-                                // with each test because it may have been shifted by the
-                                // insertion of this wall piece.
-                                final Treasure tTreasure = tGameObject.treasures.get(tGameObject.active_treasure);
-
-                                // Get the active ghost.
-                                final Ghost tGhost = tGameObject.ghosts.get(iPlayerIndex);
-
-                                // Try to find a path to the treasure.
-                                tPath = Path.findPath(
-                                        tGameObject.walls, 
-                                        new Point(tGhost.x, tGhost.y), 
-                                        new Point(tTreasure.x, tTreasure.y)
-                                );
-
-                            } finally {
-
-                                // Restore the walls, treasures and ghosts to their pre-shifted state.
-                                restore(tGameObject.walls,     tWallPositionsByID);
-                                restore(tGameObject.treasures, tTreasurePositionsByID);
-                                restore(tGameObject.ghosts,    tGhostPositionsByID);
-
-                            }
-
-                            // Copy the current floating wall into a new one.
-                            final Wall tWorkingWall = new Wall(
-                                    tGameObject.floating_wall.unique_id,
-                                    tGameObject.floating_wall.x,
-                                    tGameObject.floating_wall.y,
-                                    tGameObject.floating_wall.shape,
-                                    tGameObject.floating_wall.orientation
-                            );
-
-                            // If a path was not found, put this position on the list of
-                            // possible shifts that will be used if no other is found.
-                            if (tPath == null)
-                                tPossibleShifts.add(tWorkingWall);
-                            else
-                                tPreferredShifts.add(tWorkingWall);
 
-                        }
+                // Now move the ghost into the desired position unless the game has moved on.
+                if (isCurrent(tGameManager, tGameObject, iPlayerIndex, lPlacedVersion))
+                    tGameManager.placeGhost(iPlayerIndex, new Ghost(iPlayerIndex, tDestination));
+                AIScheduler.endTurn();
 
-                    }
+            }
+        }, tGameManager.isFastMode() ? 0 : TURN_THROTTLE);
 
-                }
+    }
 
-                // This will hold the {@link Wall} that will be selected from either the 
-                // preferred or possible lists.
-                final Wall tFloatingWall;
+    /**
+     * Private method which returns true if the game is still in play and the
+     * board has not changed since the designated version was published.
+     */
+    private static final boolean isCurrent(final LabyrinthManager tGameManager, final LabyrinthObject tGameObject, final int iPlayerIndex, final long lVersion) {
+        final long lCurrentVersion = tGameManager.getSnapshot().version;
+        if (tGameObject.isInPlay() && lCurrentVersion == lVersion)
+            return true;
 
-                // Get the number of preferred positions.
-                final int iPreferredShifts = tPreferredShifts.size();
-                if (iPreferredShifts > 0)
-                    tFloatingWall = tPreferredShifts.get((int) (Math.random() * iPreferredShifts));
+        System.err.println("AI turn abandoned, board changed [player=" + iPlayerIndex + ", version=" + lVersion + ", current=" + lCurrentVersion + ", active=" + AIScheduler.getActiveTurns() + "].");
+        return false;
+    }
 
-                else    
-                    tFloatingWall = tPossibleShifts.get((int) (Math.random() * tPossibleShifts.size()));
+    /**
+     * Package-private static method which creates a search of the provided
+     * position for the designated player, up to the designated number of turns
+     * ahead, along with the copies of it that the moves are dealt out between
+     * when they are searched in parallel.  The copies share the transposition
+     * table of the search, which is first.
+     */
+    static final Search[] createSearches(final Board tBoard, final Connectivity tConnectivity, final int iPlayer, final int iMaxDepth) {
+        final Search[] atSearches = new Search[EVALUATION_THREADS];
+        atSearches[0] = new Search(tBoard, tConnectivity, iPlayer, iMaxDepth);
+        for (int iSearch = 1; iSearch < atSearches.length; ++iSearch)
+            atSearches[iSearch] = atSearches[0].copy();
+        return atSearches;
+    }
 
-                // Delay a short time before making a move to give the impression of
-                // thought.  Without this, the board shifts almost immediately after
-                // the player makes their move which is disorienting.
-                try {
-                    Thread.sleep(TURN_THROTTLE);
-                } catch (InterruptedException tEx) {
-                    // Safely ignored.
-                }
-                
-                // Place the wall.
-                tGameManager.placeWall(iPlayerIndex, tFloatingWall);
+    /**
+     * Package-private static method which searches ever more turns ahead of the
+     * position of the first of the provided searches, up to the designated
+     * number, until the deadline (as given by <code>System.nanoTime()</code>)
+     * passes, or the provided turn is stopped, and returns the best move of the
+     * deepest search completed.  A deadline of zero means there is none, as
+     * does a null turn.  The moves are dealt out between the searches, which
+     * must be copies of the first, and run on the provided executor, or the
+     * first search is simply run on the calling thread if it is null.  The
+     * first of the best moves, in the order the search ranks them, is chosen no
+     * matter how the searches were scheduled.  The depth reached and the
+     * number of positions visited are recorded with the {@link AIScheduler}.
+     * @see LabyrinthAI#createSearches(Board, Connectivity, int, int)
+     */
+    static final int selectMove(final Search[] atSearches, final int iMaxDepth, final long lDeadline, final Stoppable tTurn, final ExecutorService tExecutor) {
+        final Search tSearch = atSearches[0];
+        final int[] aiMoves = new int[tSearch.getMaximumMoves()];
+        final int iCount = tSearch.getRootMoves(aiMoves);
+
+        // Deal the moves out between the searches, moving each copy to the
+        // position.  A single search is simply run on this thread.
+        final int iTasks = (tExecutor == null) ? 1 : Math.min(atSearches.length, iCount);
+        final List<RootSearch> tSearches = new ArrayList<RootSearch>(iTasks);
+        for (int iTask = 0; iTask < iTasks; ++iTask) {
+            final Search tTaskSearch = atSearches[iTask];
+            if (iTask > 0)
+                tTaskSearch.setPosition(tSearch);
+            tTaskSearch.setDeadline(lDeadline);
+            tTaskSearch.setStop(tTurn);
+            tSearches.add(new RootSearch(tTaskSearch, aiMoves, iCount, iTask, iTasks));
+        }
 
-                // Now delay a short time to allow real players participating in this game
-                // the opportunity to comprehend what just happened.
+        // Until a search completes, the move that looks best right away is used.
+        int iBestMove = aiMoves[0];
+        int iDepthReached = 0;
+        for (int iDepth = 1; iDepth <= iMaxDepth; ++iDepth) {
+            for (RootSearch tRootSearch : tSearches)
+                tRootSearch.miDepth = iDepth;
+
+            // Run the searches.
+            if (iTasks == 1)
+                tSearches.get(0).call();
+            else {
                 try {
-                    Thread.sleep(TURN_THROTTLE);
+                    for (Future<RootSearch> tFuture : tExecutor.invokeAll(tSearches))
+                        tFuture.get();
                 } catch (InterruptedException tEx) {
-                    // Safely ignored.
+                    throw new IllegalStateException("Interrupted while searching.", tEx);
+                } catch (ExecutionException tEx) {
+                    throw new IllegalStateException("Failed to search.", tEx.getCause());
                 }
+            }
 
-                // Check to see if there is a path to the location of the
-                // active treasure.  We get the location of the treasure
-                // with each test because it may have been shifted by the
-                // insertion of this wall piece.
-                final Treasure tTreasure = tGameObject.treasures.get(tGameObject.active_treasure);
-
-                // Get the active ghost.
-                final Ghost tGhost = tGameObject.ghosts.get(iPlayerIndex);
-
-                // Try to find a path to the treasure.
-                final Path tPath = Path.findPath(
-                        tGameObject.walls, 
-                        new Point(tGhost.x, tGhost.y), 
-                        new Point(tTreasure.x, tTreasure.y)
-                );
-
-                // If a path was found, move the ghost along the path.
-                if (tPath != null) {
-                    tGhost.x = tTreasure.x;
-                    tGhost.y = tTreasure.y;
+            // Take the best value, preferring the move ranked first.  Nothing is
+            // known if any of the searches ran out of time.
+            int iBestIndex = Search.NO_MOVE;
+            int iBestValue = -Search.INFINITY;
+            for (RootSearch tRootSearch : tSearches) {
+                if (tRootSearch.miBestIndex == Search.NO_MOVE) {
+                    iBestIndex = Search.NO_MOVE;
+                    break;
+                }
+                if (iBestIndex == Search.NO_MOVE || tRootSearch.miBestValue > iBestValue ||
+                        (tRootSearch.miBestValue == iBestValue && tRootSearch.miBestIndex < iBestIndex)) {
+                    iBestIndex = tRootSearch.miBestIndex;
+                    iBestValue = tRootSearch.miBestValue;
                 }
-
-                // Now move the ghost into the desired position.
-                tGameManager.placeGhost(iPlayerIndex, tGhost);
-                
             }
-        }, "AI Processing Thread").start();
-        
+            if (iBestIndex == Search.NO_MOVE)
+                break;
+
+            // Search the best move first the next time around.
+            iBestMove = aiMoves[iBestIndex];
+            iDepthReached = iDepth;
+            System.arraycopy(aiMoves, 0, aiMoves, 1, iBestIndex);
+            aiMoves[0] = iBestMove;
+
+        }
+
+        // Record how much thinking was done.
+        long lNodes = 0;
+        for (RootSearch tRootSearch : tSearches)
+            lNodes += tRootSearch.mtSearch.getNodes();
+        AIScheduler.recordSearch(iDepthReached, lNodes);
+
+        return iBestMove;
     }
-    
+
+    /**
+     * This class searches every <code>step</code>th move of a position, starting
+     * from a given one, with it's own copy of the search.
+     */
+    private static final class RootSearch implements Callable<RootSearch> {
+
+        /**
+         * These are the search, the moves and the share of them to search.
+         */
+        private final Search mtSearch;
+        private final int[] maiMoves;
+        private final int miCount;
+        private final int miFrom;
+        private final int miStep;
+
+        /**
+         * This is the number of turns to search ahead.
+         */
+        int miDepth;
+
+        /**
+         * This is the index of the best move found and it's value.  The index is
+         * <code>NO_MOVE</code> if the search ran out of time.
+         */
+        int miBestIndex;
+        int miBestValue;
+
+        /**
+         * Constructs a search of the designated share of the moves.
+         */
+        RootSearch(final Search tSearch, final int[] aiMoves, final int iCount, final int iFrom, final int iStep) {
+            mtSearch = tSearch;
+            maiMoves = aiMoves;
+            miCount = iCount;
+            miFrom = iFrom;
+            miStep = iStep;
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.concurrent.Callable#call()
+         */
+        public final RootSearch call() {
+            miBestIndex = mtSearch.searchRoot(maiMoves, miCount, miFrom, miStep, miDepth);
+            miBestValue = mtSearch.getBestValue();
+            return this;
+        }
+
+    }
+
 }
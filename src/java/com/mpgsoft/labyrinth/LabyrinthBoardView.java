@@ -9,7 +9,6 @@ import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics2D;
 import java.awt.Image;
-import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
 import java.util.ArrayList;
@@ -55,17 +54,6 @@ public final class LabyrinthBoardView extends VirtualMediaPanel implements Place
      */
     static final Color BACKGROUND_COLOR = new Color(0x33333f);
     
-    /**
-     * Static constant defining the size of the board.  The standard labyrinth
-     * world consists of a 5x5 grid with moving pieces.  An additional row/column
-     * has been added to all sides to facilitate the player interface.
-     * @TODO [jhoffman 07/06/08]: Having a configurable board size is desireable
-     * and should be possible as I have tried to encapsulate all of the logic
-     * related to moveable columns and what constitutes the "special" area 
-     * surrounding the board in {@link LabyrinthUtil}.
-     */
-    static final Dimension SIZE = new Dimension(7, 7);
-    
     /**
      * This is the map of <code>Wall</code> to <code>WallSprite</code> objects.
      */
@@ -112,6 +100,25 @@ public final class LabyrinthBoardView extends VirtualMediaPanel implements Place
      * unless the drag is in-progress.
      */
     private ShiftEvent mtShiftEvent = null;
+
+    /**
+     * This is the mask of the squares the player's ghost can reach, as described
+     * in {@link Reachability}.  It is found once when the ghost can be moved
+     * and is only found again after the walls or ghosts change.
+     */
+    private long[] malReachable = null;
+
+    /**
+     * This is true when the mask of reachable squares needs to be recomputed.
+     */
+    private boolean mbReachableChanged = true;
+
+    /**
+     * This is the tile the mouse was last over.  Mouse events within the same
+     * tile are ignored.
+     */
+    private int miMouseX = -1;
+    private int miMouseY = -1;
     
     /**
      * Constructs a view which will initialize itself and prepare to display
@@ -186,6 +193,129 @@ public final class LabyrinthBoardView extends VirtualMediaPanel implements Place
         addSprite(tWallSprite);
         
     }
+
+    /**
+     * Package-private method which moves the sprites after the provided shift
+     * has been replayed on the game.  The wall that was inserted is given a
+     * sprite of it's own and the wall pushed out of the maze is shown by the
+     * wall cursor instead.
+     */
+    final void shiftApplied(final ShiftContext tShiftContext, final Wall tEjectedWall) {
+
+        // The wall pushed out of the maze is now the floating wall.
+        final Sprite tEjectedSprite = mtWallSpritesByID.remove(tEjectedWall.getKey());
+        if (tEjectedSprite != null)
+            removeSprite(tEjectedSprite);
+        mtWallCursor.updatePiece(mtGameObject.floating_wall);
+
+        // Move the sprites of the walls in the row or column, adding one for the
+        // wall that was inserted.
+        for (Wall tWall : tShiftContext.getPieces(mtGameObject.getWallIndex())) {
+            final WallSprite tWallSprite = mtWallSpritesByID.get(tWall.getKey());
+            if (tWallSprite == null)
+                addWallSprite(tWall);
+            else
+                tWallSprite.updatePiece(tWall);
+        }
+
+        // Move the sprites of the ghosts and treasures in the row or column.
+        updateSprites(tShiftContext.getPieces(mtGameObject.getGhostIndex()), mtGhostSpritesByID);
+        updateSprites(tShiftContext.getPieces(mtGameObject.getTreasureIndex()), mtTreasureSpritesByID);
+
+        invalidateReachable();
+    }
+
+    /**
+     * Private method which moves the sprites of the provided pieces to match
+     * their positions.
+     */
+    private final void updateSprites(final Iterable<? extends Piece> tPieces, final Map<Comparable, ? extends PieceSprite> tSpritesByID) {
+        for (Piece tPiece : tPieces) {
+            final PieceSprite tSprite = tSpritesByID.get(tPiece.getKey());
+            if (tSprite != null)
+                tSprite.updatePiece(tPiece);
+        }
+    }
+
+    /**
+     * Package-private method which rebuilds the sprites of the walls and moves
+     * those of the ghosts and treasures after the pieces have been unpacked
+     * again.  The sprites of any treasures collected in the meantime are removed.
+     */
+    final void boardResynced() {
+        for (WallSprite tWallSprite : mtWallSpritesByID.values())
+            removeSprite(tWallSprite);
+        mtWallSpritesByID.clear();
+        for (Wall tWall : mtGameObject.walls)
+            addWallSprite(tWall);
+        mtWallCursor.updatePiece(mtGameObject.floating_wall);
+
+        updateSprites(mtGameObject.ghosts, mtGhostSpritesByID);
+        for (Treasure tTreasure : mtGameObject.treasures) {
+            if (tTreasure.isCollected() && mtTreasureSpritesByID.containsKey(tTreasure.getKey()))
+                removeTreasureSprite(tTreasure);
+        }
+        updateSprites(mtGameObject.treasures, mtTreasureSpritesByID);
+
+        invalidateReachable();
+    }
+
+    /**
+     * Private method which removes the sprite of the provided treasure, along
+     * with it's sparkle, once it has been collected.
+     */
+    private final void removeTreasureSprite(final Treasure tTreasure) {
+
+        // Remove the sprite from the map.  We will never need it again
+        // now that the treasure has been collected.
+        final TreasureSprite tTreasureSprite = mtTreasureSpritesByID.remove(tTreasure.getKey());
+
+        // Stop painting the the sprite.
+        removeSprite(tTreasureSprite);
+
+        // Get the sparkle animation and remove that as well.
+        abortAnimation(tTreasureSprite.getAnimation());
+
+    }
+
+    /**
+     * Private method which returns true if the player's ghost can reach the
+     * designated tile.  The squares that can be reached are only recomputed
+     * if the board has changed.
+     */
+    private final boolean canGhostReach(final int iX, final int iY) {
+        if (mbReachableChanged)
+            updateReachable();
+        return Reachability.contains(malReachable, iX, iY);
+    }
+
+    /**
+     * Private method which finds the squares the player's ghost can reach.
+     * These are published by the server once the wall has been placed and are
+     * otherwise computed from the current state of the game.
+     */
+    private final void updateReachable() {
+        mbReachableChanged = false;
+        if (mtGameObject.reachable != null) {
+            malReachable = mtGameObject.reachable;
+            return;
+        }
+
+        final Ghost tGhost = mtGameObject.ghosts.get(mtGameController.getPlayerIndex());
+        final Board tBoard = Board.create(mtGameObject);
+        malReachable = Reachability.getReachable(tBoard, tGhost.x, tGhost.y, Reachability.createMask(tBoard));
+    }
+
+    /**
+     * Private method which discards the mask of reachable squares and the last
+     * tile the mouse was over.  This is called whenever the game state changes
+     * so that the next mouse event is handled in full.
+     */
+    private final void invalidateReachable() {
+        mbReachableChanged = true;
+        miMouseX = -1;
+        miMouseY = -1;
+    }
     
     /* (non-Javadoc)
      * @see com.threerings.crowd.client.PlaceView#didLeavePlace(com.threerings.crowd.data.PlaceObject)
@@ -226,7 +356,16 @@ public final class LabyrinthBoardView extends VirtualMediaPanel implements Place
      * @see javax.swing.JComponent#getPreferredSize()
      */
     public final Dimension getPreferredSize() {
-        return new Dimension(SIZE.width * LabyrinthSprite.SIZE, SIZE.height * LabyrinthSprite.SIZE);
+        return new Dimension(getBoardSize() * LabyrinthSprite.SIZE, getBoardSize() * LabyrinthSprite.SIZE);
+    }
+
+    /**
+     * Private method which returns the width and height of the board, including
+     * the area surrounding the maze.  The size is selected when the game is
+     * configured so the default is used until the game has been entered.
+     */
+    private final int getBoardSize() {
+        return (mtGameObject == null) ? LabyrinthUtil.DEFAULT_SIZE : mtGameObject.board_size;
     }
 
     /* (non-Javadoc)
@@ -248,14 +387,18 @@ public final class LabyrinthBoardView extends VirtualMediaPanel implements Place
                 
         // Store the game object reference.
         mtGameObject = (LabyrinthObject) tPlaceObject;
+
+        // The size of the board is now known.
+        revalidate();
                 
         // Step along the edges of the board and create <code>ArrowSprite</code>s that 
         // will be visible during the player's turn when it is time to shift the board.
-        for (int iY = 0; iY < SIZE.height; iY += 2) {
-            for (int iX = 0; iX < SIZE.width; iX += 2) {
+        final int iSize = getBoardSize();
+        for (int iY = 0; iY < iSize; iY += 2) {
+            for (int iX = 0; iX < iSize; iX += 2) {
                 
                 // Skip points that are not in the area surrounding the board.
-                if (!LabyrinthUtil.isSurrounding(iX, iY))
+                if (!LabyrinthUtil.isSurrounding(iSize, iX, iY))
                     continue;
                 
                 // Create a shift context for this position.  Skip positions that are not
@@ -305,6 +448,9 @@ public final class LabyrinthBoardView extends VirtualMediaPanel implements Place
         for (Ghost tGhost : mtGameObject.ghosts)
             addGhostSprite(tGhost);
         
+        // Nothing has been computed for this game yet.
+        invalidateReachable();
+        
         // Start listening for shared state changes.
         mtGameObject.addListener(mtAttributeListener);
         mtGameObject.addListener(mtSetListener);
@@ -374,9 +520,9 @@ public final class LabyrinthBoardView extends VirtualMediaPanel implements Place
                 // Shift the wall curor and all affected pieces by the distance
                 // the mouse has moved from the origin.
                 mtShiftEvent.setOffset(mtWallCursor, tEvent);
-                mtShiftEvent.setOffset(mtGameObject.walls, mtWallSpritesByID, tEvent);
-                mtShiftEvent.setOffset(mtGameObject.ghosts, mtGhostSpritesByID, tEvent);
-                mtShiftEvent.setOffset(mtGameObject.treasures, mtTreasureSpritesByID, tEvent);
+                mtShiftEvent.setOffset(mtGameObject.getWallIndex(), mtWallSpritesByID, tEvent);
+                mtShiftEvent.setOffset(mtGameObject.getGhostIndex(), mtGhostSpritesByID, tEvent);
+                mtShiftEvent.setOffset(mtGameObject.getTreasureIndex(), mtTreasureSpritesByID, tEvent);
                                                                  
             } 
                         
@@ -387,40 +533,43 @@ public final class LabyrinthBoardView extends VirtualMediaPanel implements Place
             // Determine which tile the mouse is over.
             final int iX = tEvent.getX() / LabyrinthSprite.SIZE;
             final int iY = tEvent.getY() / LabyrinthSprite.SIZE;
+
+            // Quick abort if the mouse has not left the tile it was last over.
+            if (iX == miMouseX && iY == miMouseY)
+                return;
+            miMouseX = iX;
+            miMouseY = iY;
             
             // If the player is allowed to move the floating wall, then handle this mouse 
             // position as a change to the floating wall's position.
             if (mtGameController.canWallBePlaced()) {
                
                 // Quick abort unless the tile is part of the area that surrounds the board. 
-                if (!LabyrinthUtil.isSurrounding(iX, iY))
+                final int iSize = getBoardSize();
+                if (!LabyrinthUtil.isSurrounding(iSize, iX, iY))
                     return;
 
                 // Make sure that the mouse is over a moveable column.
-                if (!LabyrinthUtil.isMoveable(iX) && !LabyrinthUtil.isMoveable(iY))
+                if (!LabyrinthUtil.isMoveable(iSize, iX) && !LabyrinthUtil.isMoveable(iSize, iY))
                     return;
 
                 // Make sure that the wall cursor is not in it's previous location.  The
                 // wall can not be inserted at the point it just was shifted out of.
-                final int iLocation = LabyrinthUtil.getLocation(iX, iY);
+                final int iLocation = LabyrinthUtil.getLocation(iSize, iX, iY);
                 if (mtGameObject.floating_wall_origin != iLocation)
                     mtWallCursor.setPosition(iX, iY);
                 
             } else if (mtGameController.canGhostBeMoved()) {
                 
-                // Wrap the coordinates in a point.
-                final Point tMouseOverPoint = new Point(iX, iY);
-                                 
                 // Get the player index.
                 final int iPlayerIndex = mtGameController.getPlayerIndex();
                 
-                // Attempt to resolve a path from the player's sprite to the
-                // mouse-over tile.
+                // Get the player's ghost.
                 final Ghost tGhost = mtGameObject.ghosts.get(iPlayerIndex);
 
-                // Try to resolve a path from the player's ghost to the destination.
-                final Path tPath = Path.findPath(mtGameObject.walls, new Point(tGhost.x, tGhost.y), tMouseOverPoint);
-                if (tPath != null) {
+                // Check to see if the mouse-over tile can be reached from the 
+                // player's ghost.
+                if (canGhostReach(iX, iY)) {
                     
                     // Get the sprite that corresponds to this ghost.
                     final GhostSprite tGhostSprite = mtGhostSpritesByID.get(iPlayerIndex);
@@ -512,9 +661,9 @@ public final class LabyrinthBoardView extends VirtualMediaPanel implements Place
                     // Reset the position of the floating cursor and all of the pieces affected
                     // by the shift.
                     mtShiftEvent.shift_context.setOffset(mtWallCursor, iOffset);
-                    mtShiftEvent.shift_context.setOffset(mtGameObject.walls, mtWallSpritesByID, iOffset);
-                    mtShiftEvent.shift_context.setOffset(mtGameObject.ghosts, mtGhostSpritesByID, iOffset);
-                    mtShiftEvent.shift_context.setOffset(mtGameObject.treasures, mtTreasureSpritesByID, iOffset);
+                    mtShiftEvent.shift_context.setOffset(mtGameObject.getWallIndex(), mtWallSpritesByID, iOffset);
+                    mtShiftEvent.shift_context.setOffset(mtGameObject.getGhostIndex(), mtGhostSpritesByID, iOffset);
+                    mtShiftEvent.shift_context.setOffset(mtGameObject.getTreasureIndex(), mtTreasureSpritesByID, iOffset);
 
                     // Clear the event.
                     mtShiftEvent = null;
@@ -535,6 +684,10 @@ public final class LabyrinthBoardView extends VirtualMediaPanel implements Place
             
             // Get the name of the attribute that changed.
             final String sAttribute = tEvent.getName();
+
+            // Any change to the game may change what the player can do from the
+            // tile the mouse is over, or where their ghost can go.
+            invalidateReachable();
             
             // When the active treasure changes, we need to add or reset the sparkle
             // to show which treasure is being sought.
@@ -562,9 +715,12 @@ public final class LabyrinthBoardView extends VirtualMediaPanel implements Place
                 final Animation tAnimation = mtGhostSpritesByID.get(mtGameController.getPlayerIndex()).getAnimation();
                 
                 // If it is now time for the player to move their character, we 
-                // need to add the animation that indicates such.
-                if (mtGameController.canGhostBeMoved())
+                // need to add the animation that indicates such.  The squares the
+                // ghost can reach are computed now rather than while hovering.
+                if (mtGameController.canGhostBeMoved()) {
                     addAnimation(tAnimation);
+                    updateReachable();
+                }
                 
             } 
                         
@@ -577,12 +733,17 @@ public final class LabyrinthBoardView extends VirtualMediaPanel implements Place
      */
     private final SetListener mtSetListener = new SetListener() {
         public final void entryAdded(final EntryAddedEvent tEvent) {
-            if (LabyrinthObject.WALLS.equals(tEvent.getName()))
+            mtGameObject.reindex(tEvent.getName());
+            if (LabyrinthObject.WALLS.equals(tEvent.getName())) {
                 addWallSprite((Wall) tEvent.getEntry());
+                invalidateReachable();
+            }
         }
 
         public final void entryRemoved(final EntryRemovedEvent tEvent) {
+            mtGameObject.reindex(tEvent.getName());
             if (LabyrinthObject.WALLS.equals(tEvent.getName())) {
+                invalidateReachable();
                 final Sprite tSprite = mtWallSpritesByID.remove(tEvent.getKey());
                 if (tSprite != null)
                     removeSprite(tSprite);
@@ -590,6 +751,9 @@ public final class LabyrinthBoardView extends VirtualMediaPanel implements Place
         }
 
         public final void entryUpdated(final EntryUpdatedEvent tEvent) {
+
+            // The piece may have moved to another row or column.
+            mtGameObject.reindex(tEvent.getName());
             
             // This will hold the <code>Piece</code> to be updated.
             Piece tPiece = null;
@@ -602,6 +766,7 @@ public final class LabyrinthBoardView extends VirtualMediaPanel implements Place
             if (LabyrinthObject.GHOSTS.equals(sEventName)) {
                 tPiece = (Ghost) tEvent.getEntry();
                 tSpritesByID = mtGhostSpritesByID;
+                invalidateReachable();
                 
             } else if (LabyrinthObject.TREASURES.equals(sEventName)) {
                 final Treasure tTreasure = (Treasure) tEvent.getEntry();
@@ -610,16 +775,7 @@ public final class LabyrinthBoardView extends VirtualMediaPanel implements Place
                 // event that this treasure is now picked-up, we're going to remove
                 // the sprite and skip the update process.
                 if (tTreasure.isCollected()) {
-                    
-                    // Remove the sprite from the map.  We will never need it again
-                    // now that the treasure has been collected.
-                    final TreasureSprite tTreasureSprite = mtTreasureSpritesByID.remove(tTreasure.getKey());
-                                        
-                    // Stop painting the the sprite.
-                    removeSprite(tTreasureSprite);
-                    
-                    // Get the sparkle animation and remove that as well.
-                    abortAnimation(tTreasureSprite.getAnimation());
+                    removeTreasureSprite(tTreasure);
 
                     // No further work necessary.
                     return;
@@ -634,6 +790,7 @@ public final class LabyrinthBoardView extends VirtualMediaPanel implements Place
             } else if (LabyrinthObject.WALLS.equals(sEventName)) {
                 tPiece = (Wall) tEvent.getEntry();
                 tSpritesByID = mtWallSpritesByID;
+                invalidateReachable();
                 
             }
 
@@ -667,7 +824,7 @@ public final class LabyrinthBoardView extends VirtualMediaPanel implements Place
             
             // Check to see if this sprite appears in the same location as the
             // previous wall's origin - if so, it should also return null.
-            final int iLocation = LabyrinthUtil.getLocation(_bounds.x / LabyrinthSprite.SIZE, _bounds.y / LabyrinthSprite.SIZE);
+            final int iLocation = LabyrinthUtil.getLocation(getBoardSize(), _bounds.x / LabyrinthSprite.SIZE, _bounds.y / LabyrinthSprite.SIZE);
             if (iLocation == mtGameObject.floating_wall_origin)
                 return null;
             
@@ -10,6 +10,8 @@ import com.threerings.crowd.util.CrowdContext;
 import com.threerings.parlor.game.client.GameController;
 import com.threerings.parlor.turn.client.TurnGameController;
 import com.threerings.parlor.turn.client.TurnGameControllerDelegate;
+import com.threerings.presents.dobj.MessageEvent;
+import com.threerings.presents.dobj.MessageListener;
 import com.threerings.toybox.util.ToyBoxContext;
 import com.threerings.util.Name;
 
@@ -95,7 +97,9 @@ public final class LabyrinthController extends GameController implements TurnGam
     public final void didLeavePlace(final PlaceObject tPlaceObject) {
         super.didLeavePlace(tPlaceObject);
 
-        // We no longer need a reference to the game object.
+        // Stop listening for shifts and resyncs and clear our reference to the game object.
+        mtLabyrinthObject.removeListener(mtStateListener);
+        _ctx.getClient().getClientObject().removeListener(mtStateListener);
         mtLabyrinthObject = null;
         
     }
@@ -136,6 +140,62 @@ public final class LabyrinthController extends GameController implements TurnGam
         return mtTurnController.isOurTurn();
     }
     
+    /**
+     * Private method which replays the shift described by the arguments of a
+     * <code>SHIFT_APPLIED</code> message on the local copy of the game and
+     * moves the sprites on the board to match.  If the shift can not be
+     * replayed or the board does not end up with the hash sent by the server,
+     * the pieces are requested in full.
+     */
+    private final void shiftApplied(final Object[] atArgs) {
+        final int iX = ((Integer) atArgs[0]).intValue();
+        final int iY = ((Integer) atArgs[1]).intValue();
+        final int iOrientation = ((Integer) atArgs[2]).intValue();
+        final int iFloatingWall = ((Integer) atArgs[3]).intValue();
+        final long lHash = ((Long) atArgs[4]).longValue();
+
+        // Verify that the shift can be made from the state we hold.
+        final ShiftContext tShiftContext = ShiftContext.createContext(mtLabyrinthObject, iX, iY);
+        if (tShiftContext == null || mtLabyrinthObject.floating_wall.unique_id != iFloatingWall) {
+            System.err.println("Unable to replay shift [x=" + iX + ", y=" + iY + ", floatingWall=" + iFloatingWall + "].");
+            mtLabyrinthObject.manager.invoke("resyncBoard");
+            return;
+        }
+
+        // Replay the shift and move the sprites.
+        final Wall tEjectedWall = mtLabyrinthObject.applyShift(tShiftContext, iOrientation);
+        if (tEjectedWall == null) {
+            System.err.println("Unable to replay shift [x=" + iX + ", y=" + iY + ", floatingWall=" + iFloatingWall + "].");
+            mtLabyrinthObject.manager.invoke("resyncBoard");
+            return;
+        }
+        mtLabyrinthPanel.getBoard().shiftApplied(tShiftContext, tEjectedWall);
+
+        // Verify that we ended up where the server did.
+        if (Board.create(mtLabyrinthObject).getHash() != lHash) {
+            System.err.println("Board out of step after shift [x=" + iX + ", y=" + iY + "].");
+            mtLabyrinthObject.manager.invoke("resyncBoard");
+        }
+
+    }
+
+    /**
+     * Private method which unpacks the pieces sent in a <code>BOARD_RESYNCED</code>
+     * message, if they belong to this game, and rebuilds the sprites to match.
+     */
+    private final void boardResynced(final Object[] atArgs) {
+        if (((Integer) atArgs[0]).intValue() != mtLabyrinthObject.getOid())
+            return;
+
+        final byte[] abBoardState = (byte[]) atArgs[1];
+        if (!PackedBoard.unpack(abBoardState, mtLabyrinthObject)) {
+            System.err.println("Unable to unpack resynced board [oid=" + mtLabyrinthObject.getOid() + "].");
+            return;
+        }
+        mtLabyrinthObject.board_state = abBoardState;
+        mtLabyrinthPanel.getBoard().boardResynced();
+    }
+
     /* (non-Javadoc)
      * @see com.threerings.parlor.turn.client.TurnGameController#turnDidChange(com.threerings.util.Name)
      */
@@ -153,13 +213,36 @@ public final class LabyrinthController extends GameController implements TurnGam
      * @see com.threerings.parlor.game.client.GameController#willEnterPlace(com.threerings.crowd.data.PlaceObject)
      */
     public final void willEnterPlace(final PlaceObject tPlaceObject) {
-        super.willEnterPlace(tPlaceObject);
 
-        // Cache a casted reference to the Labyrinth distributed state.
+        // Cache a casted reference to the Labyrinth distributed state.  The pieces
+        // arrive packed and are unpacked before anything else looks at them.
         mtLabyrinthObject = (LabyrinthObject) tPlaceObject;
+        if (!PackedBoard.unpack(mtLabyrinthObject.board_state, mtLabyrinthObject))
+            System.err.println("Unable to unpack board [oid=" + mtLabyrinthObject.getOid() + "].");
+
+        super.willEnterPlace(tPlaceObject);
         
         // Get our player index.
         miPlayerIndex = ListUtil.indexOf(mtLabyrinthObject.players, ((ToyBoxContext) _ctx).getUsername());
+
+        // Start listening for shifts, and for the pieces being sent again to our
+        // own body.
+        mtLabyrinthObject.addListener(mtStateListener);
+        _ctx.getClient().getClientObject().addListener(mtStateListener);
         
     }
+
+    /**
+     * This is the private listener that replays the shifts made by the turn
+     * holders and unpacks the pieces when they are sent to us again.
+     */
+    private final MessageListener mtStateListener = new MessageListener() {
+        public final void messageReceived(final MessageEvent tEvent) {
+            if (LabyrinthObject.SHIFT_APPLIED.equals(tEvent.getName()))
+                shiftApplied(tEvent.getArgs());
+            else if (LabyrinthObject.BOARD_RESYNCED.equals(tEvent.getName()))
+                boardResynced(tEvent.getArgs());
+        }
+    };
+
 }
@@ -3,11 +3,11 @@
 
 package com.mpgsoft.labyrinth;
 
-import java.awt.Point;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.Random;
 
 import com.samskivert.util.RandomUtil;
 import com.threerings.crowd.data.BodyObject;
@@ -17,13 +17,24 @@ import com.threerings.parlor.game.server.GameManager;
 import com.threerings.parlor.turn.server.TurnGameManager;
 import com.threerings.parlor.turn.server.TurnGameManagerDelegate;
 import com.threerings.toybox.data.ToyBoxGameConfig;
-import com.threerings.util.DirectionCodes;
 
 /**
  * Handles the server side of the game.
  */
 public final class LabyrinthManager extends GameManager implements TurnGameManager {
 
+    /**
+     * Static constant defining the random number generator used to orient the
+     * fixed walls.
+     */
+    private static final Random RANDOM = new Random();
+
+    /**
+     * Static constant defining the fewest milliseconds between two resyncs of
+     * the same client.
+     */
+    private static final long RESYNC_INTERVAL = 5000L;
+
     /** 
      * This is the <code>TurnGameManagerDelegate</code> which is responsible for
      * managing the turn-based game play on our behalf.
@@ -43,6 +54,69 @@ public final class LabyrinthManager extends GameManager implements TurnGameManag
      * The Labyrinth game configuration.
      */
     protected ToyBoxGameConfig mtGameConfiguration;
+
+    /**
+     * This is the authoritative, packed model of the board.  The distributed
+     * sets in the game object are a projection of this model.
+     */
+    private Board mtBoard;
+
+    /**
+     * These are the connected regions of the authoritative board.  They are
+     * updated after each shift rather than being recomputed for every query.
+     */
+    private Connectivity mtConnectivity;
+
+    /**
+     * This is the most recent snapshot of the board, which is replaced after
+     * every committed transaction.  It is read by other threads without locking.
+     */
+    private volatile Snapshot mtSnapshot;
+
+    /**
+     * This is the version of the most recently published snapshot.  It is only
+     * accessed from the game's thread.
+     */
+    private long mlSnapshotVersion;
+
+    /**
+     * This is the number of milliseconds each AI player may think about a move.
+     */
+    private long mlAIBudget;
+
+    /**
+     * This is set if the game was configured for the AI players to move
+     * without pausing for anyone watching.
+     */
+    private boolean mbFastMode;
+
+    /**
+     * These are what each AI player keeps between turns, indexed by player.
+     */
+    private AIPlayer[] matAIPlayers;
+
+    /**
+     * These are the ponders of the AI players during the current turn,
+     * indexed by player.
+     */
+    private Ponder[] matPonders;
+
+    /**
+     * This is the journal the game is recorded in.
+     */
+    private Journal mtJournal;
+
+    /**
+     * These are the times, as given by <code>System.currentTimeMillis()</code>,
+     * each client was last sent the pieces in full, by the identity of it's body.
+     */
+    private final Map<Integer, Long> mtResyncs = new HashMap<Integer, Long>();
+
+    /**
+     * This is set once the pieces have changed since they were last packed
+     * into <code>board_state</code>.
+     */
+    private boolean mbBoardStateStale;
     
     /**
      * Base constructor for the Labyrinth server manager.
@@ -81,6 +155,91 @@ public final class LabyrinthManager extends GameManager implements TurnGameManag
         
     }
 
+    /**
+     * Private method which returns the size of the board selected when the game
+     * was configured.  The default size is used if the configuration does not
+     * hold a size that can be played.
+     */
+    private final int getBoardSize() {
+
+        // Quick abort if no size was selected.
+        final Object tSize = mtGameConfiguration.params.get(LabyrinthUtil.BOARD_SIZE);
+        if (tSize == null)
+            return LabyrinthUtil.DEFAULT_SIZE;
+
+        // The size may be provided as any kind of value so it is parsed from it's
+        // string representation.
+        try {
+            final int iSize = Integer.parseInt(String.valueOf(tSize));
+            if (LabyrinthUtil.isValidSize(iSize))
+                return iSize;
+        } catch (NumberFormatException tEx) {
+            // Reported below.
+        }
+
+        System.err.println("Invalid board size [size=" + tSize + "] configured.");
+        return LabyrinthUtil.DEFAULT_SIZE;
+    }
+
+    /**
+     * Private method which returns the number of seconds the AI players may
+     * think about each move as selected when the game was configured.  The
+     * default is used if the configuration does not hold a valid time.
+     */
+    private final int getAITime() {
+
+        // Quick abort if no time was selected.
+        final Object tTime = mtGameConfiguration.params.get(LabyrinthUtil.AI_TIME);
+        if (tTime == null)
+            return LabyrinthUtil.DEFAULT_AI_TIME;
+
+        // Like the size of the board, the time is parsed from it's string representation.
+        try {
+            final int iTime = Integer.parseInt(String.valueOf(tTime));
+            if (iTime >= LabyrinthUtil.MINIMUM_AI_TIME && iTime <= LabyrinthUtil.MAXIMUM_AI_TIME)
+                return iTime;
+        } catch (NumberFormatException tEx) {
+            // Reported below.
+        }
+
+        System.err.println("Invalid AI time [time=" + tTime + "] configured.");
+        return LabyrinthUtil.DEFAULT_AI_TIME;
+    }
+
+    /**
+     * Private method which returns the strategy the AI players select their
+     * moves with as selected when the game was configured.  The AI players
+     * search ahead if the configuration does not hold a known strategy.
+     */
+    private final String getAIStrategy() {
+
+        // Quick abort if no strategy was selected.
+        final Object tStrategy = mtGameConfiguration.params.get(LabyrinthUtil.AI_STRATEGY);
+        if (tStrategy == null)
+            return LabyrinthUtil.LOOKAHEAD;
+
+        final String sStrategy = String.valueOf(tStrategy);
+        if (LabyrinthUtil.LOOKAHEAD.equals(sStrategy) || LabyrinthUtil.MONTE_CARLO.equals(sStrategy))
+            return sStrategy;
+
+        System.err.println("Invalid AI strategy [strategy=" + tStrategy + "] configured.");
+        return LabyrinthUtil.LOOKAHEAD;
+    }
+
+    /**
+     * Private method which returns true if the game was configured for the AI
+     * players to move without pausing for anyone watching.
+     */
+    private final boolean getFastMode() {
+
+        // Quick abort if the toggle was not set.
+        final Object tFastMode = mtGameConfiguration.params.get(LabyrinthUtil.FAST_MODE);
+        if (tFastMode == null)
+            return false;
+
+        return Boolean.valueOf(String.valueOf(tFastMode)).booleanValue();
+    }
+
     /* (non-Javadoc)
      * @see com.threerings.crowd.server.PlaceManager#createPlaceObject()
      */
@@ -122,85 +281,32 @@ public final class LabyrinthManager extends GameManager implements TurnGameManag
         // completed - which is the desired effect and network traffic is minimized.
         // After a bunch of testing, it appears that this is a safe change.
         
-        // This is the number of walls placed - and is used to calculate each 
-        // wall's unique identity.
-        int iWalls = 0;
-        
-        // The corners and edge centers of the maze are fixed shapes
-        // and orientation.  This code orients those pieces properly.
-        // The center square is also a fixed shape (straight) but
-        // a random direction is added for each new game.
-        mtGameObject.addToWalls(new Wall(++iWalls, 1, 1, Wall.L_SHAPE, DirectionCodes.EAST));
-        mtGameObject.addToWalls(new Wall(++iWalls, 3, 1, Wall.T_SHAPE, DirectionCodes.SOUTH));
-        mtGameObject.addToWalls(new Wall(++iWalls, 5, 1, Wall.L_SHAPE, DirectionCodes.SOUTH));
-        mtGameObject.addToWalls(new Wall(++iWalls, 1, 3, Wall.T_SHAPE, DirectionCodes.EAST));
-        mtGameObject.addToWalls(new Wall(++iWalls, 3, 3, Wall.STRAIGHT, Math.random() < 0.5d ? DirectionCodes.NORTH : DirectionCodes.EAST));
-        mtGameObject.addToWalls(new Wall(++iWalls, 5, 3, Wall.T_SHAPE, DirectionCodes.WEST));
-        mtGameObject.addToWalls(new Wall(++iWalls, 1, 5, Wall.L_SHAPE, DirectionCodes.NORTH));
-        mtGameObject.addToWalls(new Wall(++iWalls, 3, 5, Wall.T_SHAPE, DirectionCodes.NORTH));
-        mtGameObject.addToWalls(new Wall(++iWalls, 5, 5, Wall.L_SHAPE, DirectionCodes.WEST));
-        
-        // Now we're going to build the list of wall segments that are moveable.
-        // This list will hold the <code>Wall</code>s that remain to be placed.
-        final List<Wall> tWalls = new ArrayList<Wall>();
-        
-        // Initialize the list with the default wall segments.  The constructor
-        // being used randomly selects an orientation so we don't need to do
-        // that ourselves.
-        for (int iIndex = 0; iIndex < 5; ++iIndex)
-            tWalls.add(new Wall(++iWalls, Wall.STRAIGHT));
-        for (int iIndex = 0; iIndex < 6; ++iIndex)
-            tWalls.add(new Wall(++iWalls, Wall.L_SHAPE));
-        for (int iIndex = 0; iIndex < 6; ++iIndex)
-            tWalls.add(new Wall(++iWalls, Wall.T_SHAPE));
-
-        // The next step of maze initialization is to randomly distribute the 
-        // selection of wall pieces across the remaining empty squares on the
-        // board.  This is done by 
-        for (int iY = 1; iY < LabyrinthBoardView.SIZE.height - 1; ++iY) {
-            for (int iX = 1; iX < LabyrinthBoardView.SIZE.width - 1; ++iX) {
-
-                // Skip the special fixed squares.
-                if ((iX == 1 || iX == 3 || iX == 5) && (iY == 1 || iY == 3 || iY == 5))
-                    continue;
-                
-                // Randomly select from the remaining wall segments.  Since the
-                // wall received a random orientation at construction, we only
-                // need to set it's location.
-                final Wall tWall = tWalls.remove(RandomUtil.getInt(tWalls.size()));
-                
-                // Set the wall's location on the grid.
-                tWall.x = iX;
-                tWall.y = iY;
-                
-                // Add the newly created wall to the game.
-                mtGameObject.addToWalls(tWall);
-                
-            }
-        }
-
-        // The last remaining piece in the walls <code>List</code> is the tile
-        // that can be shifted into the maze by the turn holder.  The wall is
-        // also positioned, by default, into a valid moveable location.
-        mtGameObject.floating_wall = tWalls.remove(0);
-        mtGameObject.floating_wall.y = 2;
-                
-        // Get the number of players in this game.
-        final int iPlayers = mtGameObject.getPlayerCount();
-        
-        // This set of <code>Point</code>s will be used to prevent players and treasures
-        // from starting on-top of one another.  As points are randomly selected, they
-        // are added to this list which prevents those points from being selected in a
-        // future call to <code>getRandomLocation()</code>.
-        final Set<Point> tUsedPoints = new HashSet<Point>();
-        
-        // Randomly distribute <code>Treasure</code> pieces around the board.
-        for (int iTreasure = 0; iTreasure < Treasure.TREASURE_COUNT; ++iTreasure)
-            mtGameObject.addToTreasures(new Treasure(iTreasure, LabyrinthUtil.getRandomLocation(tUsedPoints, true)));
-        
-        // Create <code>Ghost</code> pieces for each of the players.
-        for (int iPlayer = 0; iPlayer < iPlayers; ++iPlayer)
-            mtGameObject.addToGhosts(new Ghost(iPlayer, LabyrinthUtil.getRandomLocation(tUsedPoints, true)));
+        // Create the authoritative board of the configured size with room for each 
+        // of the players.
+        final int iSize = getBoardSize();
+        mtGameObject.board_size = iSize;
+        mlAIBudget = getAITime() * 1000L;
+        mbFastMode = getFastMode();
+        final boolean bMonteCarlo = LabyrinthUtil.MONTE_CARLO.equals(getAIStrategy());
+        matAIPlayers = new AIPlayer[mtGameObject.players.length];
+        matPonders = new Ponder[mtGameObject.players.length];
+        for (int iPlayer = 0; iPlayer < matAIPlayers.length; ++iPlayer)
+            matAIPlayers[iPlayer] = new AIPlayer(iPlayer, bMonteCarlo);
+
+        // Build the maze and scatter the treasures and ghosts across it.  The pieces
+        // are set directly in the distributed state since they are sent to the
+        // clients packed into <code>board_state</code>.
+        final StartingBoard tStartingBoard = new StartingBoard(iSize, mtGameObject.players.length, RANDOM);
+        mtBoard = tStartingBoard.board;
+        tStartingBoard.populate(mtGameObject);
+
+        // Label the connected regions of the newly built maze.
+        mtConnectivity = new Connectivity(mtBoard);
+        publishSnapshot();
+
+        // Record the board the game starts with.
+        mtJournal = Journal.create(mtGameObject.getOid());
+        mtJournal.recordStart(mtGameObject);
                 
     }
 
@@ -237,48 +343,58 @@ public final class LabyrinthManager extends GameManager implements TurnGameManag
      */
     final void placeGhost(final int iPlayerIndex, final Ghost tGhost) {
 
-        // Get the ghost out of the shared object.  Record an error if the ghost provided
-        // doesn't match the 
-        final Ghost tOriginalGhost = mtGameObject.ghosts.get(iPlayerIndex);
-                   
-        // Get the current location for the specified ghost.
-        final Path tPath = Path.findPath(mtGameObject.walls, new Point(tOriginalGhost.x, tOriginalGhost.y), new Point(tGhost.x, tGhost.y));
-        if (tPath == null) { 
-            System.err.println("Ghost can not reach [from=" + tOriginalGhost.x + "," + tOriginalGhost.y + "; to=" + tGhost.x + "," + tGhost.y + "].");
+        // Verify that the requested location can be reached from the ghost's current 
+        // location on the board.  The squares it can reach were found when the wall
+        // was placed.
+        final int iFromX = mtBoard.getGhostX(iPlayerIndex);
+        final int iFromY = mtBoard.getGhostY(iPlayerIndex);
+        if (mtGameObject.reachable == null || !Reachability.contains(mtGameObject.reachable, tGhost.x, tGhost.y)) { 
+            System.err.println("Ghost can not reach [from=" + iFromX + "," + iFromY + "; to=" + tGhost.x + "," + tGhost.y + "].");
             return;
         }
 
+        // Move the ghost on the board.
+        mtBoard.setGhost(iPlayerIndex, tGhost.x, tGhost.y);
+        mtJournal.recordGhost(iPlayerIndex, tGhost.x, tGhost.y);
+
         try {
             
             // Start a transaction event.
             mtGameObject.startTransaction();
 
-            // Move the original ghost.
+            // Get the ghost out of the shared object and move it.
+            final Ghost tOriginalGhost = mtGameObject.ghosts.get(iPlayerIndex);
             tOriginalGhost.x = tGhost.x;
             tOriginalGhost.y = tGhost.y;
 
-            // Notify the game state that the player has moved.
-            mtGameObject.updateGhosts(tGhost);
+            // Notify the game state that the player has moved.  The ghost was moved in
+            // place, so it's index is discarded.
+            mtGameObject.updateGhosts(tOriginalGhost);
+            mtGameObject.reindex(LabyrinthObject.GHOSTS);
 
             // Check to see if the player has moved onto the square holding the 
             // active treasure.  If so, the player picks it up.
-            final Treasure tTreasure = mtGameObject.treasures.get(mtGameObject.active_treasure);
-            if (tTreasure != null && tTreasure.x == tGhost.x && tTreasure.y == tGhost.y) {
-
-                // Assign this treasure to the player.
-                tTreasure.owner = iPlayerIndex;
+            final int iTreasure = mtGameObject.active_treasure;
+            if (iTreasure >= 0 && mtBoard.getTreasureX(iTreasure) == tGhost.x && mtBoard.getTreasureY(iTreasure) == tGhost.y) {
 
                 // Remove the treasure from the board so that it doesn't continue to be
                 // shifted behind the scenes even though it is no longer visible.
-                tTreasure.x = -1;
-                tTreasure.y = -1;
+                mtBoard.setTreasure(iTreasure, Board.OFF_BOARD, Board.OFF_BOARD);
+
+                // Assign this treasure to the player.
+                final Treasure tTreasure = mtGameObject.treasures.get(iTreasure);
+                tTreasure.owner = iPlayerIndex;
+                tTreasure.x = Board.OFF_BOARD;
+                tTreasure.y = Board.OFF_BOARD;
 
                 // Temporarily set the game object's treasure index to zero.  This will be
                 // immediately rectified in <code>turnWillStart()</code>.
                 mtGameObject.active_treasure = -1;
+                mtBoard.setActiveTreasure(-1);
 
                 // Update the shared treasure state.
                 mtGameObject.updateTreasures(tTreasure);
+                mtGameObject.reindex(LabyrinthObject.TREASURES);
 
             }
             
@@ -288,6 +404,7 @@ public final class LabyrinthManager extends GameManager implements TurnGameManag
             mtGameObject.commitTransaction();
             
         }
+        publishSnapshot();
 
         // After the player moves, end the turn.
         mtTurnDelegate.endTurn();
@@ -325,67 +442,201 @@ public final class LabyrinthManager extends GameManager implements TurnGameManag
         // Verify that the wall is currently floating in the area 
         // surrounding the maze.  Create a <code>ShiftContext</code> 
         // based on the floating wall's position.
-        final ShiftContext tShiftContext = ShiftContext.createContext(mtGameObject, tWall.x, tWall.y);
+        final ShiftContext tShiftContext = ShiftContext.createContext(mtBoard, tWall.x, tWall.y);
         if (tShiftContext == null) {
             System.err.println("Request to place wall in an illegal position [x=" + tWall.x + ", y=" + tWall.y + "] received.");
             return;
         }
 
+        // Verify that the wall being inserted is the floating wall.
+        if (tWall.unique_id != mtBoard.getFloatingWall()) {
+            System.err.println("Request to place wall that is not floating [key=" + tWall.getKey() + "] received.");
+            return;
+        }
+
+        // Verify that the wall is oriented in one of the four directions a wall can
+        // face.  Anything else would corrupt the board partway through the shift.
+        if (!Wall.isOrientation(tWall.orientation)) {
+            System.err.println("Request to place wall with an illegal orientation [orientation=" + tWall.orientation + "] received.");
+            return;
+        }
+
+        // Apply the orientation selected by the player and perform the physical 
+        // shift on the board.  The wall pushed out of the maze becomes the new 
+        // floating wall.
+        mtBoard.setFloatingOrientation(tWall.orientation);
+        final int iEjectedWall = tShiftContext.shift(mtBoard);
+        mtJournal.recordWall(iPlayerIndex, tWall);
+        mtConnectivity.update(tShiftContext);
+
+        // Replay the shift on the shared state.  The clients are sent nothing
+        // but the shift itself and replay it the same way, so the pieces that
+        // moved are not published one by one.
+        final Wall tEjectedWall = mtGameObject.applyShift(tShiftContext, tWall.orientation);
+        if (tEjectedWall == null || tEjectedWall.unique_id != iEjectedWall)
+            System.err.println("Shared state does not match the board [ejected=" + ((tEjectedWall == null) ? -1 : tEjectedWall.unique_id) + ", expected=" + iEjectedWall + "].");
+
         try {
         
             // Start a transaction.
             mtGameObject.startTransaction();
 
+            // Tell the clients which shift to replay, along with the hash of the
+            // board after it so they can tell if their state has drifted.  This
+            // must come before anything that makes the clients look at the board.
+            mtGameObject.postMessage(LabyrinthObject.SHIFT_APPLIED, Integer.valueOf(tWall.x), Integer.valueOf(tWall.y), 
+                    Integer.valueOf(tWall.orientation), Integer.valueOf(tWall.unique_id), Long.valueOf(mtBoard.getHash()));
+
+            // Publish the squares the turn holder's ghost can now reach.  These are
+            // used to validate the ghost's move and the clients show them as is.
+            mtGameObject.setReachable(mtConnectivity.getRegion(mtBoard.getGhostX(iPlayerIndex), mtBoard.getGhostY(iPlayerIndex), 
+                    Reachability.createMask(mtBoard)));
+
             // Record that the player has placed a wall which prevents the active
             // player from doing so a second time.
             mtGameObject.setWall_placed(true);
 
-            // Add the newly configured wall to the game.
-            mtGameObject.addToWalls(tWall);
-
-            // Perform the physical shift on the walls.
-            final List<Piece> tShiftedWalls = tShiftContext.shift(mtGameObject.walls, false);
-
-            // We need to iterate through the walls and notify the distributed set
-            // that they have been updated.  One of the walls will have been shifted
-            // out of the maze - that's the new floating wall.
-            for (Piece tWallPiece : tShiftedWalls) {
-                final Wall tShiftedWall = (Wall) tWallPiece;
-
-                // If the wall has been shifted out of play, then make this the 
-                // active piece.  Otherwise, notify the game context that the wall
-                // has been updated.
-                if (LabyrinthUtil.isSurrounding(tShiftedWall.x, tShiftedWall.y)) {
-                    mtGameObject.removeFromWalls(tShiftedWall.getKey());
-                    mtGameObject.setFloating_wall((Wall) tWallPiece);
-                    mtGameObject.setFloating_wall_origin(LabyrinthUtil.getLocation(tShiftedWall.x, tShiftedWall.y));
-
-                } else
-                    mtGameObject.updateWalls(tShiftedWall);
-
-            }
-
-            // Shift ghosts that are affected by the newly inserted piece.  Ghosts wrap
-            // to the other side.
-            final List<Piece> tShiftedGhosts = tShiftContext.shift(mtGameObject.ghosts, true);
-            for (Piece tGhostPiece : tShiftedGhosts)
-                mtGameObject.updateGhosts((Ghost) tGhostPiece);
-
-            // Shift treasures that are affected by the newly inserted piece.  Like ghosts,
-            // treasures also wrap to the other side of the board.
-            final List<Piece> tShiftedTreasures = tShiftContext.shift(mtGameObject.treasures, true);
-            for (Piece tTreasurePiece : tShiftedTreasures)
-                mtGameObject.updateTreasures((Treasure) tTreasurePiece);
-            
         } finally {
             
             // Commit all of the changes that were just made.
             mtGameObject.commitTransaction();
             
         }
+        publishSnapshot();
         
     }
 
+    /**
+     * Callback from a client whose state no longer matches the board, which
+     * happens if it missed a shift or replayed it differently.  The packed
+     * pieces are sent to that client alone, and no more than once every
+     * <code>RESYNC_INTERVAL</code>; a client that is still out of step after
+     * that asks again with the next shift.
+     */
+    public final void resyncBoard(final BodyObject tPlayer) {
+
+        // Quick abort if the client was sent the pieces too recently.
+        final long lNow = System.currentTimeMillis();
+        final Long tLastResync = mtResyncs.get(tPlayer.getOid());
+        if (tLastResync != null && lNow - tLastResync.longValue() < RESYNC_INTERVAL) {
+            System.err.println("Board resynchronization refused [who=" + tPlayer.who() + "].");
+            return;
+        }
+        mtResyncs.put(tPlayer.getOid(), lNow);
+
+        packBoardState();
+        tPlayer.postMessage(LabyrinthObject.BOARD_RESYNCED, Integer.valueOf(mtGameObject.getOid()), mtGameObject.board_state);
+    }
+
+    /**
+     * Private method which publishes a snapshot of the board as it stands
+     * after the most recent transaction.
+     */
+    private final void publishSnapshot() {
+        mtSnapshot = new Snapshot(++mlSnapshotVersion, mtBoard, mtConnectivity);
+
+        // The clients already in the game follow every change, so the pieces are
+        // only repacked once they are needed by a client entering or resyncing.
+        mbBoardStateStale = true;
+    }
+
+    /**
+     * Private method which packs the pieces into <code>board_state</code> if
+     * they have changed since they were last packed.  This is set directly
+     * since only the clients that enter or resync from now on look at it.
+     */
+    private final void packBoardState() {
+        if (!mbBoardStateStale)
+            return;
+        mtGameObject.board_state = PackedBoard.pack(mtGameObject);
+        mbBoardStateStale = false;
+    }
+
+    /**
+     * Returns the most recent snapshot of the board.  Unlike the board itself,
+     * this may be called from any thread.
+     */
+    final Snapshot getSnapshot() {
+        return mtSnapshot;
+    }
+
+    /**
+     * Posts the provided runnable to the event queue of the game so that it
+     * is run on the game's thread.  This may be called from any thread.
+     */
+    final void postRunnable(final Runnable tRunnable) {
+        _omgr.postRunnable(tRunnable);
+    }
+
+    /**
+     * Returns the number of milliseconds each AI player may think about a move.
+     */
+    final long getAIBudget() {
+        return mlAIBudget;
+    }
+
+    /**
+     * Returns true if the AI players should move as soon as they have thought
+     * about it, without pausing for anyone to follow along.  This is the case
+     * if the game was configured for it or if no one is watching; it is
+     * checked afresh for each move so that it stops as soon as someone enters
+     * to watch.  This must be called on the game's thread.
+     */
+    final boolean isFastMode() {
+        return mbFastMode || !isWatched();
+    }
+
+    /**
+     * Returns true if any real player is following the game, either seated
+     * at it or watching it.  This must be called on the game's thread.
+     */
+    final boolean isWatched() {
+
+        // Anyone in the room, whether seated or watching, is following along.
+        if (mtGameObject.occupantInfo.size() > 0)
+            return true;
+
+        for (int iPlayer = 0; iPlayer < mtGameObject.players.length; ++iPlayer) {
+            if (!isAI(iPlayer))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns what the designated AI player keeps between turns.
+     */
+    final AIPlayer getAIPlayer(final int iPlayerIndex) {
+        return matAIPlayers[iPlayerIndex];
+    }
+
+    /**
+     * Private method which stops every AI player pondering.
+     */
+    private final void stopPondering() {
+        for (int iPlayer = 0; iPlayer < matPonders.length; ++iPlayer) {
+            if (matPonders[iPlayer] != null) {
+                AIScheduler.stopPonder(matPonders[iPlayer]);
+                matPonders[iPlayer] = null;
+            }
+        }
+    }
+
+    /**
+     * Provides package-private access to the authoritative board.
+     */
+    final Board getBoard() {
+        return mtBoard;
+    }
+
+    /**
+     * Provides package-private access to the connected regions of the 
+     * authoritative board.
+     */
+    final Connectivity getConnectivity() {
+        return mtConnectivity;
+    }
+
     /* (non-Javadoc)
      * @see com.threerings.parlor.turn.server.TurnGameManager#turnDidEnd()
      */
@@ -408,6 +659,62 @@ public final class LabyrinthManager extends GameManager implements TurnGameManag
                     
     }
 
+    /* (non-Javadoc)
+     * @see com.threerings.parlor.game.server.GameManager#gameDidEnd()
+     */
+    protected final void gameDidEnd() {
+        super.gameDidEnd();
+
+        // There is nothing left for the AI players to think about.
+        AIScheduler.cancelTurns(this);
+        stopPondering();
+
+    }
+
+    /* (non-Javadoc)
+     * @see com.threerings.parlor.game.server.GameManager#bodyEntered(int)
+     */
+    protected final void bodyEntered(final int iBodyOid) {
+        super.bodyEntered(iBodyOid);
+
+        // The client is sent the game object once it subscribes, which follows
+        // this, so the pieces it unpacks are brought up to date here.  Should a
+        // turn slip in between, the client finds it's board out of step with
+        // the next shift and asks to be resynced.
+        packBoardState();
+
+    }
+
+    /* (non-Javadoc)
+     * @see com.threerings.parlor.game.server.GameManager#bodyLeft(int)
+     */
+    protected final void bodyLeft(final int iBodyOid) {
+        super.bodyLeft(iBodyOid);
+
+        // The identity may be given to another body once this one is gone.
+        mtResyncs.remove(iBodyOid);
+
+    }
+
+    /* (non-Javadoc)
+     * @see com.threerings.crowd.server.PlaceManager#didShutdown()
+     */
+    protected final void didShutdown() {
+        super.didShutdown();
+
+        // The game may have been left before it ended, so make sure nothing is
+        // still being thought about for it.
+        AIScheduler.cancelTurns(this);
+        if (matPonders != null)
+            stopPondering();
+        mtResyncs.clear();
+
+        // Nothing more will be recorded.
+        if (mtJournal != null)
+            mtJournal.close();
+
+    }
+
     /* (non-Javadoc)
      * @see com.threerings.parlor.turn.server.TurnGameManager#turnDidStart()
      */
@@ -415,6 +722,13 @@ public final class LabyrinthManager extends GameManager implements TurnGameManag
                 
         // Get the active player index.
         final int iPlayerIndex = mtTurnDelegate.getTurnHolderIndex();
+
+        // Stop pondering the last turn and have every other AI player ponder this one.
+        stopPondering();
+        for (int iPlayer = 0; iPlayer < matPonders.length; ++iPlayer) {
+            if (iPlayer != iPlayerIndex && isAI(iPlayer))
+                matPonders[iPlayer] = LabyrinthAI.ponder(this, iPlayer, iPlayerIndex);
+        }
         
         // Check to see if the active player is an AI player - if not, there is
         // nothing left to do on this turn.
@@ -445,6 +759,7 @@ public final class LabyrinthManager extends GameManager implements TurnGameManag
             // Reset the wall placement flag ensuring the player has to 
             // shift the maze before they can move.
             mtGameObject.setWall_placed(false);
+            mtGameObject.setReachable(null);
 
             // If there is no active treasure, we need to randomly select one from
             // the those remaining to be collected.
@@ -464,8 +779,11 @@ public final class LabyrinthManager extends GameManager implements TurnGameManag
                 // We should never reach this point if there are no remaining treasures -
                 // the game should already have ended - but it doesn't hurt to check.
                 final int iRemainingTreasures = tRemainingTreasures.size();
-                if (iRemainingTreasures > 0)
-                    mtGameObject.setActive_treasure(tRemainingTreasures.get(RandomUtil.getInt(iRemainingTreasures)).unique_id);
+                if (iRemainingTreasures > 0) {
+                    final int iTreasure = tRemainingTreasures.get(RandomUtil.getInt(iRemainingTreasures)).unique_id;
+                    mtBoard.setActiveTreasure(iTreasure);
+                    mtGameObject.setActive_treasure(iTreasure);
+                }
 
             }
             
@@ -475,6 +793,8 @@ public final class LabyrinthManager extends GameManager implements TurnGameManag
             mtGameObject.commitTransaction();
             
         }
+        publishSnapshot();
+        mtJournal.recordTurn(mtTurnDelegate.getTurnHolderIndex(), mtGameObject.active_treasure);
                         
     }
 
@@ -3,6 +3,9 @@
 
 package com.mpgsoft.labyrinth;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.threerings.parlor.game.data.GameObject;
 import com.threerings.parlor.turn.data.TurnGameObject;
 import com.threerings.presents.dobj.DSet;
@@ -17,6 +20,9 @@ public class LabyrinthObject extends GameObject implements TurnGameObject {
     /** The field name of the <code>turnHolder</code> field. */
     public static final String TURN_HOLDER = "turnHolder";
 
+    /** The field name of the <code>board_size</code> field. */
+    public static final String BOARD_SIZE = "board_size";
+
     /** The field name of the <code>active_treasure</code> field. */
     public static final String ACTIVE_TREASURE = "active_treasure";
 
@@ -37,13 +43,43 @@ public class LabyrinthObject extends GameObject implements TurnGameObject {
 
     /** The field name of the <code>ghosts</code> field. */
     public static final String GHOSTS = "ghosts";
+
+    /** The field name of the <code>board_state</code> field. */
+    public static final String BOARD_STATE = "board_state";
+
+    /** The field name of the <code>reachable</code> field. */
+    public static final String REACHABLE = "reachable";
     // AUTO-GENERATED: FIELDS END
 
+    /**
+     * Static constant defining the name of the message posted when the turn
+     * holder shifts the maze.  Rather than an event for every piece that moved,
+     * the message carries the x- and y-position the floating wall was inserted
+     * from, it's orientation, it's unique identity and the hash of the board
+     * after the shift; each client replays the shift with
+     * {@link #applyShift(ShiftContext, int)} and checks the hash.
+     */
+    public static final String SHIFT_APPLIED = "shiftApplied";
+
+    /**
+     * Static constant defining the name of the message posted to the body of a
+     * single client whose pieces have fallen out of step.  The message carries
+     * the identity of the game object and the <code>board_state</code>.
+     */
+    public static final String BOARD_RESYNCED = "boardResynced";
+
     /**
      * This is the <code>Name</code> of the current player.
      */
     public Name turnHolder;
 
+    /**
+     * This is the width and height of the board, including the area surrounding
+     * the maze.  It is selected when the game is configured and never changes
+     * once the game has started.
+     */
+    public int board_size = LabyrinthUtil.DEFAULT_SIZE;
+
     /**
      * This is the index of the active treasure that is currently being sought
      * by all players. The first player to move their piece onto the same 
@@ -64,9 +100,10 @@ public class LabyrinthObject extends GameObject implements TurnGameObject {
     /**
      * This is the moveable <code>Wall</code> that can be shifted into the maze
      * by the current turn holder.  After the game is initialized, this will 
-     * never be null.
+     * never be null.  Like the other pieces, it is not streamed but sent as
+     * part of the <code>board_state</code>.
      */
-    public Wall floating_wall;
+    public transient Wall floating_wall;
     
     /**
      * This is the position from which the floating wall piece originated.  Per
@@ -74,25 +111,52 @@ public class LabyrinthObject extends GameObject implements TurnGameObject {
      * prevent multiple updates, this integer value is calculated as 
      * <code>y * columns + x</code>.
      */
-    public int floating_wall_origin = 0;
+    public transient int floating_wall_origin = 0;
 
     /**
      * This is the distributed set of <code>Wall</code> objects representing the
      * labyrinth layout at any given moment.
      */
-    public DSet<Wall> walls = new DSet<Wall>();
+    public transient DSet<Wall> walls = new DSet<Wall>();
 
     /**
      * This is the distributed set of <code>Treasure</code> objects left 
      * in play at the current moment.
      */
-    public DSet<Treasure> treasures = new DSet<Treasure>();
+    public transient DSet<Treasure> treasures = new DSet<Treasure>();
 
     /**
      * This is the distributed set of <code>Piece</code> objects representing
      * the players' positions in the labyrinth.
      */
-    public DSet<Ghost> ghosts = new DSet<Ghost>();
+    public transient DSet<Ghost> ghosts = new DSet<Ghost>();
+
+    /**
+     * This is every piece above packed into bytes by {@link PackedBoard}.  It
+     * is what a client receives in place of the pieces when it enters the
+     * game; the server repacks it without sending any events as clients enter,
+     * since the clients already in the game follow the changes to the pieces.  A
+     * client whose pieces fall out of step is sent it again in a
+     * <code>BOARD_RESYNCED</code> message.
+     */
+    public byte[] board_state;
+
+    /**
+     * This is the mask of the squares the turn holder's ghost can reach once
+     * the wall has been placed, as described in {@link Reachability}.  It is
+     * computed by the server once per turn and is null until the wall has
+     * been placed.
+     */
+    public long[] reachable;
+
+    /**
+     * These are the indices of the walls, treasures and ghosts by row and
+     * column, which are created when they are first needed.  They are not
+     * part of the distributed state.
+     */
+    private transient PieceIndex<Wall> mtWallIndex;
+    private transient PieceIndex<Treasure> mtTreasureIndex;
+    private transient PieceIndex<Ghost> mtGhostIndex;
 
     /* (non-Javadoc)
      * @see com.threerings.parlor.turn.data.TurnGameObject#getPlayers()
@@ -115,6 +179,109 @@ public class LabyrinthObject extends GameObject implements TurnGameObject {
         return TURN_HOLDER;
     }
 
+    /**
+     * Returns the index of the walls by row and column, indexing them again if
+     * the set of walls has been replaced since they were last indexed.
+     */
+    final PieceIndex<Wall> getWallIndex() {
+        if (mtWallIndex == null || !mtWallIndex.indexes(walls))
+            mtWallIndex = new PieceIndex<Wall>(walls, board_size);
+        return mtWallIndex;
+    }
+
+    /**
+     * Returns the index of the treasures by row and column.
+     * @see #getWallIndex()
+     */
+    final PieceIndex<Treasure> getTreasureIndex() {
+        if (mtTreasureIndex == null || !mtTreasureIndex.indexes(treasures))
+            mtTreasureIndex = new PieceIndex<Treasure>(treasures, board_size);
+        return mtTreasureIndex;
+    }
+
+    /**
+     * Returns the index of the ghosts by row and column.
+     * @see #getWallIndex()
+     */
+    final PieceIndex<Ghost> getGhostIndex() {
+        if (mtGhostIndex == null || !mtGhostIndex.indexes(ghosts))
+            mtGhostIndex = new PieceIndex<Ghost>(ghosts, board_size);
+        return mtGhostIndex;
+    }
+
+    /**
+     * Package-private method which discards the index of the designated set
+     * of pieces so that it is indexed again when next needed.  This must be
+     * called whenever entries of the set are added, removed or updated.
+     */
+    final void reindex(final String sField) {
+        if (WALLS.equals(sField))
+            mtWallIndex = null;
+        else if (TREASURES.equals(sField))
+            mtTreasureIndex = null;
+        else if (GHOSTS.equals(sField))
+            mtGhostIndex = null;
+    }
+
+    /**
+     * Package-private method which shifts the pieces of the game according to
+     * the provided context, inserting the floating wall with the designated
+     * orientation, and returns the wall pushed out of the maze which becomes
+     * the new floating wall.  The fields are modified directly, without any
+     * events, so that the server and every client reach the same state by
+     * replaying the same shift.  The walls are moved without wrapping while
+     * the ghosts and treasures wrap to the other side of the maze.
+     * <p>
+     * If no wall stands at the far end of the row or column, which happens
+     * only when the pieces held have drifted from those of the server, the
+     * game is left untouched and null is returned.
+     */
+    final Wall applyShift(final ShiftContext tShiftContext, final int iOrientation) {
+
+        // Find the wall at the far end of the row or column, which is pushed
+        // out of the maze into the area surrounding it.
+        final PieceIndex<Wall> tWallIndex = getWallIndex();
+        final int iLast = (tShiftContext.direction > 0) ? tShiftContext.last : 1;
+        final int iLastX = tShiftContext.getTileX(iLast);
+        final int iLastY = tShiftContext.getTileY(iLast);
+        Wall tEjectedWall = null;
+        for (Wall tWall : tShiftContext.getPieces(tWallIndex)) {
+            if (tWall.x == iLastX && tWall.y == iLastY)
+                tEjectedWall = tWall;
+        }
+        if (tEjectedWall == null)
+            return null;
+        tShiftContext.shift(tWallIndex, false);
+
+        // The floating wall takes the square left empty at the start of the row
+        // or column.
+        final int iFirst = (tShiftContext.direction > 0) ? 1 : tShiftContext.last;
+        final Wall tInsertedWall = floating_wall;
+        tInsertedWall.x = tShiftContext.getTileX(iFirst);
+        tInsertedWall.y = tShiftContext.getTileY(iFirst);
+        tInsertedWall.orientation = iOrientation;
+        tWallIndex.add(tInsertedWall);
+
+        // Swap the two walls in and out of the set.  The set is rebuilt since
+        // entries can only be added and removed through events.
+        final List<Wall> tWalls = new ArrayList<Wall>(walls.size());
+        for (Wall tWall : walls) {
+            if (tWall != tEjectedWall)
+                tWalls.add(tWall);
+        }
+        tWalls.add(tInsertedWall);
+        walls = new DSet<Wall>(tWalls.iterator());
+        tWallIndex.setPieces(walls);
+        floating_wall = tEjectedWall;
+        floating_wall_origin = LabyrinthUtil.getLocation(board_size, tEjectedWall.x, tEjectedWall.y);
+
+        // Shift the ghosts and treasures in the row or column.
+        tShiftContext.shift(getGhostIndex(), true);
+        tShiftContext.shift(getTreasureIndex(), true);
+
+        return tEjectedWall;
+    }
+
     // AUTO-GENERATED: METHODS START
     /**
      * Requests that the <code>turnHolder</code> field be set to the
@@ -132,6 +299,22 @@ public class LabyrinthObject extends GameObject implements TurnGameObject {
         this.turnHolder = value;
     }
 
+    /**
+     * Requests that the <code>board_size</code> field be set to the
+     * specified value. The local value will be updated immediately and an
+     * event will be propagated through the system to notify all listeners
+     * that the attribute did change. Proxied copies of this object (on
+     * clients) will apply the value change when they received the
+     * attribute changed notification.
+     */
+    public void setBoard_size (int value)
+    {
+        int ovalue = this.board_size;
+        requestAttributeChange(
+            BOARD_SIZE, Integer.valueOf(value), Integer.valueOf(ovalue));
+        this.board_size = value;
+    }
+
     /**
      * Requests that the <code>active_treasure</code> field be set to the
      * specified value. The local value will be updated immediately and an
@@ -339,5 +522,71 @@ public class LabyrinthObject extends GameObject implements TurnGameObject {
             (value == null) ? null : value.typedClone();
         this.ghosts = clone;
     }
+
+    /**
+     * Requests that the <code>board_state</code> field be set to the
+     * specified value. The local value will be updated immediately and an
+     * event will be propagated through the system to notify all listeners
+     * that the attribute did change. Proxied copies of this object (on
+     * clients) will apply the value change when they received the
+     * attribute changed notification.
+     */
+    public void setBoard_state (byte[] value)
+    {
+        byte[] ovalue = this.board_state;
+        requestAttributeChange(
+            BOARD_STATE, value, ovalue);
+        this.board_state = (value == null) ? null : (byte[])value.clone();
+    }
+
+    /**
+     * Requests that the <code>index</code>th element of
+     * <code>board_state</code> field be set to the specified value.
+     * The local value will be updated immediately and an event will be
+     * propagated through the system to notify all listeners that the
+     * attribute did change. Proxied copies of this object (on clients)
+     * will apply the value change when they received the attribute
+     * changed notification.
+     */
+    public void setBoard_stateAt (byte value, int index)
+    {
+        byte ovalue = this.board_state[index];
+        requestElementUpdate(
+            BOARD_STATE, index, Byte.valueOf(value), Byte.valueOf(ovalue));
+        this.board_state[index] = value;
+    }
+
+    /**
+     * Requests that the <code>reachable</code> field be set to the
+     * specified value. The local value will be updated immediately and an
+     * event will be propagated through the system to notify all listeners
+     * that the attribute did change. Proxied copies of this object (on
+     * clients) will apply the value change when they received the
+     * attribute changed notification.
+     */
+    public void setReachable (long[] value)
+    {
+        long[] ovalue = this.reachable;
+        requestAttributeChange(
+            REACHABLE, value, ovalue);
+        this.reachable = (value == null) ? null : (long[])value.clone();
+    }
+
+    /**
+     * Requests that the <code>index</code>th element of
+     * <code>reachable</code> field be set to the specified value.
+     * The local value will be updated immediately and an event will be
+     * propagated through the system to notify all listeners that the
+     * attribute did change. Proxied copies of this object (on clients)
+     * will apply the value change when they received the attribute
+     * changed notification.
+     */
+    public void setReachableAt (long value, int index)
+    {
+        long ovalue = this.reachable[index];
+        requestElementUpdate(
+            REACHABLE, index, Long.valueOf(value), Long.valueOf(ovalue));
+        this.reachable[index] = value;
+    }
     // AUTO-GENERATED: METHODS END
 }
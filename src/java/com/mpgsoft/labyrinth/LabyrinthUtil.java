@@ -17,17 +17,77 @@ import com.threerings.presents.dobj.DSet;
  * @author Jeffrey D. Hoffman
  */
 final class LabyrinthUtil {
+
+    /**
+     * Static constant defining the name of the game configuration parameter
+     * holding the size of the board.
+     */
+    static final String BOARD_SIZE = "boardsize";
+
+    /**
+     * Static constants defining the sizes of the board that can be played.
+     * The size includes the area surrounding the maze and is always odd so 
+     * that the maze begins and ends with a fixed row and column.  The largest
+     * size is limited by the number of squares in a row that fit into the 
+     * masks used by {@link Reachability}.
+     */
+    static final int DEFAULT_SIZE = 7;
+    static final int MINIMUM_SIZE = 7;
+    static final int MAXIMUM_SIZE = Long.SIZE - 1;
+
+    /**
+     * Static constant defining the name of the game configuration parameter
+     * holding the number of seconds each AI player may think about a move.
+     */
+    static final String AI_TIME = "aitime";
+
+    /**
+     * Static constants defining the number of seconds the AI players may be
+     * given to think about each move.
+     */
+    static final int DEFAULT_AI_TIME = 3;
+    static final int MINIMUM_AI_TIME = 1;
+    static final int MAXIMUM_AI_TIME = 10;
+
+    /**
+     * Static constant defining the name of the game configuration parameter
+     * holding the strategy the AI players select their moves with.
+     */
+    static final String AI_STRATEGY = "aistrategy";
+
+    /**
+     * Static constants defining the strategies the AI players can use: a
+     * search of every move a number of turns ahead or a Monte Carlo tree
+     * search.
+     */
+    static final String LOOKAHEAD = "lookahead";
+    static final String MONTE_CARLO = "montecarlo";
+
+    /**
+     * Static constant defining the name of the game configuration parameter
+     * which, when set, has the AI players move without pausing for anyone
+     * watching.  This is also done whenever no one is watching.
+     */
+    static final String FAST_MODE = "fastmode";
    
     /**
      * This class can not be instantiated.
      */
     private LabyrinthUtil() { }
+
+    /**
+     * Returns true if the designated board size can be played.
+     */
+    static final boolean isValidSize(final int iSize) {
+        return iSize >= MINIMUM_SIZE && iSize <= MAXIMUM_SIZE && (iSize % 2) == 1;
+    }
     
     /**
-     * Computes the location index from the provided x- and y-position.
+     * Computes the location index from the provided x- and y-position on a
+     * board of the designated size.
      */
-    static final int getLocation(final int iX, final int iY) {
-        return iX + (iY * 5);
+    static final int getLocation(final int iSize, final int iX, final int iY) {
+        return iX + (iY * iSize);
     }
     
     /**
@@ -69,19 +129,20 @@ final class LabyrinthUtil {
     }
     
     /**
-     * Generates a random <code>Point</code> anywhere on the playable board.
+     * Generates a random <code>Point</code> anywhere within the maze of a board
+     * of the designated size.
      */
-    static final Point getRandomLocation() {
-        return new Point(RandomUtil.getInt(6, 0), RandomUtil.getInt(6, 0));
+    static final Point getRandomLocation(final int iSize) {
+        return new Point(RandomUtil.getInt(iSize - 1, 1), RandomUtil.getInt(iSize - 1, 1));
     }
     
     /**
-     * Generates a random <code>Point</code> on the playable board excluding
+     * Generates a random <code>Point</code> within the maze excluding
      * any points already in the provided <code>Set</code>.  This is not 
      * necessarily an efficient implementation if the exclusion set is
      * large.
      */
-    static final Point getRandomLocation(final Set<Point> tExclusions, final boolean bAddPoint) {
+    static final Point getRandomLocation(final int iSize, final Set<Point> tExclusions, final boolean bAddPoint) {
         
         // We'll try a reasonable number of times to find an exclusive
         // random point - but we won't allow an infinite loop.
@@ -93,7 +154,7 @@ final class LabyrinthUtil {
         do {
             
             // Randomly choose a point.
-            tPoint = getRandomLocation();
+            tPoint = getRandomLocation(iSize);
             
         } while (++iTries < 50 && tExclusions.contains(tPoint)); 
 
@@ -107,35 +168,37 @@ final class LabyrinthUtil {
     
     /**
      * Convenience method which returns true if the specified row or column is
-     * a valid insertion point.
+     * a valid insertion point on a board of the designated size.  Every even
+     * row and column within the maze can be shifted.
      */
-    static final boolean isMoveable(final int iLocation) {
-        return iLocation == 2 || iLocation == 4;
+    static final boolean isMoveable(final int iSize, final int iLocation) {
+        return iLocation > 0 && iLocation < iSize - 1 && (iLocation % 2) == 0;
     }
     
     /**
      * Convenience method whcih returns true if the specified row and column is
-     * a valid insertion point.
+     * a valid insertion point on a board of the designated size.
      */
-    static final boolean isMoveable(final int iX, final int iY) {
-        return (isSurrounding(iX) && isMoveable(iY)) || (isSurrounding(iY) && isMoveable(iX));
+    static final boolean isMoveable(final int iSize, final int iX, final int iY) {
+        return (isSurrounding(iSize, iX) && isMoveable(iSize, iY)) || (isSurrounding(iSize, iY) && isMoveable(iSize, iX));
     }
         
     /**
      * Returns true if the specified location falls on the outside bounds of
-     * the board.
+     * a board of the designated size.
      */
-    private static final boolean isSurrounding(final int iRowOrColumn) {
-        return iRowOrColumn == 0 || iRowOrColumn == 6;
+    private static final boolean isSurrounding(final int iSize, final int iRowOrColumn) {
+        return iRowOrColumn == 0 || iRowOrColumn == iSize - 1;
     }
     
     
     /**
      * Returns true if the specified position falls on the outside bounds of 
-     * the map.  This is the area reserved for wall insertion.
+     * a board of the designated size.  This is the area reserved for wall 
+     * insertion.
      */
-    static final boolean isSurrounding(final int iX, final int iY) {
-        return isSurrounding(iX) || isSurrounding(iY); 
+    static final boolean isSurrounding(final int iSize, final int iX, final int iY) {
+        return isSurrounding(iSize, iX) || isSurrounding(iSize, iY); 
     }
     
     
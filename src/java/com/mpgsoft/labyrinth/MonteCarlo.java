@@ -0,0 +1,575 @@
+//
+// $Id$
+
+package com.mpgsoft.labyrinth;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * This class selects the moves of an AI player by Monte Carlo tree search.
+ * Rather than searching every move a fixed number of turns ahead, as
+ * {@link Search} does, it plays out thousands of randomized turns from the
+ * position and grows a tree of the moves that looked most promising.  The
+ * moves are made with the {@link Moves} rules core, so the ghosts follow the
+ * same rules as in the search.
+ * <p>
+ * Each playout descends the tree, taking at each turn the move with the best
+ * upper confidence bound for the player holding it, until it reaches a move
+ * not yet tried.  That move is added to the tree and the playout continues
+ * with random moves until <code>PLAYOUT_ROUNDS</code> rounds of turns have
+ * been played.  The result, scored for every player, is added to each move
+ * along the way.  When a treasure is collected the next active treasure is
+ * picked at random, so the tree holds moves rather than positions.
+ * <p>
+ * The playouts are divided between several trees, each grown on it's own
+ * thread with it's own random number generator, and the visits of the first
+ * moves of every tree are summed to select the move.  The positions reached
+ * within a round of turns are remembered by their hash and the player
+ * holding the turn, so when the AI's next turn arrives at one of them the
+ * subtree that was grown below it is reused.  While the opponents take their
+ * turns the first tree can ponder, growing from their positions so that the
+ * AI's turn begins from a tree already grown.
+ * <p>
+ * An instance belongs to a single AI player of a single game and must only
+ * be used for one turn at a time.
+ *
+ * @author Jeffrey D. Hoffman
+ */
+final class MonteCarlo {
+
+    /**
+     * Static constant defining the number of trees grown in parallel when an
+     * executor is provided.
+     */
+    private static final int TREE_COUNT = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Static constant defining the number of rounds of turns, each player
+     * holding the turn once per round, that every playout lasts.
+     */
+    private static final int PLAYOUT_ROUNDS = 2;
+
+    /**
+     * Static constant weighing how much the moves tried least are favoured
+     * over the moves with the best results.
+     */
+    private static final double EXPLORATION = 1.0;
+
+    /**
+     * This is the player the moves are being selected for.
+     */
+    private final int miPlayer;
+
+    /**
+     * These are the trees, which are created for the first turn.
+     */
+    private Tree[] matTrees;
+
+    /**
+     * This is the rules core for the size of board being played, the copy
+     * of the position that moves were last selected from and it's regions.
+     */
+    private Moves mtMoves;
+    private Board mtBoard;
+    private Connectivity mtConnectivity;
+
+    /**
+     * These are the number of playouts made and the number of nanoseconds
+     * taken to select the last move.
+     */
+    private long mlPlayouts;
+    private long mlNanos;
+
+    /**
+     * Constructs the Monte Carlo tree search for the designated player.
+     */
+    MonteCarlo(final int iPlayer) {
+        miPlayer = iPlayer;
+    }
+
+    /**
+     * Plays out the turns following the provided position until the deadline
+     * (as given by <code>System.nanoTime()</code>) passes or each tree has been
+     * played out the designated number of times, and returns the move made
+     * most often.  Either limit may be zero, but not both.  The trees also stop
+     * growing once the provided turn, if any, is stopped.  The trees are grown
+     * on the provided executor, or a single tree is grown on the calling
+     * thread if it is null.  The number of playouts and the time they took are
+     * recorded with the {@link AIScheduler}.
+     */
+    final int selectMove(final Board tBoard, final Connectivity tConnectivity, final long lDeadline, final int iPlayouts, final Stoppable tTurn, final ExecutorService tExecutor) {
+        final long lStart = System.nanoTime();
+        setPosition(tBoard, tConnectivity);
+
+        // Start each tree from the position, reusing what it learned last turn
+        // or while pondering.
+        final int iTrees = (tExecutor == null) ? 1 : matTrees.length;
+        final List<Tree> tTrees = new ArrayList<Tree>(iTrees);
+        for (int iTree = 0; iTree < iTrees; ++iTree) {
+            final Tree tTree = matTrees[iTree];
+            tTree.prepare(mtBoard, mtConnectivity, miPlayer, lDeadline, iPlayouts, tTurn);
+            tTrees.add(tTree);
+        }
+
+        // Grow the trees.
+        if (iTrees == 1)
+            tTrees.get(0).call();
+        else {
+            try {
+                for (Future<Tree> tFuture : tExecutor.invokeAll(tTrees))
+                    tFuture.get();
+            } catch (InterruptedException tEx) {
+                throw new IllegalStateException("Interrupted while playing out.", tEx);
+            } catch (ExecutionException tEx) {
+                throw new IllegalStateException("Failed to play out.", tEx.getCause());
+            }
+        }
+
+        // Sum the visits of each first move.  Until any playout completes, the
+        // first move available is used.
+        final int[] aiVisits = new int[mtMoves.getMaximumMoves()];
+        long lPlayouts = 0;
+        for (Tree tTree : tTrees) {
+            tTree.addVisits(aiVisits);
+            lPlayouts += tTree.mlPlayouts;
+        }
+        int iBestMove = Moves.NO_MOVE;
+        for (int iMove = 0; iMove < aiVisits.length; ++iMove) {
+            if (aiVisits[iMove] > 0 && (iBestMove == Moves.NO_MOVE || aiVisits[iMove] > aiVisits[iBestMove]))
+                iBestMove = iMove;
+        }
+        if (iBestMove == Moves.NO_MOVE) {
+            final int[] aiMoves = new int[mtMoves.getMaximumMoves()];
+            mtMoves.generate(mtBoard, aiMoves);
+            iBestMove = aiMoves[0];
+        }
+
+        mlPlayouts = lPlayouts;
+        mlNanos = System.nanoTime() - lStart;
+        AIScheduler.recordPlayouts(mlPlayouts, mlNanos);
+
+        return iBestMove;
+    }
+
+    /**
+     * Plays out the turns following the provided position, in which the
+     * designated player holds the turn, on the calling thread until the
+     * provided ponder is stopped.  The first tree is grown from the position
+     * so that, once the opponents have moved, the next turn of the player the
+     * moves are being selected for can continue from what was found.
+     */
+    final void ponder(final Board tBoard, final Connectivity tConnectivity, final int iTurnHolder, final Ponder tPonder) {
+        setPosition(tBoard, tConnectivity);
+        final Tree tTree = matTrees[0];
+        tTree.prepare(mtBoard, mtConnectivity, iTurnHolder, 0, 0, tPonder);
+        tTree.call();
+    }
+
+    /**
+     * Returns the number of playouts made to select the last move.
+     */
+    final long getPlayouts() {
+        return mlPlayouts;
+    }
+
+    /**
+     * Returns the number of nanoseconds taken to select the last move.
+     */
+    final long getNanos() {
+        return mlNanos;
+    }
+
+    /**
+     * Returns the floating wall positioned and oriented for the designated move
+     * from the position the last move was selected from.
+     */
+    final Wall getShift(final int iMove) {
+        return mtMoves.getShift(mtBoard, iMove);
+    }
+
+    /**
+     * Returns the square the ghost of the player the moves are being selected
+     * for moves to after the designated move from the position the last move
+     * was selected from.
+     */
+    final Point getDestination(final int iMove) {
+        final Board tBoard = mtBoard.copy();
+        mtMoves.apply(mtBoard, mtConnectivity, tBoard, mtConnectivity.copy(tBoard), new DistanceField(), iMove, miPlayer);
+        return new Point(tBoard.getGhostX(miPlayer), tBoard.getGhostY(miPlayer));
+    }
+
+    /**
+     * Private method which keeps a copy of the provided position, so that the
+     * move can be described afterwards, creating the trees for the first one.
+     */
+    private final void setPosition(final Board tBoard, final Connectivity tConnectivity) {
+        if (mtMoves == null) {
+            mtMoves = new Moves(tBoard.width);
+            mtBoard = tBoard.copy();
+            mtConnectivity = tConnectivity.copy(mtBoard);
+            matTrees = new Tree[TREE_COUNT];
+            for (int iTree = 0; iTree < matTrees.length; ++iTree)
+                matTrees[iTree] = new Tree(mtMoves, mtBoard, mtConnectivity, new Random(31L * miPlayer + iTree));
+        }
+        mtBoard.copyFrom(tBoard);
+        mtConnectivity.copyFrom(tConnectivity);
+    }
+
+    /**
+     * This class is a move in a tree.  It holds the moves that can follow it
+     * along with the number of playouts that made it and the total of their
+     * results for the player that made it.
+     */
+    private static final class Node {
+
+        /**
+         * This is the move before this one, the move itself and the player
+         * that made it.  The first move of a tree has no parent.
+         */
+        private Node mtParent;
+        private final int miMove;
+        private final int miPlayer;
+
+        /**
+         * These are the moves that can follow this one, in random order, and
+         * how many of them have not yet been tried.  They are found when the
+         * move is first played through.
+         */
+        private int[] maiMoves;
+        private int miUntried;
+
+        /**
+         * These are the moves that have been tried and how many there are.
+         */
+        private Node[] matChildren;
+        private int miChildren;
+
+        /**
+         * These are the number of playouts that made this move and the total
+         * of their results.
+         */
+        private int miVisits;
+        private double mdReward;
+
+        /**
+         * This is the key of the position this move led to, combining it's hash
+         * with the player holding the next turn, when it was made within a
+         * round of turns of the first move.  A later search starting from one
+         * of these positions continues from the moves that follow it.
+         */
+        private long mlKey;
+
+        /**
+         * Constructs a move made by the designated player after the provided move.
+         */
+        Node(final Node tParent, final int iMove, final int iPlayer) {
+            mtParent = tParent;
+            miMove = iMove;
+            miPlayer = iPlayer;
+        }
+
+    }
+
+    /**
+     * This class is a tree grown on a single thread.  It has it's own boards
+     * to play out on and it's own random number generator so that trees never
+     * share anything while they are grown.
+     */
+    private static final class Tree implements Callable<Tree> {
+
+        /**
+         * This is the rules core, the number of players taking turns and the
+         * number of turns in a playout.
+         */
+        private final Moves mtMoves;
+        private final int miPlayers;
+        private final int miTurns;
+
+        /**
+         * This is the random number generator of the tree.
+         */
+        private final Random mtRandom;
+
+        /**
+         * These are the position being played out from and it's regions, and
+         * the two boards and regions that each playout alternates between.
+         */
+        private final Board mtRootBoard;
+        private final Connectivity mtRootConnectivity;
+        private final Board[] matBoards = new Board[2];
+        private final Connectivity[] matConnectivity = new Connectivity[2];
+
+        /**
+         * This is the field the ghosts' distances are found with.
+         */
+        private final DistanceField mtField = new DistanceField();
+
+        /**
+         * These are the moves available in a position reached by random moves,
+         * the treasures collected by each player during a playout and the
+         * result of the playout for each player.
+         */
+        private final int[] maiMoves;
+        private final int[] maiPoints;
+        private final double[] madRewards;
+
+        /**
+         * This is the first move of the tree, the player holding the turn when
+         * it is made, the positions where a later search may begin and the
+         * moves leading to each.
+         */
+        private Node mtRoot;
+        private int miRootTurn;
+        private Map<Long, Node> mtNextRoots = new HashMap<Long, Node>();
+
+        /**
+         * These are the deadline, the number of playouts to make, the ponder
+         * or turn the tree is being grown for and the number of playouts made.
+         */
+        private long mlDeadline;
+        private int miPlayouts;
+        private Stoppable mtStop;
+        private long mlPlayouts;
+
+        /**
+         * Constructs a tree on copies of the provided board and regions, using
+         * the provided random number generator.
+         */
+        Tree(final Moves tMoves, final Board tBoard, final Connectivity tConnectivity, final Random tRandom) {
+            mtMoves = tMoves;
+            miPlayers = tBoard.getGhostCount();
+            miTurns = PLAYOUT_ROUNDS * miPlayers;
+            mtRandom = tRandom;
+            mtRootBoard = tBoard.copy();
+            mtRootConnectivity = tConnectivity.copy(mtRootBoard);
+            for (int iBoard = 0; iBoard < matBoards.length; ++iBoard) {
+                matBoards[iBoard] = tBoard.copy();
+                matConnectivity[iBoard] = tConnectivity.copy(matBoards[iBoard]);
+            }
+            maiMoves = new int[tMoves.getMaximumMoves()];
+            maiPoints = new int[miPlayers];
+            madRewards = new double[miPlayers];
+        }
+
+        /**
+         * Starts the tree from the provided position, in which the designated
+         * player holds the turn.  If the position was reached by the last tree,
+         * the moves grown below it are kept.
+         */
+        final void prepare(final Board tBoard, final Connectivity tConnectivity, final int iTurnHolder, final long lDeadline, final int iPlayouts, final Stoppable tStop) {
+            mtRootBoard.copyFrom(tBoard);
+            mtRootConnectivity.copyFrom(tConnectivity);
+            final long lKey = tBoard.getHash() ^ Zobrist.getTurnHolderKey(iTurnHolder);
+            mtRoot = mtNextRoots.get(Long.valueOf(lKey));
+            if (mtRoot == null) {
+                mtRoot = new Node(null, Moves.NO_MOVE, -1);
+                mtRoot.mlKey = lKey;
+            } else
+                mtRoot.mtParent = null;
+            miRootTurn = iTurnHolder;
+            mtNextRoots = new HashMap<Long, Node>();
+            mlDeadline = lDeadline;
+            miPlayouts = iPlayouts;
+            mtStop = tStop;
+            mlPlayouts = 0;
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.concurrent.Callable#call()
+         */
+        public final Tree call() {
+            while ((miPlayouts == 0 || mlPlayouts < miPlayouts) && (mlDeadline == 0 || System.nanoTime() - mlDeadline < 0) &&
+                    (mtStop == null || !mtStop.isStopped())) {
+                playout();
+                ++mlPlayouts;
+            }
+            findNextRoots(mtRoot, 0);
+            return this;
+        }
+
+        /**
+         * Adds the number of playouts that made each of the first moves of the
+         * tree to the provided array, which is indexed by move.
+         */
+        final void addVisits(final int[] aiVisits) {
+            for (int iChild = 0; iChild < mtRoot.miChildren; ++iChild) {
+                final Node tChild = mtRoot.matChildren[iChild];
+                aiVisits[tChild.miMove] += tChild.miVisits;
+            }
+        }
+
+        /**
+         * Private method which plays out a single series of turns, adds a move
+         * to the tree and records the result along each of the moves made.
+         */
+        private final void playout() {
+            int iBoard = 0;
+            matBoards[iBoard].copyFrom(mtRootBoard);
+            matConnectivity[iBoard].copyFrom(mtRootConnectivity);
+            for (int iPlayer = 0; iPlayer < miPlayers; ++iPlayer)
+                maiPoints[iPlayer] = 0;
+
+            // Descend the tree until a move is added to it.
+            Node tNode = mtRoot;
+            int iTurn = miRootTurn;
+            int iTurns = 0;
+            boolean bOver = false;
+            while (iTurns < miTurns && !bOver) {
+                if (tNode.maiMoves == null)
+                    expand(tNode, matBoards[iBoard]);
+                final boolean bAdded = tNode.miUntried > 0;
+                final Node tChild;
+                if (bAdded) {
+                    tChild = new Node(tNode, tNode.maiMoves[--tNode.miUntried], iTurn);
+                    tNode.matChildren[tNode.miChildren++] = tChild;
+                } else
+                    tChild = select(tNode);
+
+                bOver = !play(iBoard, tChild.miMove, iTurn);
+                iBoard = 1 - iBoard;
+                iTurn = (iTurn + 1) % miPlayers;
+                tNode = tChild;
+                if (++iTurns <= miPlayers)
+                    tNode.mlKey = matBoards[iBoard].getHash() ^ Zobrist.getTurnHolderKey(iTurn);
+                if (bAdded)
+                    break;
+            }
+
+            // Continue with random moves.
+            while (iTurns < miTurns && !bOver) {
+                final int iCount = mtMoves.generate(matBoards[iBoard], maiMoves);
+                bOver = !play(iBoard, maiMoves[mtRandom.nextInt(iCount)], iTurn);
+                iBoard = 1 - iBoard;
+                iTurn = (iTurn + 1) % miPlayers;
+                ++iTurns;
+            }
+
+            // Record the result along each of the moves made.
+            score(matBoards[iBoard]);
+            for (; tNode != null; tNode = tNode.mtParent) {
+                ++tNode.miVisits;
+                if (tNode.miPlayer >= 0)
+                    tNode.mdReward += madRewards[tNode.miPlayer];
+            }
+        }
+
+        /**
+         * Private method which makes the designated move on the designated
+         * board, leaving the result on the other.  If a treasure is collected,
+         * the next is picked at random.  Returns false if the game is over.
+         */
+        private final boolean play(final int iBoard, final int iMove, final int iTurn) {
+            final Board tBoard = matBoards[1 - iBoard];
+            if (!mtMoves.apply(matBoards[iBoard], matConnectivity[iBoard], tBoard, matConnectivity[1 - iBoard], mtField, iMove, iTurn))
+                return true;
+            ++maiPoints[iTurn];
+
+            // Pick one of the remaining treasures.
+            int iRemaining = 0;
+            for (int iTreasure = 0; iTreasure < Treasure.TREASURE_COUNT; ++iTreasure) {
+                if (tBoard.getTreasureX(iTreasure) != Board.OFF_BOARD)
+                    ++iRemaining;
+            }
+            if (iRemaining == 0)
+                return false;
+            int iPick = mtRandom.nextInt(iRemaining);
+            for (int iTreasure = 0; iTreasure < Treasure.TREASURE_COUNT; ++iTreasure) {
+                if (tBoard.getTreasureX(iTreasure) != Board.OFF_BOARD && iPick-- == 0) {
+                    tBoard.setActiveTreasure(iTreasure);
+                    break;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Private method which finds the moves that can follow the provided
+         * move on the provided board, in random order.
+         */
+        private final void expand(final Node tNode, final Board tBoard) {
+            final int iCount = mtMoves.generate(tBoard, maiMoves);
+            for (int iIndex = iCount - 1; iIndex > 0; --iIndex) {
+                final int iSwap = mtRandom.nextInt(iIndex + 1);
+                final int iMove = maiMoves[iIndex];
+                maiMoves[iIndex] = maiMoves[iSwap];
+                maiMoves[iSwap] = iMove;
+            }
+            tNode.maiMoves = new int[iCount];
+            System.arraycopy(maiMoves, 0, tNode.maiMoves, 0, iCount);
+            tNode.miUntried = iCount;
+            tNode.matChildren = new Node[iCount];
+        }
+
+        /**
+         * Private method which returns the move following the provided move
+         * with the best upper confidence bound for the player making it.
+         */
+        private static final Node select(final Node tNode) {
+            final double dLog = Math.log(tNode.miVisits);
+            Node tBest = null;
+            double dBest = Double.NEGATIVE_INFINITY;
+            for (int iChild = 0; iChild < tNode.miChildren; ++iChild) {
+                final Node tChild = tNode.matChildren[iChild];
+                final double dBound = tChild.mdReward / tChild.miVisits + EXPLORATION * Math.sqrt(dLog / tChild.miVisits);
+                if (dBound > dBest) {
+                    dBest = dBound;
+                    tBest = tChild;
+                }
+            }
+            return tBest;
+        }
+
+        /**
+         * Private method which scores the result of a playout for each player
+         * between zero and one.  Collecting more treasures than every opponent
+         * counts for the most, followed by being closer to the active treasure
+         * than the closest opponent.
+         * @see DistanceField#getApproach(int, int)
+         */
+        private final void score(final Board tBoard) {
+            final int iTreasure = tBoard.getActiveTreasure();
+            final boolean bActive = iTreasure >= 0 && tBoard.getTreasureX(iTreasure) != Board.OFF_BOARD;
+            if (bActive)
+                mtField.compute(tBoard, tBoard.getTreasureX(iTreasure), tBoard.getTreasureY(iTreasure));
+            for (int iPlayer = 0; iPlayer < miPlayers; ++iPlayer) {
+                int iMostPoints = Integer.MIN_VALUE;
+                int iClosest = Integer.MAX_VALUE;
+                for (int iOpponent = 0; iOpponent < miPlayers; ++iOpponent) {
+                    if (iOpponent == iPlayer)
+                        continue;
+                    iMostPoints = Math.max(iMostPoints, maiPoints[iOpponent]);
+                    if (bActive)
+                        iClosest = Math.min(iClosest, mtField.getApproach(tBoard.getGhostX(iOpponent), tBoard.getGhostY(iOpponent)));
+                }
+                double dReward = 0.5 + 0.4 * (maiPoints[iPlayer] - iMostPoints);
+                if (bActive)
+                    dReward += 0.1 * (iClosest - mtField.getApproach(tBoard.getGhostX(iPlayer), tBoard.getGhostY(iPlayer))) / (3 * tBoard.width);
+                madRewards[iPlayer] = Math.max(0.0, Math.min(1.0, dReward));
+            }
+        }
+
+        /**
+         * Private method which remembers the provided move and each move within
+         * the first round of turns below it by the key of the position it led to.
+         */
+        private final void findNextRoots(final Node tNode, final int iTurns) {
+            if (tNode.mlKey != 0)
+                mtNextRoots.put(Long.valueOf(tNode.mlKey), tNode);
+            if (iTurns == miPlayers)
+                return;
+            for (int iChild = 0; iChild < tNode.miChildren; ++iChild)
+                findNextRoots(tNode.matChildren[iChild], iTurns + 1);
+        }
+
+    }
+
+}
@@ -0,0 +1,191 @@
+//
+// $Id$
+
+package com.mpgsoft.labyrinth;
+
+import com.threerings.util.DirectionCodes;
+
+/**
+ * This class is the rules core shared by the AI strategies.  It knows the
+ * moves that can be made on a board of a given size and how to make them
+ * without touching the game object: a move is a shift of the maze (an
+ * insertion point and a rotation of the floating wall) followed by the move
+ * of the ghost of the player holding the turn.  The ghost always takes the
+ * active treasure if it can reach it and otherwise moves to the reachable
+ * square closest to it, taking the fewest steps among squares equally close.
+ * <p>
+ * A move is <code>shift * ORIENTATIONS.length + rotation</code>.  Instances
+ * are never modified after construction and can be shared between threads.
+ *
+ * @author Jeffrey D. Hoffman
+ */
+final class Moves {
+
+    /**
+     * Static constant used when there is no move.
+     */
+    static final int NO_MOVE = -1;
+
+    /**
+     * This is a private array of the orientations the floating wall is
+     * inserted in.
+     */
+    private static final int[] ORIENTATIONS = new int[] {
+        DirectionCodes.NORTH, DirectionCodes.EAST, DirectionCodes.SOUTH, DirectionCodes.WEST
+    };
+
+    /**
+     * These are the shifts that can be made on the board along with the
+     * square from which the floating wall is inserted for each.
+     */
+    private final ShiftContext[] matShifts;
+    private final int[] maiShiftX;
+    private final int[] maiShiftY;
+
+    /**
+     * Constructs the moves of a board with the designated width and height.
+     */
+    Moves(final int iSize) {
+
+        // Find each of the shifts.  Every moveable row and column can be shifted
+        // from either end.
+        int iShifts = 0;
+        final ShiftContext[] atShifts = new ShiftContext[4 * iSize];
+        final int[] aiShiftX = new int[atShifts.length];
+        final int[] aiShiftY = new int[atShifts.length];
+        for (int iLane = 1; iLane < iSize - 1; ++iLane) {
+            if (!LabyrinthUtil.isMoveable(iSize, iLane))
+                continue;
+            final int[] aiX = new int[] { 0, iSize - 1, iLane, iLane };
+            final int[] aiY = new int[] { iLane, iLane, 0, iSize - 1 };
+            for (int iEnd = 0; iEnd < aiX.length; ++iEnd) {
+                atShifts[iShifts] = ShiftContext.createContext(iSize, -1, aiX[iEnd], aiY[iEnd]);
+                aiShiftX[iShifts] = aiX[iEnd];
+                aiShiftY[iShifts] = aiY[iEnd];
+                ++iShifts;
+            }
+        }
+        matShifts = new ShiftContext[iShifts];
+        maiShiftX = new int[iShifts];
+        maiShiftY = new int[iShifts];
+        System.arraycopy(atShifts, 0, matShifts, 0, iShifts);
+        System.arraycopy(aiShiftX, 0, maiShiftX, 0, iShifts);
+        System.arraycopy(aiShiftY, 0, maiShiftY, 0, iShifts);
+    }
+
+    /**
+     * Returns the greatest number of moves there can be in a position.
+     */
+    final int getMaximumMoves() {
+        return matShifts.length * ORIENTATIONS.length;
+    }
+
+    /**
+     * Fills the provided array with the moves available on the provided board
+     * and returns how many there are.  Shifts back into the origin of the
+     * floating wall are not allowed and rotations that give the same exits as
+     * an earlier rotation are skipped.
+     */
+    final int generate(final Board tBoard, final int[] aiMoves) {
+        final int iShape = tBoard.getShape(tBoard.getFloatingWall());
+        int iCount = 0;
+        for (int iShift = 0; iShift < matShifts.length; ++iShift) {
+            if (LabyrinthUtil.getLocation(tBoard.width, maiShiftX[iShift], maiShiftY[iShift]) == tBoard.getFloatingWallOrigin())
+                continue;
+            for (int iRotation = 0; iRotation < ORIENTATIONS.length; ++iRotation) {
+                if (!isDuplicateRotation(iShape, iRotation))
+                    aiMoves[iCount++] = iShift * ORIENTATIONS.length + iRotation;
+            }
+        }
+        return iCount;
+    }
+
+    /**
+     * Makes the designated move for the designated player on the first board,
+     * leaving the result on the second.  The regions of the first board are
+     * likewise copied to and updated on the second.  The provided
+     * <code>DistanceField</code> is recomputed for the ghost's position when
+     * it can not reach the treasure; each thread making moves needs it's own.
+     * Returns true if the player's ghost collected the active treasure, in
+     * which case there is no active treasure on the second board.
+     */
+    final boolean apply(final Board tFrom, final Connectivity tFromConnectivity, final Board tTo, final Connectivity tToConnectivity, final DistanceField tField, final int iMove, final int iPlayer) {
+        tTo.copyFrom(tFrom);
+        tToConnectivity.copyFrom(tFromConnectivity);
+
+        // Shift the maze.
+        final ShiftContext tShift = matShifts[iMove / ORIENTATIONS.length];
+        tTo.setFloatingOrientation(ORIENTATIONS[iMove % ORIENTATIONS.length]);
+        tShift.shift(tTo);
+        tToConnectivity.update(tShift);
+
+        // There is nowhere to move the ghost if there is no active treasure.
+        final int iTreasure = tTo.getActiveTreasure();
+        if (iTreasure < 0 || tTo.getTreasureX(iTreasure) == Board.OFF_BOARD)
+            return false;
+
+        // Collect the treasure if it can be reached.
+        final int iTreasureX = tTo.getTreasureX(iTreasure);
+        final int iTreasureY = tTo.getTreasureY(iTreasure);
+        if (tToConnectivity.canReach(iPlayer, iTreasureX, iTreasureY)) {
+            tTo.setGhost(iPlayer, iTreasureX, iTreasureY);
+            tTo.setTreasure(iTreasure, Board.OFF_BOARD, Board.OFF_BOARD);
+            tTo.setActiveTreasure(-1);
+            return true;
+        }
+
+        // Otherwise, move the ghost to the square it can reach that is closest to
+        // the treasure, taking the fewest steps to get there when several are
+        // equally close.
+        final int iGhostX = tTo.getGhostX(iPlayer);
+        final int iGhostY = tTo.getGhostY(iPlayer);
+        tField.compute(tTo, iGhostX, iGhostY);
+        int iClosestX = iGhostX;
+        int iClosestY = iGhostY;
+        int iClosestApproach = Math.abs(iGhostX - iTreasureX) + Math.abs(iGhostY - iTreasureY);
+        int iClosestDistance = 0;
+        for (int iY = 1; iY < tTo.height - 1; ++iY) {
+            for (int iX = 1; iX < tTo.width - 1; ++iX) {
+                final int iDistance = tField.getDistance(iX, iY);
+                if (iDistance == DistanceField.UNREACHABLE)
+                    continue;
+
+                final int iApproach = Math.abs(iX - iTreasureX) + Math.abs(iY - iTreasureY);
+                if (iApproach < iClosestApproach || (iApproach == iClosestApproach && iDistance < iClosestDistance)) {
+                    iClosestApproach = iApproach;
+                    iClosestDistance = iDistance;
+                    iClosestX = iX;
+                    iClosestY = iY;
+                }
+
+            }
+        }
+        tTo.setGhost(iPlayer, iClosestX, iClosestY);
+
+        return false;
+    }
+
+    /**
+     * Returns the floating wall of the provided board positioned and oriented
+     * for the designated move.
+     */
+    final Wall getShift(final Board tBoard, final int iMove) {
+        final int iShift = iMove / ORIENTATIONS.length;
+        final int iFloatingWall = tBoard.getFloatingWall();
+        return new Wall(iFloatingWall, maiShiftX[iShift], maiShiftY[iShift], tBoard.getShape(iFloatingWall), ORIENTATIONS[iMove % ORIENTATIONS.length]);
+    }
+
+    /**
+     * Private method which returns true if the designated rotation of a wall
+     * of the designated shape has the same exits as an earlier rotation.
+     */
+    private static final boolean isDuplicateRotation(final int iShape, final int iRotation) {
+        final int iExits = Wall.getExitMask(iShape, ORIENTATIONS[iRotation]);
+        for (int iEarlier = 0; iEarlier < iRotation; ++iEarlier) {
+            if (Wall.getExitMask(iShape, ORIENTATIONS[iEarlier]) == iExits)
+                return true;
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,177 @@
+//
+// $Id$
+
+package com.mpgsoft.labyrinth;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.threerings.presents.dobj.DSet;
+
+/**
+ * This class packs the pieces of a game into an array of bytes which is sent
+ * to the clients in place of the distributed sets of pieces, and unpacks them
+ * again.  Rather than an object for every piece, each square of the maze
+ * takes three bytes: the unique identity of it's wall followed by the shape
+ * of the wall in the high nibble and it's orientation in the low nibble.
+ * The floating wall is packed the same way followed by it's position and
+ * origin, then each ghost is two bytes of position and each treasure is two
+ * bytes of position and one for it's owner.  A position off the board packs
+ * as -1.
+ * <p>
+ * The pieces are packed after every change on the server and unpacked by a
+ * client when it enters the game, or when it's state has fallen out of step.
+ *
+ * @author Jeffrey D. Hoffman
+ */
+final class PackedBoard {
+
+    /**
+     * Static constant defining the version of the format, which is the first
+     * byte of every packed board.
+     */
+    private static final int FORMAT = 1;
+
+    /**
+     * Static constants defining the number of bytes in the header, which holds
+     * the format, the size of the board and the number of ghosts and
+     * treasures, and the number of bytes in each of the pieces.
+     */
+    private static final int HEADER_BYTES   = 4;
+    private static final int WALL_BYTES     = 3;
+    private static final int FLOATING_BYTES = WALL_BYTES + 4;
+    private static final int GHOST_BYTES    = 2;
+    private static final int TREASURE_BYTES = 3;
+
+    /**
+     * This class can not be instantiated.
+     */
+    private PackedBoard() { }
+
+    /**
+     * Package-private static method which returns the pieces of the provided
+     * game packed into an array of bytes.
+     */
+    static final byte[] pack(final LabyrinthObject tGameObject) {
+        final int iLast = tGameObject.board_size - 2;
+        final int iGhosts = tGameObject.ghosts.size();
+        final int iTreasures = tGameObject.treasures.size();
+        final byte[] abPacked = new byte[getLength(iLast, iGhosts, iTreasures)];
+
+        abPacked[0] = (byte) FORMAT;
+        abPacked[1] = (byte) tGameObject.board_size;
+        abPacked[2] = (byte) iGhosts;
+        abPacked[3] = (byte) iTreasures;
+
+        // Each wall is packed into the square it occupies.
+        for (Wall tWall : tGameObject.walls)
+            packWall(abPacked, HEADER_BYTES + ((tWall.y - 1) * iLast + tWall.x - 1) * WALL_BYTES, tWall);
+
+        // The floating wall follows the maze.
+        int iOffset = HEADER_BYTES + iLast * iLast * WALL_BYTES;
+        final Wall tFloatingWall = tGameObject.floating_wall;
+        packWall(abPacked, iOffset, tFloatingWall);
+        abPacked[iOffset + 3] = (byte) tFloatingWall.x;
+        abPacked[iOffset + 4] = (byte) tFloatingWall.y;
+        abPacked[iOffset + 5] = (byte) (tGameObject.floating_wall_origin >> 8);
+        abPacked[iOffset + 6] = (byte) tGameObject.floating_wall_origin;
+        iOffset += FLOATING_BYTES;
+
+        // The ghosts and treasures are packed in the order of their identities.
+        for (Ghost tGhost : tGameObject.ghosts) {
+            final int iGhost = iOffset + tGhost.unique_id * GHOST_BYTES;
+            abPacked[iGhost] = (byte) tGhost.x;
+            abPacked[iGhost + 1] = (byte) tGhost.y;
+        }
+        iOffset += iGhosts * GHOST_BYTES;
+        for (Treasure tTreasure : tGameObject.treasures) {
+            final int iTreasure = iOffset + tTreasure.unique_id * TREASURE_BYTES;
+            abPacked[iTreasure] = (byte) tTreasure.x;
+            abPacked[iTreasure + 1] = (byte) tTreasure.y;
+            abPacked[iTreasure + 2] = (byte) tTreasure.owner;
+        }
+
+        return abPacked;
+    }
+
+    /**
+     * Package-private static method which replaces the pieces of the provided
+     * game with those packed into the provided array.  The fields are set
+     * directly, without any events.  Returns false, leaving the game
+     * untouched, if the array is not in a format that is understood.
+     */
+    static final boolean unpack(final byte[] abPacked, final LabyrinthObject tGameObject) {
+
+        // Quick abort if the array is not what we expect.
+        if (abPacked == null || abPacked.length < HEADER_BYTES || abPacked[0] != FORMAT)
+            return false;
+        final int iSize = abPacked[1];
+        final int iLast = iSize - 2;
+        final int iGhosts = abPacked[2];
+        final int iTreasures = abPacked[3];
+        if (abPacked.length != getLength(iLast, iGhosts, iTreasures))
+            return false;
+
+        // Unpack the walls square by square.
+        final List<Wall> tWalls = new ArrayList<Wall>(iLast * iLast);
+        int iOffset = HEADER_BYTES;
+        for (int iY = 1; iY <= iLast; ++iY) {
+            for (int iX = 1; iX <= iLast; ++iX, iOffset += WALL_BYTES)
+                tWalls.add(unpackWall(abPacked, iOffset, iX, iY));
+        }
+
+        // Unpack the floating wall.
+        final Wall tFloatingWall = unpackWall(abPacked, iOffset, abPacked[iOffset + 3], abPacked[iOffset + 4]);
+        final int iFloatingWallOrigin = ((abPacked[iOffset + 5] & 0xff) << 8) | (abPacked[iOffset + 6] & 0xff);
+        iOffset += FLOATING_BYTES;
+
+        // Unpack the ghosts and the treasures.
+        final List<Ghost> tGhosts = new ArrayList<Ghost>(iGhosts);
+        for (int iGhost = 0; iGhost < iGhosts; ++iGhost, iOffset += GHOST_BYTES)
+            tGhosts.add(new Ghost(iGhost, new Point(abPacked[iOffset], abPacked[iOffset + 1])));
+        final List<Treasure> tTreasures = new ArrayList<Treasure>(iTreasures);
+        for (int iTreasure = 0; iTreasure < iTreasures; ++iTreasure, iOffset += TREASURE_BYTES) {
+            final Treasure tTreasure = new Treasure(iTreasure, new Point(abPacked[iOffset], abPacked[iOffset + 1]));
+            tTreasure.owner = abPacked[iOffset + 2];
+            tTreasures.add(tTreasure);
+        }
+
+        tGameObject.board_size = iSize;
+        tGameObject.walls = new DSet<Wall>(tWalls.iterator());
+        tGameObject.floating_wall = tFloatingWall;
+        tGameObject.floating_wall_origin = iFloatingWallOrigin;
+        tGameObject.ghosts = new DSet<Ghost>(tGhosts.iterator());
+        tGameObject.treasures = new DSet<Treasure>(tTreasures.iterator());
+        return true;
+    }
+
+    /**
+     * Private static method which returns the number of bytes in a packed
+     * board with the designated number of squares along each side of the
+     * maze, ghosts and treasures.
+     */
+    private static final int getLength(final int iLast, final int iGhosts, final int iTreasures) {
+        return HEADER_BYTES + iLast * iLast * WALL_BYTES + FLOATING_BYTES + iGhosts * GHOST_BYTES + iTreasures * TREASURE_BYTES;
+    }
+
+    /**
+     * Private static method which packs the identity, shape and orientation of
+     * the provided wall at the designated offset.
+     */
+    private static final void packWall(final byte[] abPacked, final int iOffset, final Wall tWall) {
+        abPacked[iOffset] = (byte) (tWall.unique_id >> 8);
+        abPacked[iOffset + 1] = (byte) tWall.unique_id;
+        abPacked[iOffset + 2] = (byte) ((tWall.shape << 4) | tWall.orientation);
+    }
+
+    /**
+     * Private static method which unpacks the wall at the designated offset
+     * and places it at the designated position.
+     */
+    private static final Wall unpackWall(final byte[] abPacked, final int iOffset, final int iX, final int iY) {
+        final int iUniqueID = ((abPacked[iOffset] & 0xff) << 8) | (abPacked[iOffset + 1] & 0xff);
+        return new Wall(iUniqueID, iX, iY, (abPacked[iOffset + 2] >> 4) & 0x0f, abPacked[iOffset + 2] & 0x0f);
+    }
+
+}
@@ -4,19 +4,17 @@
 package com.mpgsoft.labyrinth;
 
 import java.awt.Point;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.Set;
-
-import com.threerings.presents.dobj.DSet;
-import com.threerings.util.DirectionCodes;
 
 /**
  * This class provides pathfinding between two <code>Point</code>s within the
- * maze.  The factory method <code>findPath()</code> is the only way to construct
- * a new {@link Path} - if a path can be successfully resolved given the current
- * orientation of the walls in the maze.
+ * maze.  The factory methods <code>findPath()</code> and 
+ * <code>findShortestPath()</code> are the only way to construct a new 
+ * {@link Path} - if a path can be successfully resolved given the current
+ * orientation of the walls in the maze.  <code>findPath()</code> returns the 
+ * first path it comes across while <code>findShortestPath()</code> returns a
+ * path with the fewest possible steps.
  * <p>
  * It is fairly inexpensive to pathfind in the current maze so it is not necessary
  * to cache paths.  They can be requested as needed.
@@ -25,18 +23,6 @@ import com.threerings.util.DirectionCodes;
  */
 final class Path {
 
-    /**
-     * This is a private array of <code>Point</code> representing grid offsets 
-     * corresponding to the defined <code>DirectionCodes</code>.  Like  
-     */
-    private static final Point[] DIRECTION_OFFSETS = new Point[DirectionCodes.DIRECTION_COUNT];
-    static {
-        DIRECTION_OFFSETS[DirectionCodes.NORTH] = new Point(0, -1);
-        DIRECTION_OFFSETS[DirectionCodes.SOUTH] = new Point(0, 1);
-        DIRECTION_OFFSETS[DirectionCodes.WEST]  = new Point(-1, 0);
-        DIRECTION_OFFSETS[DirectionCodes.EAST]  = new Point(1, 0);
-    }                                                               
-    
     /**
      * This is the list of <code>Point</code>s through which this path passes.
      * It does not include the origin.
@@ -77,64 +63,115 @@ final class Path {
      * If passage is possible, a <code>Path</code> is created and returned.  Otherwise
      * null is returned indicating that it is not possible to reach that point.
      */
-    static final Path findPath(final DSet<Wall> tWalls, final Point tStart, final Point tDestination) {
+    static final Path findPath(final LabyrinthObject tGameObject, final Point tStart, final Point tDestination) {
+
+        // Pack the walls into a board so that each square can be looked up directly.
+        return findPath(Board.create(tGameObject), tStart, tDestination);
+    }
+
+    /**
+     * Static factory method that resolves a path between two <code>Point</code>s 
+     * within the provided {@link Board}.  If passage is possible, a <code>Path</code>
+     * is created and returned.  Otherwise null is returned.
+     */
+    static final Path findPath(final Board tBoard, final Point tStart, final Point tDestination) {
                 
         // Recursively find a path if possible.
-        return findPath(tWalls, tStart, tDestination, new HashSet<Point>());        
+        return findPath(tBoard, tStart, tDestination, new boolean[tBoard.width * tBoard.height]);        
+    }
+    
+    /**
+     * Static factory method that resolves the shortest path between two 
+     * <code>Point</code>s within the provided {@link Board}.  Null is returned
+     * if the destination can not be reached.
+     */
+    static final Path findShortestPath(final Board tBoard, final Point tStart, final Point tDestination) {
+
+        // Compute the distances from the start to every square.
+        final DistanceField tField = new DistanceField();
+        tField.compute(tBoard, tStart.x, tStart.y);
+
+        return findShortestPath(tField, tDestination.x, tDestination.y);
+    }
+
+    /**
+     * Static factory method that resolves the shortest path from the origin of
+     * an already computed {@link DistanceField} to the designated square.  This
+     * allows paths to any number of destinations to be resolved from a single
+     * search.  Null is returned if the destination can not be reached.
+     */
+    static final Path findShortestPath(final DistanceField tField, final int iX, final int iY) {
+
+        // Quick abort if the destination can not be reached.
+        int iDistance = tField.getDistance(iX, iY);
+        if (iDistance == DistanceField.UNREACHABLE)
+            return null;
+
+        // Walk backwards from the destination, always stepping to a neighbor that
+        // is one step closer to the origin, until we arrive at the origin.
+        final Board tBoard = tField.getBoard();
+        final Path tPath = new Path(new Point(iX, iY));
+        int iCurrentX = iX;
+        int iCurrentY = iY;
+        while (iDistance > 0) {
+            for (int iExit = 0; iExit < Board.EXIT_OFFSET_X.length; ++iExit) {
+                if (!tBoard.canMove(iCurrentX, iCurrentY, iExit))
+                    continue;
+
+                // Check to see if this neighbor is one step closer.
+                final int iNextX = iCurrentX + Board.EXIT_OFFSET_X[iExit];
+                final int iNextY = iCurrentY + Board.EXIT_OFFSET_Y[iExit];
+                if (tField.getDistance(iNextX, iNextY) == iDistance - 1) {
+                    iCurrentX = iNextX;
+                    iCurrentY = iNextY;
+                    break;
+                }
+
+            }
+
+            // Insert this waypoint.
+            tPath.mtPoints.addFirst(new Point(iCurrentX, iCurrentY));
+            --iDistance;
+
+        }
+
+        return tPath;
     }
     
     /**
      * This is the recursive pathfinding loop that, given a point, finds all possible
      * exits and explores those in an attempt to reach the destination.
      */
-    private static Path findPath(final DSet<Wall> tWalls, final Point tWayPoint, final Point tDestination, final Set<Point> tVisitedPoints) {
+    private static Path findPath(final Board tBoard, final Point tWayPoint, final Point tDestination, final boolean[] abVisitedPoints) {
         
-        // Quick abort if we have already visited this point or if this point 
-        // falls off of the board.
-        if (tVisitedPoints.contains(tWayPoint) || LabyrinthUtil.isSurrounding(tWayPoint.x, tWayPoint.y))
+        // Quick abort if this point falls off of the board or if we have already 
+        // visited this point.
+        if (!tBoard.isWithinMaze(tWayPoint.x, tWayPoint.y))
+            return null;
+        final int iIndex = tWayPoint.y * tBoard.width + tWayPoint.x;
+        if (abVisitedPoints[iIndex])
             return null;
         
         // Add this point to the list of visited points.
-        tVisitedPoints.add(tWayPoint);
+        abVisitedPoints[iIndex] = true;
         
         // If this is the destination point, we've reached the end and can create
         // a new path.
         if (tWayPoint.equals(tDestination))
             return new Path(tDestination);
             
-        // Otherwise, get the wall segment that is located at this position.  This should
-        // never return null seeing as we're legally on the board but it doesn't hurt to
-        // check.
-        final Wall tWall = getWall(tWalls, tWayPoint);
-        if (tWall == null)
-            return null;
-        
-        // This is the working point that will be used while processing directions.
-        final Point tWorkingPoint = new Point();
-        
-        // Get the list of exit directions from this position.  Step through each exit
-        // find the corresponding adject wall, check to see if it supports entry from
-        // that direction and recursively check for a path.
-        final int[] aiExits = tWall.getExits();
-        for (int iExit = 0; iExit < aiExits.length; ++iExit) {
-            final int iDirection = aiExits[iExit];
-            
-            // Update the working point based on the offset.
-            tWorkingPoint.x = tWayPoint.x + DIRECTION_OFFSETS[iDirection].x;
-            tWorkingPoint.y = tWayPoint.y + DIRECTION_OFFSETS[iDirection].y;
-            
-            // Get the wall that corresponds to this point.  It's possible for this
-            // new point to be off of the board so <code>getWall()</code> may return
-            // null.  In that case, skip this direction.  Alternatively, the wall
-            // may be oriented such that you can not enter it from this direction.
-            final Wall tNextWall = getWall(tWalls, tWorkingPoint);
-            if (tNextWall == null || !tNextWall.canBeEnteredFrom(iDirection))
+        // Step through each of the possible exits from this position, check to see
+        // if the adjacent wall supports entry from that direction and recursively
+        // check for a path.
+        for (int iExit = 0; iExit < Board.EXIT_OFFSET_X.length; ++iExit) {
+            if (!tBoard.canMove(tWayPoint.x, tWayPoint.y, iExit))
                 continue;
-            
+
             // Explore in this direction.  If this returns a <code>Path</code> (indicating
             // that the destination is reachable in this direction) insert <i>this</i> 
             // waypoint at the beginning of the path and return it.
-            final Path tPath = findPath(tWalls, tWorkingPoint, tDestination, tVisitedPoints);
+            final Point tNextPoint = new Point(tWayPoint.x + Board.EXIT_OFFSET_X[iExit], tWayPoint.y + Board.EXIT_OFFSET_Y[iExit]);
+            final Path tPath = findPath(tBoard, tNextPoint, tDestination, abVisitedPoints);
             if (tPath != null) {
                 
                 // Insert this waypoint.
@@ -151,27 +188,6 @@ final class Path {
         return null;
     }
     
-    /**
-     * This is a private method which scans the list of <code>Wall</code> objects to
-     * find the one at a given point.
-     */
-    private static final Wall getWall(final DSet<Wall> tWalls, final Point tPoint) {
-        
-        // Verify that the point being requested is within bounds.
-        if (!LabyrinthUtil.isSurrounding(tPoint.x, tPoint.y)) {
-        
-            // Iterate through the walls until we find the one that matches this point.
-            for (Wall tWall : tWalls) {
-                if (tWall.x == tPoint.x && tWall.y == tPoint.y)
-                    return tWall;
-            }
-            
-        }
-        
-        // No wall matches this point.
-        return null;
-    }
-    
     /**
      * Returns the size of the path.
      */
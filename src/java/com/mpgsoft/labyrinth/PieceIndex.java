@@ -0,0 +1,123 @@
+//
+// $Id$
+
+package com.mpgsoft.labyrinth;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.threerings.presents.dobj.DSet;
+
+/**
+ * This class indexes the pieces of a distributed set by the row and column
+ * of the maze they occupy so that a shift only has to look at the pieces in
+ * it's own row or column rather than every piece in the set.  Pieces outside
+ * the maze, such as collected treasures, are not indexed.
+ * <p>
+ * The index is kept up to date by {@link ShiftContext} as it shifts the
+ * pieces.  Any other change to the set, or to the positions of it's pieces,
+ * requires a new index.
+ *
+ * @author Jeffrey D. Hoffman
+ */
+final class PieceIndex<T extends Piece> {
+
+    /**
+     * This is the set of pieces that is indexed.
+     */
+    private DSet<T> mtPieces;
+
+    /**
+     * These are the pieces in each row and column of the maze, indexed by
+     * their y- and x-positions respectively.
+     */
+    private final List<List<T>> mtRows;
+    private final List<List<T>> mtColumns;
+
+    /**
+     * This is the last square within the maze in either direction.
+     */
+    private final int miLast;
+
+    /**
+     * Constructs an index of the provided pieces on a board of the designated
+     * size.
+     */
+    PieceIndex(final DSet<T> tPieces, final int iSize) {
+        mtPieces = tPieces;
+        miLast = iSize - 2;
+        mtRows = createLanes(iSize);
+        mtColumns = createLanes(iSize);
+        for (T tPiece : tPieces)
+            add(tPiece);
+    }
+
+    /**
+     * Returns true if this is an index of the provided set.
+     */
+    final boolean indexes(final DSet<T> tPieces) {
+        return mtPieces == tPieces;
+    }
+
+    /**
+     * Moves the index over to the provided set, which must hold the same
+     * pieces as the one that was indexed.  This is used when a set is rebuilt
+     * around the pieces it already held.
+     */
+    final void setPieces(final DSet<T> tPieces) {
+        mtPieces = tPieces;
+    }
+
+    /**
+     * Returns the pieces in the row (for a <code>HORIZONTAL</code> orientation)
+     * or column (for a <code>VERTICAL</code> orientation) at the designated
+     * location.  The list belongs to the index and must not be modified.
+     */
+    final List<T> getLane(final int iOrientation, final int iLocation) {
+        return ((iOrientation == ShiftContext.HORIZONTAL) ? mtRows : mtColumns).get(iLocation);
+    }
+
+    /**
+     * Adds the provided piece to the row and column it occupies, if it is
+     * within the maze.
+     */
+    final void add(final T tPiece) {
+        if (isInMaze(tPiece.x, tPiece.y)) {
+            mtRows.get(tPiece.y).add(tPiece);
+            mtColumns.get(tPiece.x).add(tPiece);
+        }
+    }
+
+    /**
+     * Moves the provided piece, which has already been moved on the board, out
+     * of the row and column at the designated position and into those it now
+     * occupies.
+     */
+    final void move(final T tPiece, final int iFromX, final int iFromY) {
+        if (isInMaze(iFromX, iFromY)) {
+            mtRows.get(iFromY).remove(tPiece);
+            mtColumns.get(iFromX).remove(tPiece);
+        }
+        add(tPiece);
+    }
+
+    /**
+     * Private method which returns true if the designated position is within
+     * the maze.
+     */
+    private final boolean isInMaze(final int iX, final int iY) {
+        return iX >= 1 && iX <= miLast && iY >= 1 && iY <= miLast;
+    }
+
+    /**
+     * Private static method which creates an empty list of pieces for every
+     * row or column of a board of the designated size.
+     */
+    private static final <T extends Piece> List<List<T>> createLanes(final int iSize) {
+        final List<List<T>> tLanes = new ArrayList<List<T>>(iSize);
+        for (int iLane = 0; iLane < iSize; ++iLane)
+            tLanes.add(new ArrayList<T>(iSize));
+        return tLanes;
+    }
+
+}
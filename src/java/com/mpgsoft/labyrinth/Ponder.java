@@ -0,0 +1,130 @@
+//
+// $Id$
+
+package com.mpgsoft.labyrinth;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class is an AI player thinking about the position while another
+ * player holds the turn.  It runs on the {@link AIScheduler}'s ponder
+ * threads, which only have the capacity left over by the turns being
+ * searched: a ponder is paused whenever a turn is being searched and
+ * resumed once none are, and it is cancelled when the turn it was started
+ * for ends.
+ * <p>
+ * What the AI player learns is kept in it's {@link AIPlayer} and reused
+ * when it's own turn begins from a position that was pondered.
+ *
+ * @author Jeffrey D. Hoffman
+ */
+final class Ponder implements Runnable, Stoppable {
+
+    /**
+     * This is the AI player that is pondering, the snapshot of the position
+     * being pondered and the player holding the turn in it.
+     */
+    private final AIPlayer mtAIPlayer;
+    private final Snapshot mtSnapshot;
+    private final int miTurnHolder;
+
+    /**
+     * This is set once the turn being pondered has ended.
+     */
+    private volatile boolean mbCancelled;
+
+    /**
+     * This is set while the ponder is paused to make way for a search.
+     */
+    private final AtomicBoolean mtPaused = new AtomicBoolean();
+
+    /**
+     * This is set while the ponder is running on a ponder thread.
+     */
+    private final AtomicBoolean mtRunning = new AtomicBoolean();
+
+    /**
+     * This is set when the ponder is asked to run and cleared once a run has
+     * started.
+     */
+    private final AtomicBoolean mtRequested = new AtomicBoolean();
+
+    /**
+     * Constructs a ponder of the position held by the provided snapshot, in
+     * which the designated player holds the turn, by the provided AI player.
+     */
+    Ponder(final AIPlayer tAIPlayer, final Snapshot tSnapshot, final int iTurnHolder) {
+        mtAIPlayer = tAIPlayer;
+        mtSnapshot = tSnapshot;
+        miTurnHolder = iTurnHolder;
+    }
+
+    /* (non-Javadoc)
+     * The ponder stops once it has been cancelled or paused.  This is polled
+     * by the AI player while it ponders.
+     * @see com.mpgsoft.labyrinth.Stoppable#isStopped()
+     */
+    public final boolean isStopped() {
+        return mbCancelled || mtPaused.get();
+    }
+
+    /**
+     * Cancels the ponder for good.
+     */
+    final void cancel() {
+        mbCancelled = true;
+    }
+
+    /**
+     * Pauses the ponder until it is resumed.
+     */
+    final void pause() {
+        mtPaused.set(true);
+    }
+
+    /**
+     * Resumes the ponder and returns true if it was paused and has not been
+     * cancelled, in which case it must be run again.
+     */
+    final boolean resume() {
+        return mtPaused.compareAndSet(true, false) && !mbCancelled;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Runnable#run()
+     */
+    public final void run() {
+
+        // A ponder that was paused and resumed before it noticed is still running.
+        // The run that is still unwinding sees the request once it is done and
+        // runs again, so the ponder is never lost for the rest of the turn.
+        mtRequested.set(true);
+        while (mtRequested.get() && mtRunning.compareAndSet(false, true)) {
+            try {
+                mtRequested.set(false);
+                ponder();
+            } finally {
+                mtRunning.set(false);
+            }
+        }
+    }
+
+    /**
+     * Private method which ponders the position until the ponder is stopped.
+     */
+    private final void ponder() {
+        try {
+            final long lStart = System.nanoTime();
+            synchronized (mtAIPlayer) {
+                if (isStopped())
+                    return;
+                final Board tBoard = mtSnapshot.copyBoard();
+                mtAIPlayer.ponder(tBoard, mtSnapshot.copyConnectivity(tBoard), miTurnHolder, this);
+            }
+            AIScheduler.recordPonder(System.nanoTime() - lStart);
+        } catch (RuntimeException tEx) {
+            System.err.println("AI ponder failed [turnHolder=" + miTurnHolder + ", error=" + tEx + "].");
+        }
+    }
+
+}
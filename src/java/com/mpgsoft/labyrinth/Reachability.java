@@ -0,0 +1,126 @@
+//
+// $Id$
+
+package com.mpgsoft.labyrinth;
+
+import java.util.Arrays;
+
+/**
+ * This class answers whether one square of the maze can be reached from
+ * another.  A set of squares is represented as a mask holding one
+ * <code>long</code> per row of the board in which bit <code>x</code> stands
+ * for the square in column <code>x</code>.  The region reachable from a
+ * square is computed by repeatedly spreading the mask one step in each
+ * direction (a shift within a row or a copy into the next row) restricted
+ * to the squares with a passage in that direction until it stops growing.
+ * <p>
+ * Masks are provided by the caller so they can be reused for as many
+ * queries as needed without allocating.
+ *
+ * @author Jeffrey D. Hoffman
+ */
+final class Reachability {
+
+    /**
+     * This class can not be instantiated.
+     */
+    private Reachability() { }
+
+    /**
+     * Returns a new, empty mask large enough for the provided board.
+     */
+    static final long[] createMask(final Board tBoard) {
+        return new long[tBoard.height];
+    }
+
+    /**
+     * Fills the provided mask with the squares that can be reached from the
+     * designated square, including the square itself.  The mask is left empty
+     * if the square is not within the maze.  The mask is returned.
+     */
+    static final long[] getReachable(final Board tBoard, final int iX, final int iY, final long[] alMask) {
+        Arrays.fill(alMask, 0, tBoard.height, 0);
+
+        // Quick abort if the starting point is not within the maze.
+        if (!tBoard.isWithinMaze(iX, iY))
+            return alMask;
+
+        alMask[iY] = 1L << iX;
+        spread(tBoard, alMask);
+        return alMask;
+    }
+
+    /**
+     * Adds every square that can be reached from the squares already in the
+     * provided mask to it.
+     */
+    static final void spread(final Board tBoard, final long[] alMask) {
+
+        // Squares on the edge of the maze never have a move leading off of it, so
+        // a mask never spreads into the area surrounding the maze.
+        final int iLast = tBoard.height - 2;
+        boolean bChanged;
+        do {
+            bChanged = false;
+
+            // Sweep down the rows.  A step south is picked up by the next row in the
+            // same sweep while a step north needs another sweep.
+            for (int iY = 1; iY <= iLast; ++iY) {
+                long lRow = alMask[iY];
+                if (lRow == 0)
+                    continue;
+
+                // Spread east and west along the row until it stops growing.
+                final long lEast = tBoard.getMoves(1, iY);
+                final long lWest = tBoard.getMoves(3, iY);
+                long lGrown = lRow | ((lRow & lEast) << 1) | ((lRow & lWest) >>> 1);
+                while (lGrown != lRow) {
+                    lRow = lGrown;
+                    lGrown = lRow | ((lRow & lEast) << 1) | ((lRow & lWest) >>> 1);
+                }
+                alMask[iY] = lRow;
+
+                // Step into the next row down.
+                final long lSouth = lRow & tBoard.getMoves(2, iY);
+                if ((lSouth & ~alMask[iY + 1]) != 0)
+                    alMask[iY + 1] |= lSouth;
+
+                // Step into the previous row up.  It has already been swept so another
+                // sweep is needed.
+                final long lNorth = lRow & tBoard.getMoves(0, iY);
+                if ((lNorth & ~alMask[iY - 1]) != 0) {
+                    alMask[iY - 1] |= lNorth;
+                    bChanged = true;
+                }
+
+            }
+
+        } while (bChanged);
+    }
+
+    /**
+     * Returns true if the designated square is in the provided mask of squares.
+     */
+    static final boolean contains(final long[] alMask, final int iX, final int iY) {
+        return iY >= 0 && iY < alMask.length && iX >= 0 && iX < Long.SIZE && (alMask[iY] & (1L << iX)) != 0;
+    }
+
+    /**
+     * Returns the number of squares in the provided mask.
+     */
+    static final int count(final long[] alMask) {
+        int iCount = 0;
+        for (int iY = 0; iY < alMask.length; ++iY)
+            iCount += Long.bitCount(alMask[iY]);
+        return iCount;
+    }
+
+    /**
+     * Returns true if a ghost can travel from the first square to the second.
+     * This allocates a mask so it is meant for one-off queries.
+     */
+    static final boolean canReach(final Board tBoard, final int iFromX, final int iFromY, final int iToX, final int iToY) {
+        return contains(getReachable(tBoard, iFromX, iFromY, createMask(tBoard)), iToX, iToY);
+    }
+
+}
@@ -0,0 +1,175 @@
+//
+// $Id$
+
+package com.mpgsoft.labyrinth;
+
+import java.awt.Point;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.threerings.util.DirectionCodes;
+import com.threerings.util.Name;
+
+/**
+ * This class checks that a shift replayed on a game object, as every client
+ * replays the <code>SHIFT_APPLIED</code> messages, ends up in the same state
+ * as the same shift made on the authoritative {@link Board}.  Random games
+ * are built by {@link StartingBoard} and shifted at random; after every
+ * shift the wall pushed out of the maze and the hash of the board must
+ * match, and the pieces must survive being packed and unpacked by
+ * {@link PackedBoard}.  Between shifts a ghost is moved at random, and the
+ * whole game is recorded in a {@link Journal} which must load back into the
+ * same position.  Run it with <code>ant replaycheck</code>.
+ *
+ * @author Jeffrey D. Hoffman
+ */
+public final class ReplayCheck {
+
+    /**
+     * Static constants defining the sizes of the boards checked, the number of
+     * games on each and the number of shifts made in each game.
+     */
+    private static final int[] SIZES = new int[] { 7, 9, 15 };
+    private static final int GAMES = 50;
+    private static final int SHIFTS = 40;
+
+    /**
+     * Static constant defining the number of ghosts on each board.
+     */
+    private static final int PLAYERS = 4;
+
+    /**
+     * Static constant defining the orientations the floating wall is inserted
+     * with.
+     */
+    private static final int[] ORIENTATIONS = new int[] {
+        DirectionCodes.NORTH, DirectionCodes.EAST, DirectionCodes.SOUTH, DirectionCodes.WEST
+    };
+
+    /**
+     * This class can not be instantiated.
+     */
+    private ReplayCheck() { }
+
+    /**
+     * Replays the shifts of every game and exits with a non-zero status if any
+     * of them did not match.
+     */
+    public static final void main(final String[] asArgs) throws IOException, InterruptedException {
+        int iShifts = 0;
+        int iMismatches = 0;
+        for (int iSize : SIZES) {
+            for (int iGame = 0; iGame < GAMES; ++iGame) {
+                iShifts += SHIFTS;
+                if (!checkGame(iSize, new Random(iGame))) {
+                    System.err.println("Replay does not match [size=" + iSize + ", game=" + iGame + "].");
+                    ++iMismatches;
+                }
+            }
+        }
+
+        System.out.println("Replayed " + iShifts + " shifts, " + iMismatches + " games did not match.");
+        if (iMismatches > 0)
+            System.exit(1);
+    }
+
+    /**
+     * Private static method which builds a game of the designated size, makes
+     * random shifts and ghost moves on both the board and the game object,
+     * recording them in a journal, and returns true if they stayed in step
+     * and the journal loads back into the same position.
+     */
+    private static final boolean checkGame(final int iSize, final Random tRandom) throws IOException, InterruptedException {
+        final StartingBoard tStartingBoard = new StartingBoard(iSize, PLAYERS, tRandom);
+        final Board tBoard = tStartingBoard.board;
+        final LabyrinthObject tGameObject = new LabyrinthObject();
+        tGameObject.players = new Name[PLAYERS];
+        tStartingBoard.populate(tGameObject);
+
+        final File tFile = File.createTempFile("labyrinth-", ".journal");
+        tFile.deleteOnExit();
+        final Journal tJournal = Journal.create(tFile);
+        tJournal.recordStart(tGameObject);
+
+        // Seek the first treasure so that it is part of the position as well.
+        tBoard.setActiveTreasure(0);
+        tGameObject.active_treasure = 0;
+        if (!isInStep(tBoard, tGameObject))
+            return false;
+
+        for (int iShift = 0; iShift < SHIFTS; ++iShift) {
+            final int iPlayer = iShift % PLAYERS;
+            tJournal.recordTurn(iPlayer, 0);
+
+            // Pick one of the shifts that can be made and an orientation.
+            final List<Point> tShifts = new ArrayList<Point>();
+            for (int iY = 0; iY < iSize; ++iY) {
+                for (int iX = 0; iX < iSize; ++iX) {
+                    if (ShiftContext.createContext(tBoard, iX, iY) != null && ShiftContext.createContext(tGameObject, iX, iY) != null)
+                        tShifts.add(new Point(iX, iY));
+                }
+            }
+            final Point tPoint = tShifts.get(tRandom.nextInt(tShifts.size()));
+            final ShiftContext tShift = ShiftContext.createContext(tBoard, tPoint.x, tPoint.y);
+            final int iOrientation = ORIENTATIONS[tRandom.nextInt(ORIENTATIONS.length)];
+            final Wall tFloatingWall = tGameObject.floating_wall;
+            tJournal.recordWall(iPlayer, new Wall(tFloatingWall.unique_id, tPoint.x, tPoint.y, tFloatingWall.shape, iOrientation));
+
+            // Make the shift on the board, then replay it on the game object.
+            tBoard.setFloatingOrientation(iOrientation);
+            final int iEjectedWall = tShift.shift(tBoard);
+            final Wall tEjectedWall = tGameObject.applyShift(tShift, iOrientation);
+            if (tEjectedWall == null || tEjectedWall.unique_id != iEjectedWall || !isInStep(tBoard, tGameObject))
+                return false;
+
+            // Move the player's ghost to one of the squares it can reach, other
+            // than the treasure which would be picked up.
+            final long[] alReachable = Reachability.getReachable(tBoard, tBoard.getGhostX(iPlayer), tBoard.getGhostY(iPlayer), Reachability.createMask(tBoard));
+            final List<Point> tDestinations = new ArrayList<Point>();
+            for (int iY = 1; iY < iSize - 1; ++iY) {
+                for (int iX = 1; iX < iSize - 1; ++iX) {
+                    if (Reachability.contains(alReachable, iX, iY) && (iX != tBoard.getTreasureX(0) || iY != tBoard.getTreasureY(0)))
+                        tDestinations.add(new Point(iX, iY));
+                }
+            }
+            if (tDestinations.isEmpty())
+                continue;
+            final Point tDestination = tDestinations.get(tRandom.nextInt(tDestinations.size()));
+            tBoard.setGhost(iPlayer, tDestination.x, tDestination.y);
+            final Ghost tGhost = tGameObject.ghosts.get(iPlayer);
+            tGhost.x = tDestination.x;
+            tGhost.y = tDestination.y;
+            tGameObject.reindex(LabyrinthObject.GHOSTS);
+            tJournal.recordGhost(iPlayer, tDestination.x, tDestination.y);
+            if (!isInStep(tBoard, tGameObject))
+                return false;
+
+        }
+
+        // The journal must load back into the position reached.
+        tJournal.close();
+        tJournal.awaitClose();
+        final LabyrinthObject tLoaded = Journal.load(tFile);
+        tFile.delete();
+        return tLoaded != null && Board.create(tLoaded).getHash() == tBoard.getHash();
+    }
+
+    /**
+     * Private static method which returns true if the provided game object
+     * holds the same position as the provided board, both as it stands and
+     * once it's pieces have been packed and unpacked.
+     */
+    private static final boolean isInStep(final Board tBoard, final LabyrinthObject tGameObject) {
+        if (Board.create(tGameObject).getHash() != tBoard.getHash())
+            return false;
+
+        final LabyrinthObject tUnpacked = new LabyrinthObject();
+        tUnpacked.players = tGameObject.players;
+        tUnpacked.active_treasure = tGameObject.active_treasure;
+        return PackedBoard.unpack(PackedBoard.pack(tGameObject), tUnpacked) && Board.create(tUnpacked).getHash() == tBoard.getHash();
+    }
+
+}
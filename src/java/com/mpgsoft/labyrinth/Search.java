@@ -0,0 +1,567 @@
+//
+// $Id$
+
+package com.mpgsoft.labyrinth;
+
+import java.awt.Point;
+import java.util.Arrays;
+
+/**
+ * This class searches the turns ahead of a position for the AI.  Each turn
+ * is a shift of the maze (an insertion point and a rotation of the floating
+ * wall) followed by the move of the ghost of the player holding the turn.
+ * The ghost always takes the active treasure if it can reach it and otherwise
+ * moves to the reachable square closest to it, so only the shifts are
+ * branched on.
+ * <p>
+ * The AI maximizes the value of the position while each opponent is assumed
+ * to minimize it.  When a treasure is collected the next active treasure is
+ * picked at random, so the value of that turn is the average over each of
+ * the treasures remaining.  The turns of the players are searched with
+ * alpha-beta pruning; moves are ordered by the value of the position they
+ * lead to and the best move found in a previous visit is tried first.  The
+ * values of positions already searched are kept in a transposition table
+ * keyed by the hash of the board and the player holding the turn.  The
+ * copies of a search share it's table so that the moves of a position can be
+ * divided between threads without each starting from nothing.
+ * <p>
+ * A position is valued at <code>POINT_VALUE</code> for each treasure the AI
+ * collects, less the same for each treasure an opponent collects, plus how
+ * much closer the AI's ghost is to the active treasure than the closest
+ * opponent, measured in steps by a {@link DistanceField} from the treasure.
+ * The boards and regions of each ply are allocated up front so that the
+ * search itself does not allocate.
+ * <p>
+ * A search can be given a deadline after which it is abandoned.  Searching
+ * one turn deeper at a time until the deadline passes gives the best move
+ * that can be found in the time available.
+ * <p>
+ * While the opponents take their turns, a search kept between turns can
+ * ponder the position so that it's transposition table already holds the
+ * positions that may follow when the turn comes around.
+ *
+ * @author Jeffrey D. Hoffman
+ */
+final class Search {
+
+    /**
+     * Static constant defining the value of collecting a treasure.
+     */
+    static final int POINT_VALUE = 1000;
+
+    /**
+     * Static constant defining a value greater than that of any position.
+     * It leaves room for adding the points collected along the way.
+     */
+    static final int INFINITY = Integer.MAX_VALUE / 2;
+
+    /**
+     * Static constant used when there is no move.
+     */
+    static final int NO_MOVE = Moves.NO_MOVE;
+
+    /**
+     * Private static constants defining the size of the transposition table,
+     * which must be a power of two, and the kinds of value held in it.
+     */
+    private static final int TABLE_SIZE  = 1 << 15;
+    private static final byte EXACT       = 0;
+    private static final byte LOWER_BOUND = 1;
+    private static final byte UPPER_BOUND = 2;
+
+    /**
+     * Private static constants defining the masks of the bits the best move,
+     * and the depth and kind of value, are packed into in an entry of the
+     * transposition table.
+     */
+    private static final long MOVE_MASK = 0xFFFFL;
+    private static final long BYTE_MASK = 0xFFL;
+
+    /**
+     * Private static constant defining how often the deadline is checked.  It is
+     * checked each time the number of positions visited is a multiple of this
+     * mask plus one.
+     */
+    private static final int DEADLINE_MASK = 0xFF;
+
+    /**
+     * This is the player the search is being made for and the number of
+     * players taking turns.
+     */
+    private final int miPlayer;
+    private final int miPlayers;
+
+    /**
+     * This is the deepest number of turns that can be searched.
+     */
+    private final int miMaxDepth;
+
+    /**
+     * These are the moves that can be made on the board.
+     */
+    private final Moves mtMoves;
+
+    /**
+     * These are the board and it's regions at each ply of the search.  The
+     * first holds the position being searched.
+     */
+    private final Board[] matBoards;
+    private final Connectivity[] matConnectivity;
+
+    /**
+     * This is the field the ghosts' distances are found with, whether moving
+     * a ghost or valuing a position.
+     */
+    private final DistanceField mtField = new DistanceField();
+
+    /**
+     * These are the moves available at each ply and the keys they are
+     * ordered by.
+     */
+    private final int[][] maaiMoves;
+    private final int[][] maaiOrder;
+
+    /**
+     * This is the transposition table, which is shared with the copies of the
+     * search.  Each entry packs the value of the position into the lowest 32
+     * bits, followed by 16 bits for the best move found and 8 bits each for
+     * the depth it was searched to and the kind of value.  The key of the position is kept
+     * XORed with the entry, so that an entry being written by another thread
+     * at the same time, and so torn, is never taken as a match.
+     */
+    private final long[] malTableKeys;
+    private final long[] malTableEntries;
+
+    /**
+     * This is the number of positions visited and the value of the best move
+     * found by the last search.
+     */
+    private long mlNodes;
+    private int miBestValue;
+
+    /**
+     * This is the time, as given by <code>System.nanoTime()</code>, after which
+     * the search is abandoned or zero if there is none.  Once it has passed,
+     * the search is aborted and the value of every position is meaningless.
+     */
+    private long mlDeadline;
+    private boolean mbAborted;
+
+    /**
+     * This is the ponder or turn the search is being made for, which abandons
+     * the search when it is stopped, or null if nothing can stop it.
+     */
+    private Stoppable mtStop;
+
+    /**
+     * Constructs a search of the provided position for the designated player
+     * that can look up to the designated number of turns ahead.  The board
+     * and regions are copied so they are not modified by the search.
+     */
+    Search(final Board tBoard, final Connectivity tConnectivity, final int iPlayer, final int iMaxDepth) {
+        miPlayer = iPlayer;
+        miPlayers = tBoard.getGhostCount();
+        miMaxDepth = iMaxDepth;
+
+        mtMoves = new Moves(tBoard.width);
+        malTableKeys = new long[TABLE_SIZE];
+        malTableEntries = new long[TABLE_SIZE];
+
+        // Allocate the boards, regions and moves of each ply.
+        matBoards = new Board[iMaxDepth + 1];
+        matConnectivity = new Connectivity[iMaxDepth + 1];
+        maaiMoves = new int[iMaxDepth + 1][mtMoves.getMaximumMoves()];
+        maaiOrder = new int[iMaxDepth + 1][mtMoves.getMaximumMoves()];
+        matBoards[0] = tBoard.copy();
+        matConnectivity[0] = tConnectivity.copy(matBoards[0]);
+        for (int iPly = 1; iPly <= iMaxDepth; ++iPly) {
+            matBoards[iPly] = new Board(tBoard.width, tBoard.height, miPlayers);
+            matConnectivity[iPly] = matConnectivity[0].copy(matBoards[iPly]);
+        }
+    }
+
+    /**
+     * Private constructor of a copy of the provided search, which shares it's
+     * moves and transposition table but has boards of it's own.
+     */
+    private Search(final Search tSearch) {
+        miPlayer = tSearch.miPlayer;
+        miPlayers = tSearch.miPlayers;
+        miMaxDepth = tSearch.miMaxDepth;
+        mtMoves = tSearch.mtMoves;
+        malTableKeys = tSearch.malTableKeys;
+        malTableEntries = tSearch.malTableEntries;
+
+        // Allocate the boards, regions and moves of each ply.
+        matBoards = new Board[miMaxDepth + 1];
+        matConnectivity = new Connectivity[miMaxDepth + 1];
+        maaiMoves = new int[miMaxDepth + 1][mtMoves.getMaximumMoves()];
+        maaiOrder = new int[miMaxDepth + 1][mtMoves.getMaximumMoves()];
+        for (int iPly = 0; iPly <= miMaxDepth; ++iPly) {
+            matBoards[iPly] = tSearch.matBoards[0].copy();
+            matConnectivity[iPly] = tSearch.matConnectivity[0].copy(matBoards[iPly]);
+        }
+    }
+
+    /**
+     * Returns a new search of the same position, for the same player and to
+     * the same depth, that shares this search's transposition table.  The
+     * copy and this search may be run at the same time.
+     */
+    final Search copy() {
+        return new Search(this);
+    }
+
+    /**
+     * Moves the search to the provided position, which must be on a board of
+     * the same size with the same players.  The transposition table is kept
+     * since it's entries are keyed by the whole position.
+     */
+    final void setPosition(final Board tBoard, final Connectivity tConnectivity) {
+        matBoards[0].copyFrom(tBoard);
+        matConnectivity[0].copyFrom(tConnectivity);
+        mbAborted = false;
+        mlNodes = 0;
+    }
+
+    /**
+     * Empties the transposition table, along with that of every copy of the
+     * search, so that the next search starts from nothing.
+     */
+    final void clearTable() {
+        Arrays.fill(malTableKeys, 0L);
+        Arrays.fill(malTableEntries, 0L);
+    }
+
+    /**
+     * Moves the search to the position of the provided search, of which it
+     * must be a copy.
+     */
+    final void setPosition(final Search tSearch) {
+        setPosition(tSearch.matBoards[0], tSearch.matConnectivity[0]);
+    }
+
+    /**
+     * Sets the time, as given by <code>System.nanoTime()</code>, after which the
+     * search is abandoned.  Zero removes the deadline.
+     */
+    final void setDeadline(final long lDeadline) {
+        mlDeadline = lDeadline;
+    }
+
+    /**
+     * Sets what the search is being made for, which abandons the search as
+     * though the deadline had passed once it is stopped.  Null removes it.
+     */
+    final void setStop(final Stoppable tStop) {
+        mtStop = tStop;
+    }
+
+    /**
+     * Returns true if the search was abandoned because the deadline passed.
+     */
+    final boolean isAborted() {
+        return mbAborted;
+    }
+
+    /**
+     * Returns the greatest number of moves there can be in a position.
+     */
+    final int getMaximumMoves() {
+        return maaiMoves[0].length;
+    }
+
+    /**
+     * Fills the provided array with the moves available in the position being
+     * searched, best first, and returns the number of moves.
+     */
+    final int getRootMoves(final int[] aiMoves) {
+        final int iCount = mtMoves.generate(matBoards[0], maaiMoves[0]);
+        orderMoves(0, iCount, miPlayer, NO_MOVE);
+        System.arraycopy(maaiMoves[0], 0, aiMoves, 0, iCount);
+        return iCount;
+    }
+
+    /**
+     * Searches the designated number of turns ahead of the position and returns
+     * the index of the best of the moves in the provided array.  Only every
+     * <code>iStep</code>th move starting from <code>iFrom</code> is searched so
+     * that the moves can be divided between several searches.  The first move
+     * is chosen when several are equally good.  If the deadline passes, the
+     * search is abandoned and <code>NO_MOVE</code> is returned.
+     */
+    final int searchRoot(final int[] aiMoves, final int iCount, final int iFrom, final int iStep, final int iDepth) {
+        int iAlpha = -INFINITY;
+        int iBestIndex = NO_MOVE;
+        for (int iIndex = iFrom; iIndex < iCount; iIndex += iStep) {
+            final int iValue = searchMove(0, aiMoves[iIndex], iDepth, miPlayer, iAlpha, INFINITY);
+            if (mbAborted)
+                return NO_MOVE;
+            if (iBestIndex == NO_MOVE || iValue > iAlpha) {
+                iAlpha = iValue;
+                iBestIndex = iIndex;
+            }
+        }
+        miBestValue = iAlpha;
+        return iBestIndex;
+    }
+
+    /**
+     * Searches ever more turns ahead of the position, in which the designated
+     * player holds the turn, until the provided ponder is stopped.  Nothing is
+     * returned; the point is to fill the transposition table with the values
+     * and best moves of the positions that may follow, so that the search of
+     * the next turn of the player the search is being made for finds them.
+     */
+    final void ponder(final int iTurnHolder, final Ponder tPonder) {
+        mlDeadline = 0;
+        mtStop = tPonder;
+        try {
+            for (int iDepth = 1; iDepth <= miMaxDepth && !mbAborted; ++iDepth)
+                search(0, iDepth, iTurnHolder, -INFINITY, INFINITY);
+        } finally {
+            mtStop = null;
+            mbAborted = false;
+        }
+    }
+
+    /**
+     * Returns the value of the best move found by the last search.
+     */
+    final int getBestValue() {
+        return miBestValue;
+    }
+
+    /**
+     * Returns the number of positions visited by this search so far.
+     */
+    final long getNodes() {
+        return mlNodes;
+    }
+
+    /**
+     * Returns the floating wall positioned and oriented for the designated move.
+     */
+    final Wall getShift(final int iMove) {
+        return mtMoves.getShift(matBoards[0], iMove);
+    }
+
+    /**
+     * Returns the square the ghost of the player the search is being made for
+     * moves to after the designated move.
+     */
+    final Point getDestination(final int iMove) {
+        applyMove(0, iMove, miPlayer);
+        return new Point(matBoards[1].getGhostX(miPlayer), matBoards[1].getGhostY(miPlayer));
+    }
+
+    /**
+     * Private method which searches the position at the designated ply and
+     * returns it's value.  The value is exact if it falls between alpha and beta;
+     * otherwise it is only known to be at most alpha or at least beta.
+     */
+    private final int search(final int iPly, final int iDepth, final int iTurn, int iAlpha, int iBeta) {
+
+        // Every so often, check whether the deadline has passed or the ponder or
+        // turn has been stopped.
+        if ((++mlNodes & DEADLINE_MASK) == 0 &&
+                ((mlDeadline != 0 && System.nanoTime() - mlDeadline >= 0) || (mtStop != null && mtStop.isStopped())))
+            mbAborted = true;
+        if (mbAborted)
+            return 0;
+
+        final Board tBoard = matBoards[iPly];
+        if (iDepth == 0)
+            return evaluate(tBoard);
+
+        // Look the position up in the transposition table.  The value can be used
+        // if it was searched at least as deep; otherwise the best move is tried first.
+        final long lKey = tBoard.getHash() ^ Zobrist.getTurnHolderKey(iTurn);
+        final int iSlot = (int) lKey & (TABLE_SIZE - 1);
+        int iTableMove = NO_MOVE;
+        final long lEntry = malTableEntries[iSlot];
+        if ((malTableKeys[iSlot] ^ lEntry) == lKey) {
+            iTableMove = (short) (lEntry >>> 32);
+            if ((int) ((lEntry >>> 48) & BYTE_MASK) >= iDepth) {
+                final int iValue = (int) lEntry;
+                final int iBound = (int) (lEntry >>> 56);
+                if (iBound == EXACT ||
+                        (iBound == LOWER_BOUND && iValue >= iBeta) ||
+                        (iBound == UPPER_BOUND && iValue <= iAlpha))
+                    return iValue;
+            }
+        }
+
+        // Order the moves.  Positions near the leaves aren't worth the effort so
+        // only the move from the table is brought forward.
+        final int iCount = mtMoves.generate(tBoard, maaiMoves[iPly]);
+        if (iDepth > 1)
+            orderMoves(iPly, iCount, iTurn, iTableMove);
+        else
+            promoteMove(iPly, iCount, iTableMove);
+
+        // The AI takes the best move while the opponents take the worst.
+        final boolean bMaximizing = iTurn == miPlayer;
+        final int iOriginalAlpha = iAlpha;
+        final int iOriginalBeta = iBeta;
+        int iBestValue = bMaximizing ? -INFINITY : INFINITY;
+        int iBestMove = NO_MOVE;
+        final int[] aiMoves = maaiMoves[iPly];
+        for (int iIndex = 0; iIndex < iCount; ++iIndex) {
+            final int iValue = searchMove(iPly, aiMoves[iIndex], iDepth, iTurn, iAlpha, iBeta);
+            if (mbAborted)
+                return 0;
+            if (bMaximizing) {
+                if (iValue > iBestValue) {
+                    iBestValue = iValue;
+                    iBestMove = aiMoves[iIndex];
+                }
+                iAlpha = Math.max(iAlpha, iBestValue);
+            } else {
+                if (iValue < iBestValue) {
+                    iBestValue = iValue;
+                    iBestMove = aiMoves[iIndex];
+                }
+                iBeta = Math.min(iBeta, iBestValue);
+            }
+            if (iAlpha >= iBeta)
+                break;
+        }
+
+        // Record the value in the table, replacing whatever was there.
+        final long lBound;
+        if (iBestValue <= iOriginalAlpha)
+            lBound = UPPER_BOUND;
+        else if (iBestValue >= iOriginalBeta)
+            lBound = LOWER_BOUND;
+        else
+            lBound = EXACT;
+        final long lNewEntry = (iBestValue & 0xFFFFFFFFL) | ((iBestMove & MOVE_MASK) << 32) | ((iDepth & BYTE_MASK) << 48) | (lBound << 56);
+        malTableEntries[iSlot] = lNewEntry;
+        malTableKeys[iSlot] = lKey ^ lNewEntry;
+
+        return iBestValue;
+    }
+
+    /**
+     * Private method which makes the designated move at the designated ply and
+     * returns the value of the position it leads to, including any treasure
+     * collected.  If a treasure is collected, the value is the average over each
+     * of the treasures that could become active next.
+     */
+    private final int searchMove(final int iPly, final int iMove, final int iDepth, final int iTurn, final int iAlpha, final int iBeta) {
+        final int iPoints = applyMove(iPly, iMove, iTurn);
+        final int iNextTurn = (iTurn + 1) % miPlayers;
+        if (iPoints == 0)
+            return search(iPly + 1, iDepth - 1, iNextTurn, iAlpha, iBeta);
+
+        // Nothing more is known when there is no deeper turn to search.
+        if (iDepth == 1)
+            return iPoints;
+
+        // Average the value over each of the treasures that could be picked next.
+        final Board tBoard = matBoards[iPly + 1];
+        int iTotal = 0;
+        int iRemaining = 0;
+        for (int iTreasure = 0; iTreasure < Treasure.TREASURE_COUNT; ++iTreasure) {
+            if (tBoard.getTreasureX(iTreasure) == Board.OFF_BOARD)
+                continue;
+            tBoard.setActiveTreasure(iTreasure);
+            iTotal += search(iPly + 1, iDepth - 1, iNextTurn, -INFINITY, INFINITY);
+            ++iRemaining;
+            if (mbAborted)
+                break;
+        }
+        tBoard.setActiveTreasure(-1);
+
+        return iPoints + ((iRemaining == 0) ? 0 : iTotal / iRemaining);
+    }
+
+    /**
+     * Private method which makes the designated move on the board at the
+     * designated ply, leaving the result on the board at the next ply.  The
+     * points collected by the move are returned.
+     */
+    private final int applyMove(final int iPly, final int iMove, final int iTurn) {
+        if (!mtMoves.apply(matBoards[iPly], matConnectivity[iPly], matBoards[iPly + 1], matConnectivity[iPly + 1], mtField, iMove, iTurn))
+            return 0;
+        return (iTurn == miPlayer) ? POINT_VALUE : -POINT_VALUE;
+    }
+
+    /**
+     * Private method which returns the value of the provided board without
+     * searching any further: how much closer the AI's ghost is to the active
+     * treasure than the closest opponent's.  A ghost that can reach the
+     * treasure is as far as the steps it takes; one that can not is further
+     * than the squares between them.
+     * @see DistanceField#getApproach(int, int)
+     */
+    private final int evaluate(final Board tBoard) {
+
+        // Every position is equally good if there is no active treasure.
+        final int iTreasure = tBoard.getActiveTreasure();
+        if (iTreasure < 0 || tBoard.getTreasureX(iTreasure) == Board.OFF_BOARD)
+            return 0;
+
+        // Find the closest opponent.
+        mtField.compute(tBoard, tBoard.getTreasureX(iTreasure), tBoard.getTreasureY(iTreasure));
+        int iTheirs = 0;
+        for (int iPlayer = 0; iPlayer < miPlayers; ++iPlayer) {
+            if (iPlayer == miPlayer)
+                continue;
+            final int iApproach = mtField.getApproach(tBoard.getGhostX(iPlayer), tBoard.getGhostY(iPlayer));
+            if (iTheirs == 0 || iApproach < iTheirs)
+                iTheirs = iApproach;
+        }
+
+        return iTheirs - mtField.getApproach(tBoard.getGhostX(miPlayer), tBoard.getGhostY(miPlayer));
+    }
+
+    /**
+     * Private method which orders the moves of the designated ply so that the
+     * moves leading to the best positions for the player holding the turn come
+     * first, followed by the designated move being brought to the front.
+     */
+    private final void orderMoves(final int iPly, final int iCount, final int iTurn, final int iFirstMove) {
+        final int[] aiMoves = maaiMoves[iPly];
+        final int[] aiOrder = maaiOrder[iPly];
+
+        // The opponents prefer the positions that are worst for the AI.
+        final int iSign = (iTurn == miPlayer) ? -1 : 1;
+        for (int iIndex = 0; iIndex < iCount; ++iIndex)
+            aiOrder[iIndex] = iSign * (applyMove(iPly, aiMoves[iIndex], iTurn) + evaluate(matBoards[iPly + 1]));
+
+        // Insertion sort keeps moves of equal value in their original order.
+        for (int iIndex = 1; iIndex < iCount; ++iIndex) {
+            final int iMove = aiMoves[iIndex];
+            final int iOrder = aiOrder[iIndex];
+            int iTo = iIndex;
+            for (; iTo > 0 && aiOrder[iTo - 1] > iOrder; --iTo) {
+                aiMoves[iTo] = aiMoves[iTo - 1];
+                aiOrder[iTo] = aiOrder[iTo - 1];
+            }
+            aiMoves[iTo] = iMove;
+            aiOrder[iTo] = iOrder;
+        }
+
+        promoteMove(iPly, iCount, iFirstMove);
+    }
+
+    /**
+     * Private method which moves the designated move to the front of the moves
+     * of the designated ply, if it is among them.
+     */
+    private final void promoteMove(final int iPly, final int iCount, final int iMove) {
+        if (iMove == NO_MOVE)
+            return;
+        final int[] aiMoves = maaiMoves[iPly];
+        for (int iIndex = 0; iIndex < iCount; ++iIndex) {
+            if (aiMoves[iIndex] == iMove) {
+                System.arraycopy(aiMoves, 0, aiMoves, 1, iIndex);
+                aiMoves[0] = iMove;
+                return;
+            }
+        }
+    }
+
+}
@@ -7,7 +7,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
-import com.threerings.presents.dobj.DSet;
 import com.threerings.util.DirectionCodes;
 
 
@@ -53,15 +52,22 @@ final class ShiftContext {
      * This represents the row or column index that is being shifted.
      */
     final int location;
+
+    /**
+     * This is the last square within the maze along the direction of the shift.
+     * Pieces shifted beyond it wrap to the first square and vice versa.
+     */
+    final int last;
         
     /**
      * Package-private constructor accepting the orientation, direction and location
-     * for shifting pieces on the board.
+     * for shifting pieces on the board along with the last square along the shift.
      */
-    ShiftContext(final int iOrientation, final int iDirection, final int iLocation) {
+    ShiftContext(final int iOrientation, final int iDirection, final int iLocation, final int iLast) {
         orientation = iOrientation;
         direction = iDirection;
         location = iLocation;
+        last = iLast;
     }
     
     /**
@@ -74,41 +80,64 @@ final class ShiftContext {
      *         the position is invalid.
      */
     static final ShiftContext createContext(final LabyrinthObject tGameObject, final int iTileX, final int iTileY) {
-        
+        return createContext(tGameObject.board_size, tGameObject.floating_wall_origin, iTileX, iTileY);
+    }
+
+    /**
+     * Package-private factory method which creates a new <code>ShiftContext</code>
+     * for the provided {@link Board}.
+     * @see ShiftContext#createContext(LabyrinthObject, int, int)
+     */
+    static final ShiftContext createContext(final Board tBoard, final int iTileX, final int iTileY) {
+        return createContext(tBoard.width, tBoard.getFloatingWallOrigin(), iTileX, iTileY);
+    }
+
+    /**
+     * Package-private factory method which creates a new <code>ShiftContext</code>
+     * given the size of the board and the location from which the floating wall
+     * was last shifted out of the maze.  An origin of -1 matches no location.
+     */
+    static final ShiftContext createContext(final int iSize, final int iFloatingWallOrigin, final int iTileX, final int iTileY) {
+
+        // This is the last square within the maze in either direction.
+        final int iLast = iSize - 2;
+
         // This will hold the <code>ShiftContext</code> to be returned, if any.
         ShiftContext tContext = null;
 
         // Verify that the tile position does not match the location of the 
         // previous shift.  The rules of Labyrinth dictate that a player can
         // not shift the walls back into the same location the piece came from.
-        if (LabyrinthUtil.getLocation(iTileX, iTileY) != tGameObject.floating_wall_origin) {
+        if (LabyrinthUtil.getLocation(iSize, iTileX, iTileY) != iFloatingWallOrigin) {
 
             // Check to see if the origin is on the left or right-side of the board.
             // If so, create a horizontal shift.
-            if (iTileX < 1 || iTileX > 5) {
+            if (iTileX < 1 || iTileX > iLast) {
 
                 // Verify that the y-position corresponds to a moveable row.
-                if (LabyrinthUtil.isMoveable(iTileY)) {
+                if (LabyrinthUtil.isMoveable(iSize, iTileY)) {
 
                     // Create a horizontal shift for the designated row.
                     tContext = new ShiftContext(
                             HORIZONTAL, 
                             (iTileX <= 1) ? RIGHT : LEFT,
-                                    iTileY
+                                    iTileY,
+                                    iLast
                     );
 
                 }
 
-            } else if (iTileY < 1 || iTileY > 5) {
+            } else if (iTileY < 1 || iTileY > iLast) {
 
                 // Verify that the x-position corresponds to a moveable column.
-                if (LabyrinthUtil.isMoveable(iTileX)) {
+                if (LabyrinthUtil.isMoveable(iSize, iTileX)) {
 
                     // Create a vertical shift for the designated column.
                     tContext = new ShiftContext(
                             VERTICAL,
                             (iTileY <= 1) ? DOWN : UP,
-                                    iTileX
+                                    iTileX,
+                                    iLast
                     );
 
                 }
@@ -138,38 +167,22 @@ final class ShiftContext {
     }
     
     /**
-     * Convenience method which retrieves the list of pieces that are in the same
-     * row or column based on the designated position.
-     * @TODO [jhoffman 07/07/08]: I don't know enough about generics to know how
-     * to properly declare this method.  I would like to be able to pass a DSet<Wall>
-     * and have the compiler know it's going to get back a List<Wall> rather than
-     * a List<Piece>.
+     * Convenience method which retrieves the list of pieces that are in the row
+     * or column of this shift from the provided index.  The list belongs to
+     * the index and must not be modified.
      */
-    final List<Piece> getPieces(final DSet<? extends Piece> tAllPieces) {
-        
-        // This will hold the list of <code>Pieces</code>.
-        final List<Piece> tSomePieces = new ArrayList<Piece>(5);
-        
-        // Iterate through the <code>Piece</code>s in the set and find those that
-        // match either the x- or y- coordinate.
-        for (Piece tPiece : tAllPieces) {
-            if ((orientation == HORIZONTAL && tPiece.y == location) ||
-                    (orientation == VERTICAL && tPiece.x == location))
-                tSomePieces.add(tPiece);
-        }
-
-        return tSomePieces;
+    final <T extends Piece> List<T> getPieces(final PieceIndex<T> tIndex) {
+        return tIndex.getLane(orientation, location);
     }
     
     /**
      * Package-private method which updates the offsets for the <code>Sprite</code>s that correspond
      * to the <code>Piece</code>s affected by this shift.
      */
-    final void setOffset(final DSet<? extends Piece> tPieces, Map<Comparable, ? extends LabyrinthSprite> tSpritesByID, final int iMagnitude) {
+    final void setOffset(final PieceIndex<? extends Piece> tIndex, Map<Comparable, ? extends LabyrinthSprite> tSpritesByID, final int iMagnitude) {
      
         // Get the list of pieces that are affected by this shift.
-        final List<Piece> tPiecesAffected = getPieces(tPieces);
-        for (Piece tPiece : tPiecesAffected) {
+        for (Piece tPiece : getPieces(tIndex)) {
 
             // Get the wall sprite that corresponds to this piece and 
             final LabyrinthSprite tSprite = tSpritesByID.get(tPiece.getKey());
@@ -198,15 +211,19 @@ final class ShiftContext {
     }
 
     /**
-     * Package-private method which physically shifts the <code>Piece</code> (along
-     * grid boundaries) based on this context.  The <code>List</code> of pieces that
-     * were affected by this shift are returned.
+     * Package-private method which physically shifts the <code>Piece</code>s of the
+     * provided index (along grid boundaries) based on this context, keeping the
+     * index up to date as they move.  The <code>List</code> of pieces that were
+     * affected by this shift are returned.
      */
-    final List<Piece> shift(final DSet<? extends Piece> tPieces, final boolean bWrap) {
+    final <T extends Piece> List<T> shift(final PieceIndex<T> tIndex, final boolean bWrap) {
              
-        // Get the list of pieces that are affected by this shift.
-        final List<Piece> tPiecesAffected = getPieces(tPieces);
-        for (Piece tPiece : tPiecesAffected) {
+        // Get the list of pieces that are affected by this shift.  The list is
+        // copied since the pieces move between the lists of the index.
+        final List<T> tPiecesAffected = new ArrayList<T>(getPieces(tIndex));
+        for (T tPiece : tPiecesAffected) {
+            final int iFromX = tPiece.x;
+            final int iFromY = tPiece.y;
 
             // Apply the shift direction to either the x- or y-position of the
             // piece based on the orientation of this context.
@@ -217,8 +234,8 @@ final class ShiftContext {
                 // the playable area of the maze.
                 if (bWrap) {
                     if (tPiece.x < 1)
-                        tPiece.x = 5;
-                    else if (tPiece.x > 5)
+                        tPiece.x = last;
+                    else if (tPiece.x > last)
                         tPiece.x = 1;
                 }
                 
@@ -229,16 +246,92 @@ final class ShiftContext {
                 // the playable area of the maze.
                 if (bWrap) {
                     if (tPiece.y < 1)
-                        tPiece.y = 5;
-                    else if (tPiece.y > 5)
+                        tPiece.y = last;
+                    else if (tPiece.y > last)
                         tPiece.y = 1;
                 }
                 
             }
+
+            // Move the piece within the index.
+            tIndex.move(tPiece, iFromX, iFromY);
                         
         }
         
         return tPiecesAffected;
     }
         
+    /**
+     * Package-private method which shifts the row or column of the provided
+     * {@link Board} based on this context.  The floating wall is inserted at the
+     * origin of the shift and the wall pushed out of the opposite side becomes
+     * the new floating wall.  Ghosts and treasures in the row or column wrap to
+     * the other side of the maze.  The identity of the wall that was pushed out
+     * is returned.
+     */
+    final int shift(final Board tBoard) {
+
+        // This is the wall that is being pushed into the next square.  We start
+        // with the floating wall which is inserted at the origin of the shift.
+        int iCarriedWall = tBoard.getFloatingWall();
+
+        // Step through the squares starting from the origin of the shift and push
+        // each wall into the next square.
+        int iPosition = (direction > 0) ? 1 : last;
+        for (int iStep = 0; iStep < last; ++iStep, iPosition += direction) {
+            final int iX = getTileX(iPosition);
+            final int iY = getTileY(iPosition);
+
+            // Swap the carried wall with the one in this square.
+            final int iWall = tBoard.getWall(iX, iY);
+            tBoard.moveWall(iCarriedWall, iX, iY);
+            iCarriedWall = iWall;
+
+        }
+
+        // The last wall has been pushed out of the maze and becomes the floating wall.
+        tBoard.setFloatingWall(iCarriedWall, LabyrinthUtil.getLocation(tBoard.width, getEjectedX(tBoard), getEjectedY(tBoard)));
+
+        // Shift the ghosts and treasures in this row or column.
+        tBoard.shiftPieces(orientation == HORIZONTAL, location, direction);
+
+        return iCarriedWall;
+    }
+
+    /**
+     * Returns the x-position of the square at the designated position along
+     * the row or column being shifted.
+     */
+    final int getTileX(final int iPosition) {
+        return (orientation == HORIZONTAL) ? iPosition : location;
+    }
+
+    /**
+     * Returns the y-position of the square at the designated position along
+     * the row or column being shifted.
+     */
+    final int getTileY(final int iPosition) {
+        return (orientation == HORIZONTAL) ? location : iPosition;
+    }
+
+    /**
+     * Returns the x-position of the square in the area surrounding the maze
+     * where the wall pushed out by this shift comes to rest.
+     */
+    final int getEjectedX(final Board tBoard) {
+        if (orientation == VERTICAL)
+            return location;
+        return (direction == RIGHT) ? tBoard.width - 1 : 0;
+    }
+
+    /**
+     * Returns the y-position of the square in the area surrounding the maze
+     * where the wall pushed out by this shift comes to rest.
+     */
+    final int getEjectedY(final Board tBoard) {
+        if (orientation == HORIZONTAL)
+            return location;
+        return (direction == DOWN) ? tBoard.height - 1 : 0;
+    }
+
 }
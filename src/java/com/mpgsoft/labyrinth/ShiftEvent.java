@@ -7,8 +7,6 @@ import java.awt.Point;
 import java.awt.event.MouseEvent;
 import java.util.Map;
 
-import com.threerings.presents.dobj.DSet;
-
 /**
  * This class pairs the pixel origin of a player-generated shift event
  * with the context detailing the orientation and direction of the shift.
@@ -112,12 +110,13 @@ final class ShiftEvent {
     
     /**
      * Private convenience method which sets the offset for all of the <code>Sprite</code>s
-     * that correspond to the <code>Piece</code>s in the designated list.
+     * that correspond to the <code>Piece</code>s of the provided index in the row
+     * or column being shifted.
      */
-    final void setOffset(final DSet<? extends Piece> tPieces, Map<Comparable, ? extends LabyrinthSprite> tSpritesByID, final MouseEvent tEvent) {
+    final void setOffset(final PieceIndex<? extends Piece> tIndex, Map<Comparable, ? extends LabyrinthSprite> tSpritesByID, final MouseEvent tEvent) {
      
         // Proxy the call to the internal context after calculating the magnitude of the event.
-        shift_context.setOffset(tPieces, tSpritesByID, getMagnitude(tEvent));
+        shift_context.setOffset(tIndex, tSpritesByID, getMagnitude(tEvent));
 
     }
     
@@ -0,0 +1,493 @@
+//
+// $Id$
+
+package com.mpgsoft.labyrinth;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class plays complete games of Labyrinth between AI players without a
+ * server, a game manager or a distributed game object.  The board is set up
+ * as in <code>LabyrinthManager.didStartup()</code> and each turn follows the
+ * rules of <code>placeWall()</code>, <code>placeGhost()</code> and
+ * <code>turnWillStart()</code>: the turn holder shifts the maze, moves their
+ * ghost within it's region and picks up the active treasure if they land on
+ * it, after which the next active treasure is picked at random.  The game
+ * ends when every treasure has been collected, and every player with the
+ * most treasures wins.
+ * <p>
+ * Each seat is played by a {@link Strategy} described by a string:
+ * <ul>
+ * <li><code>random</code> makes a random move.</li>
+ * <li><code>lookahead:N</code> searches <code>N</code> turns ahead.</li>
+ * <li><code>montecarlo:N</code> makes <code>N</code> Monte Carlo playouts.</li>
+ * </ul>
+ * Every game is played on a single thread and it's board, it's treasures and
+ * the random moves are all drawn from a random number generator seeded from
+ * the simulation's seed and the number of the game, so the results do not
+ * depend on how the games are divided between threads.  Run it with
+ * <code>ant simulate</code>.
+ *
+ * @author Jeffrey D. Hoffman
+ */
+public final class Simulator {
+
+    /**
+     * Static constant defining the number of threads the games are played on.
+     */
+    private static final int THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Static constant defining the number of games in each batch handed to
+     * a thread.
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * Static constant defining the greatest number of rounds of turns a game
+     * may last.  A game that lasts longer is scored as it stands and counted
+     * as unfinished.
+     */
+    private static final int MAXIMUM_ROUNDS = 1000;
+
+    /**
+     * This class can not be instantiated.
+     */
+    private Simulator() { }
+
+    /**
+     * Plays the games described by the arguments and prints the results:
+     * <code>games size seed strategy strategy [strategy [strategy]]</code>,
+     * with one strategy per seat.
+     */
+    public static final void main(final String[] asArgs) throws InterruptedException {
+        if (asArgs.length < 5 || asArgs.length > 7) {
+            System.err.println("Usage: Simulator games size seed strategy strategy [strategy [strategy]]");
+            System.err.println("Strategies: random, lookahead:<turns>, montecarlo:<playouts>");
+            System.exit(1);
+        }
+
+        // Check the arguments before playing anything.
+        final int iGames = Integer.parseInt(asArgs[0]);
+        final int iSize = Integer.parseInt(asArgs[1]);
+        final long lSeed = Long.parseLong(asArgs[2]);
+        final String[] asStrategies = new String[asArgs.length - 3];
+        System.arraycopy(asArgs, 3, asStrategies, 0, asStrategies.length);
+        if (!LabyrinthUtil.isValidSize(iSize))
+            throw new IllegalArgumentException("Invalid board size [size=" + iSize + "].");
+        for (int iPlayer = 0; iPlayer < asStrategies.length; ++iPlayer)
+            createStrategy(asStrategies[iPlayer], iPlayer, new Random());
+
+        final ExecutorService tExecutor = Executors.newFixedThreadPool(THREAD_COUNT);
+        try {
+            final Results tResults = simulate(iGames, iSize, lSeed, asStrategies, tExecutor);
+            tResults.print(System.out, asStrategies);
+        } finally {
+            tExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Plays the designated number of games on boards of the designated size,
+     * with the designated seats, in batches on the provided executor and
+     * returns the combined results.
+     */
+    static final Results simulate(final int iGames, final int iSize, final long lSeed, final String[] asStrategies, final ExecutorService tExecutor) throws InterruptedException {
+        final long lStart = System.nanoTime();
+
+        // Divide the games into batches.
+        final List<Batch> tBatches = new ArrayList<Batch>();
+        for (int iFirst = 0; iFirst < iGames; iFirst += BATCH_SIZE)
+            tBatches.add(new Batch(iSize, lSeed, asStrategies, iFirst, Math.min(iGames, iFirst + BATCH_SIZE)));
+
+        // Play them and combine the results.
+        final Results tResults = new Results(asStrategies.length);
+        try {
+            for (Future<Results> tFuture : tExecutor.invokeAll(tBatches))
+                tResults.add(tFuture.get());
+        } catch (ExecutionException tEx) {
+            throw new IllegalStateException("Failed to play a game.", tEx.getCause());
+        }
+        tResults.mlNanos = System.nanoTime() - lStart;
+
+        return tResults;
+    }
+
+    /**
+     * Plays a single game, numbered as given, and records it's result.
+     */
+    static final void playGame(final int iSize, final long lSeed, final String[] asStrategies, final int iGame, final Results tResults) {
+        final Random tRandom = new Random(lSeed + iGame);
+        final int iPlayers = asStrategies.length;
+        final Strategy[] atStrategies = new Strategy[iPlayers];
+        for (int iPlayer = 0; iPlayer < iPlayers; ++iPlayer)
+            atStrategies[iPlayer] = createStrategy(asStrategies[iPlayer], iPlayer, tRandom);
+
+        // Set up the board and take turns on two boards, each move leaving the
+        // result on the other.
+        final Moves tMoves = new Moves(iSize);
+        final DistanceField tField = new DistanceField();
+        final Board[] atBoards = new Board[2];
+        final Connectivity[] atConnectivity = new Connectivity[2];
+        atBoards[0] = createBoard(iSize, iPlayers, tRandom);
+        atConnectivity[0] = new Connectivity(atBoards[0]);
+        atBoards[1] = atBoards[0].copy();
+        atConnectivity[1] = atConnectivity[0].copy(atBoards[1]);
+
+        final int[] aiPoints = new int[iPlayers];
+        int iBoard = 0;
+        int iTurn = tRandom.nextInt(iPlayers);
+        int iTurns = 0;
+        boolean bFinished = false;
+        while (iTurns < MAXIMUM_ROUNDS * iPlayers) {
+
+            // If there is no active treasure, pick one of those remaining.  The game
+            // ends when there are none.
+            final Board tBoard = atBoards[iBoard];
+            if (tBoard.getActiveTreasure() < 0) {
+                final int iTreasure = pickTreasure(tBoard, tRandom);
+                if (iTreasure < 0) {
+                    bFinished = true;
+                    break;
+                }
+                tBoard.setActiveTreasure(iTreasure);
+            }
+
+            // Make the turn holder's move.
+            final int iMove = atStrategies[iTurn].selectMove(tBoard, atConnectivity[iBoard], iTurn);
+            if (tMoves.apply(tBoard, atConnectivity[iBoard], atBoards[1 - iBoard], atConnectivity[1 - iBoard], tField, iMove, iTurn))
+                ++aiPoints[iTurn];
+            iBoard = 1 - iBoard;
+            iTurn = (iTurn + 1) % iPlayers;
+            ++iTurns;
+        }
+
+        tResults.record(aiPoints, iTurns, bFinished);
+    }
+
+    /**
+     * Creates the strategy described by the provided string for the designated
+     * player.  Random moves are drawn from the provided random number generator.
+     */
+    static final Strategy createStrategy(final String sStrategy, final int iPlayer, final Random tRandom) {
+        final int iColon = sStrategy.indexOf(':');
+        final String sName = (iColon < 0) ? sStrategy : sStrategy.substring(0, iColon);
+        final int iEffort;
+        try {
+            iEffort = (iColon < 0) ? 0 : Integer.parseInt(sStrategy.substring(iColon + 1));
+        } catch (NumberFormatException tEx) {
+            throw new IllegalArgumentException("Invalid strategy [strategy=" + sStrategy + "].");
+        }
+
+        if (sName.equals("random") && iColon < 0)
+            return new RandomStrategy(tRandom);
+        if (sName.equals(LabyrinthUtil.LOOKAHEAD) && iEffort > 0)
+            return new LookaheadStrategy(iEffort);
+        if (sName.equals(LabyrinthUtil.MONTE_CARLO) && iEffort > 0)
+            return new MonteCarloStrategy(new MonteCarlo(iPlayer), iEffort);
+
+        throw new IllegalArgumentException("Invalid strategy [strategy=" + sStrategy + "].");
+    }
+
+    /**
+     * Creates a board of the designated size, with the designated number of
+     * ghosts, built by the same {@link StartingBoard} the server uses with the
+     * random numbers drawn from the provided generator.
+     */
+    static final Board createBoard(final int iSize, final int iPlayers, final Random tRandom) {
+        return new StartingBoard(iSize, iPlayers, tRandom).board;
+    }
+
+    /**
+     * Private static method which returns one of the treasures remaining on
+     * the provided board, picked at random, or -1 if there are none.
+     */
+    private static final int pickTreasure(final Board tBoard, final Random tRandom) {
+        int iRemaining = 0;
+        for (int iTreasure = 0; iTreasure < Treasure.TREASURE_COUNT; ++iTreasure) {
+            if (tBoard.getTreasureX(iTreasure) != Board.OFF_BOARD)
+                ++iRemaining;
+        }
+        if (iRemaining == 0)
+            return -1;
+
+        int iPick = tRandom.nextInt(iRemaining);
+        for (int iTreasure = 0; iTreasure < Treasure.TREASURE_COUNT; ++iTreasure) {
+            if (tBoard.getTreasureX(iTreasure) != Board.OFF_BOARD && iPick-- == 0)
+                return iTreasure;
+        }
+        return -1;
+    }
+
+    /**
+     * This class is a batch of games played on a single thread.
+     */
+    private static final class Batch implements Callable<Results> {
+
+        /**
+         * These are the size of the board, the seed, the seats and the range of
+         * games to play.
+         */
+        private final int miSize;
+        private final long mlSeed;
+        private final String[] masStrategies;
+        private final int miFirst;
+        private final int miEnd;
+
+        /**
+         * Constructs the batch of games from the first up to but excluding the end.
+         */
+        Batch(final int iSize, final long lSeed, final String[] asStrategies, final int iFirst, final int iEnd) {
+            miSize = iSize;
+            mlSeed = lSeed;
+            masStrategies = asStrategies;
+            miFirst = iFirst;
+            miEnd = iEnd;
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.concurrent.Callable#call()
+         */
+        public final Results call() {
+            final Results tResults = new Results(masStrategies.length);
+            for (int iGame = miFirst; iGame < miEnd; ++iGame)
+                playGame(miSize, mlSeed, masStrategies, iGame, tResults);
+            return tResults;
+        }
+
+    }
+
+    /**
+     * This class holds the results of a number of games.
+     */
+    static final class Results {
+
+        /**
+         * These are the number of games played, the number of those that were
+         * unfinished and the total number of turns taken.
+         */
+        private long mlGames;
+        private long mlUnfinished;
+        private long mlTurns;
+
+        /**
+         * These are, for each seat, the number of games it won or shared, the
+         * number it won outright and the total number of treasures collected.
+         */
+        private final long[] malWins;
+        private final long[] malOutrightWins;
+        private final long[] malPoints;
+
+        /**
+         * This is the number of nanoseconds taken to play the games.
+         */
+        private long mlNanos;
+
+        /**
+         * Constructs empty results for the designated number of seats.
+         */
+        Results(final int iPlayers) {
+            malWins = new long[iPlayers];
+            malOutrightWins = new long[iPlayers];
+            malPoints = new long[iPlayers];
+        }
+
+        /**
+         * Records the result of a game in which each player collected the
+         * designated number of treasures over the designated number of turns.
+         */
+        final void record(final int[] aiPoints, final int iTurns, final boolean bFinished) {
+            int iMaximumPoints = 0;
+            int iWinners = 0;
+            for (int iPoints : aiPoints) {
+                if (iPoints > iMaximumPoints) {
+                    iMaximumPoints = iPoints;
+                    iWinners = 0;
+                }
+                if (iPoints == iMaximumPoints)
+                    ++iWinners;
+            }
+            for (int iPlayer = 0; iPlayer < aiPoints.length; ++iPlayer) {
+                malPoints[iPlayer] += aiPoints[iPlayer];
+                if (aiPoints[iPlayer] == iMaximumPoints) {
+                    ++malWins[iPlayer];
+                    if (iWinners == 1)
+                        ++malOutrightWins[iPlayer];
+                }
+            }
+            ++mlGames;
+            mlTurns += iTurns;
+            if (!bFinished)
+                ++mlUnfinished;
+        }
+
+        /**
+         * Adds the provided results to these.
+         */
+        final void add(final Results tResults) {
+            mlGames += tResults.mlGames;
+            mlUnfinished += tResults.mlUnfinished;
+            mlTurns += tResults.mlTurns;
+            for (int iPlayer = 0; iPlayer < malWins.length; ++iPlayer) {
+                malWins[iPlayer] += tResults.malWins[iPlayer];
+                malOutrightWins[iPlayer] += tResults.malOutrightWins[iPlayer];
+                malPoints[iPlayer] += tResults.malPoints[iPlayer];
+            }
+        }
+
+        /**
+         * Returns the number of games played.
+         */
+        final long getGames() {
+            return mlGames;
+        }
+
+        /**
+         * Returns the number of games the designated seat won, alone or shared.
+         */
+        final long getWins(final int iPlayer) {
+            return malWins[iPlayer];
+        }
+
+        /**
+         * Prints the number of games played per second and the win rate of
+         * each seat, with it's 95% confidence interval, followed by the
+         * playout rate if any seat made Monte Carlo playouts.
+         */
+        final void print(final PrintStream tOut, final String[] asStrategies) {
+            final double dSeconds = mlNanos / 1000000000.0;
+            tOut.println("Played " + mlGames + " games in " + format(dSeconds) + "s (" + format(mlGames / dSeconds) + " games/sec), "
+                    + format((double) mlTurns / mlGames) + " turns per game, " + mlUnfinished + " unfinished.");
+            for (int iPlayer = 0; iPlayer < malWins.length; ++iPlayer) {
+                final double dRate = (double) malWins[iPlayer] / mlGames;
+                final double dMargin = 1.96 * Math.sqrt(dRate * (1 - dRate) / mlGames);
+                tOut.println("Seat " + iPlayer + " [" + asStrategies[iPlayer] + "]: wins " + format(100 * dRate) + "% +/- " + format(100 * dMargin)
+                        + "%, outright " + format(100.0 * malOutrightWins[iPlayer] / mlGames) + "%, "
+                        + format((double) malPoints[iPlayer] / mlGames) + " treasures per game.");
+            }
+            for (String sStrategy : asStrategies) {
+                if (sStrategy.startsWith(LabyrinthUtil.MONTE_CARLO + ":")) {
+                    tOut.println("Made " + AIScheduler.getPlayouts() + " playouts at " + AIScheduler.getPlayoutRate() + " playouts/sec.");
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Private static method which formats the provided number to two
+         * decimal places.
+         */
+        private static final String format(final double dValue) {
+            return String.valueOf(Math.round(dValue * 100) / 100.0);
+        }
+
+    }
+
+    /**
+     * This class makes random moves.
+     */
+    private static final class RandomStrategy implements Strategy {
+
+        /**
+         * This is the random number generator moves are drawn from, the moves
+         * of the board and the moves available.
+         */
+        private final Random mtRandom;
+        private Moves mtMoves;
+        private int[] maiMoves;
+
+        /**
+         * Constructs a strategy drawing moves from the provided generator.
+         */
+        RandomStrategy(final Random tRandom) {
+            mtRandom = tRandom;
+        }
+
+        /* (non-Javadoc)
+         * @see com.mpgsoft.labyrinth.Strategy#selectMove(com.mpgsoft.labyrinth.Board, com.mpgsoft.labyrinth.Connectivity, int)
+         */
+        public final int selectMove(final Board tBoard, final Connectivity tConnectivity, final int iPlayer) {
+            if (mtMoves == null) {
+                mtMoves = new Moves(tBoard.width);
+                maiMoves = new int[mtMoves.getMaximumMoves()];
+            }
+            return maiMoves[mtRandom.nextInt(mtMoves.generate(tBoard, maiMoves))];
+        }
+
+    }
+
+    /**
+     * This class searches a fixed number of turns ahead on the calling thread.
+     */
+    private static final class LookaheadStrategy implements Strategy {
+
+        /**
+         * This is the number of turns searched.
+         */
+        private final int miDepth;
+
+        /**
+         * This is the search, which is created for the first turn and kept so
+         * that it's transposition table is reused.
+         */
+        private Search mtSearch;
+
+        /**
+         * Constructs a strategy searching the designated number of turns ahead.
+         */
+        LookaheadStrategy(final int iDepth) {
+            miDepth = iDepth;
+        }
+
+        /* (non-Javadoc)
+         * @see com.mpgsoft.labyrinth.Strategy#selectMove(com.mpgsoft.labyrinth.Board, com.mpgsoft.labyrinth.Connectivity, int)
+         */
+        public final int selectMove(final Board tBoard, final Connectivity tConnectivity, final int iPlayer) {
+            if (mtSearch == null)
+                mtSearch = new Search(tBoard, tConnectivity, iPlayer, miDepth);
+            else
+                mtSearch.setPosition(tBoard, tConnectivity);
+            return LabyrinthAI.selectMove(new Search[] { mtSearch }, miDepth, 0, null, null);
+        }
+
+    }
+
+    /**
+     * This class makes a fixed number of Monte Carlo playouts on the calling
+     * thread, keeping it's tree between turns.
+     */
+    private static final class MonteCarloStrategy implements Strategy {
+
+        /**
+         * This is the tree search and the number of playouts made per turn.
+         */
+        private final MonteCarlo mtMonteCarlo;
+        private final int miPlayouts;
+
+        /**
+         * Constructs a strategy making the designated number of playouts with
+         * the provided tree search.
+         */
+        MonteCarloStrategy(final MonteCarlo tMonteCarlo, final int iPlayouts) {
+            mtMonteCarlo = tMonteCarlo;
+            miPlayouts = iPlayouts;
+        }
+
+        /* (non-Javadoc)
+         * @see com.mpgsoft.labyrinth.Strategy#selectMove(com.mpgsoft.labyrinth.Board, com.mpgsoft.labyrinth.Connectivity, int)
+         */
+        public final int selectMove(final Board tBoard, final Connectivity tConnectivity, final int iPlayer) {
+            return mtMonteCarlo.selectMove(tBoard, tConnectivity, 0, miPlayouts, null, null);
+        }
+
+    }
+
+}
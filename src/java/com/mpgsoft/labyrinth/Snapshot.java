@@ -0,0 +1,122 @@
+//
+// $Id$
+
+package com.mpgsoft.labyrinth;
+
+/**
+ * This class is an immutable copy of the authoritative {@link Board} and it's
+ * connected regions.  The {@link LabyrinthManager} publishes a new snapshot
+ * after every transaction it commits so that code running on other threads,
+ * such as the AI, can read the state of the game without locking and without
+ * touching the distributed sets that the game's thread is modifying.
+ * <p>
+ * Each snapshot carries a version number which increases with every snapshot
+ * published by the same manager.  A reader that acts on a snapshot can check
+ * that it is still the current one before doing so.
+ *
+ * @author Jeffrey D. Hoffman
+ */
+final class Snapshot {
+
+    /**
+     * This is the version of the game state held by this snapshot.
+     */
+    final long version;
+
+    /**
+     * This is the private copy of the board.  It is never modified and is
+     * never handed out; callers that need to shift it are given a copy.
+     */
+    private final Board mtBoard;
+
+    /**
+     * These are the connected regions of the private copy of the board.
+     */
+    private final Connectivity mtConnectivity;
+
+    /**
+     * Package-private constructor which copies the provided board and it's
+     * regions.  This must be called on the thread that modifies the board.
+     */
+    Snapshot(final long lVersion, final Board tBoard, final Connectivity tConnectivity) {
+        version = lVersion;
+        mtBoard = tBoard.copy();
+        mtConnectivity = tConnectivity.copy(mtBoard);
+    }
+
+    /**
+     * Returns a new, modifiable copy of the board.
+     */
+    final Board copyBoard() {
+        return mtBoard.copy();
+    }
+
+    /**
+     * Returns a new, modifiable copy of the regions of the board which is
+     * maintained for the provided board.  The provided board must be a copy
+     * obtained from <code>copyBoard()</code>.
+     */
+    final Connectivity copyConnectivity(final Board tBoard) {
+        return mtConnectivity.copy(tBoard);
+    }
+
+    /**
+     * Returns the width and height of the board.
+     */
+    final int getBoardSize() {
+        return mtBoard.width;
+    }
+
+    /**
+     * Returns the hash of the position held by this snapshot.
+     * @see Board#getHash()
+     */
+    final long getHash() {
+        return mtBoard.getHash();
+    }
+
+    /**
+     * Returns the index of the active treasure or -1 if there is none.
+     */
+    final int getActiveTreasure() {
+        return mtBoard.getActiveTreasure();
+    }
+
+    /**
+     * Returns the x-position of the designated player's ghost.
+     */
+    final int getGhostX(final int iPlayer) {
+        return mtBoard.getGhostX(iPlayer);
+    }
+
+    /**
+     * Returns the y-position of the designated player's ghost.
+     */
+    final int getGhostY(final int iPlayer) {
+        return mtBoard.getGhostY(iPlayer);
+    }
+
+    /**
+     * Returns the x-position of the designated treasure or <code>OFF_BOARD</code>
+     * if it has been collected.
+     */
+    final int getTreasureX(final int iTreasure) {
+        return mtBoard.getTreasureX(iTreasure);
+    }
+
+    /**
+     * Returns the y-position of the designated treasure or <code>OFF_BOARD</code>
+     * if it has been collected.
+     */
+    final int getTreasureY(final int iTreasure) {
+        return mtBoard.getTreasureY(iTreasure);
+    }
+
+    /**
+     * Returns true if the designated player's ghost can reach the designated square.
+     */
+    final boolean canReach(final int iPlayer, final int iX, final int iY) {
+        return mtConnectivity.canReach(iPlayer, iX, iY);
+    }
+
+}
@@ -0,0 +1,198 @@
+//
+// $Id$
+
+package com.mpgsoft.labyrinth;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import com.threerings.presents.dobj.DSet;
+import com.threerings.util.DirectionCodes;
+
+/**
+ * This class builds the board a game starts with: the maze of fixed and
+ * moveable walls, the floating wall and the treasures and ghosts scattered
+ * across it.  Every random choice is drawn from the generator provided so
+ * the server and the simulator build their boards by exactly the same rules,
+ * and a seeded generator always builds the same board.
+ *
+ * @author Jeffrey D. Hoffman
+ */
+final class StartingBoard {
+
+    /**
+     * This is the board that was built.
+     */
+    final Board board;
+
+    /**
+     * These are the pieces of the board that was built: the walls within the
+     * maze, the floating wall, the treasures and the ghosts.
+     */
+    private final List<Wall> mtWalls;
+    private final Wall mtFloatingWall;
+    private final List<Treasure> mtTreasures;
+    private final List<Ghost> mtGhosts;
+
+    /**
+     * Builds a board of the designated size with a ghost for each of the
+     * designated number of players, drawing every random choice from the
+     * provided generator.
+     */
+    StartingBoard(final int iSize, final int iPlayers, final Random tRandom) {
+        board = new Board(iSize, iSize, iPlayers);
+
+        // This is the number of walls placed - and is used to calculate each
+        // wall's unique identity.
+        int iWalls = 0;
+
+        // Every odd row and column of the maze holds walls of a fixed shape and
+        // orientation.  This code orients those pieces properly.
+        final int iLast = iSize - 2;
+        mtWalls = new ArrayList<Wall>(iLast * iLast);
+        for (int iY = 1; iY <= iLast; iY += 2) {
+            for (int iX = 1; iX <= iLast; iX += 2)
+                addWall(createFixedWall(++iWalls, iX, iY, iLast, tRandom));
+        }
+
+        // Now we're going to build the list of wall segments that are moveable.
+        // There is one for each of the remaining squares plus the floating wall,
+        // divided between the shapes in the same proportion as the standard 5x5
+        // maze (5 straight, 6 L-shaped and 6 T-shaped), each with a random
+        // orientation.
+        final List<Wall> tWalls = new ArrayList<Wall>();
+        final int iMoveableWalls = iLast * iLast - iWalls + 1;
+        final int iStraightWalls = iMoveableWalls * 5 / 17;
+        final int iLShapedWalls = iMoveableWalls * 6 / 17;
+        for (int iIndex = 0; iIndex < iMoveableWalls; ++iIndex) {
+            final int iShape = (iIndex < iStraightWalls) ? Wall.STRAIGHT : (iIndex < iStraightWalls + iLShapedWalls) ? Wall.L_SHAPE : Wall.T_SHAPE;
+            tWalls.add(new Wall(++iWalls, iShape, tRandom));
+        }
+
+        // Randomly distribute the moveable walls across the remaining empty
+        // squares of the maze.
+        for (int iY = 1; iY <= iLast; ++iY) {
+            for (int iX = 1; iX <= iLast; ++iX) {
+
+                // Skip the special fixed squares.
+                if ((iX % 2) == 1 && (iY % 2) == 1)
+                    continue;
+
+                final Wall tWall = tWalls.remove(tRandom.nextInt(tWalls.size()));
+                tWall.x = iX;
+                tWall.y = iY;
+                addWall(tWall);
+
+            }
+        }
+
+        // The last remaining wall is the one that can be shifted into the maze by
+        // the turn holder.  It is positioned, by default, at a moveable location.
+        mtFloatingWall = tWalls.remove(0);
+        mtFloatingWall.y = 2;
+        board.setFloatingWall(mtFloatingWall.unique_id, mtFloatingWall.shape, mtFloatingWall.orientation);
+
+        // The treasures and ghosts are scattered across the maze, each on a square
+        // of it's own.
+        final Set<Point> tUsedPoints = new HashSet<Point>();
+        mtTreasures = new ArrayList<Treasure>(Treasure.TREASURE_COUNT);
+        for (int iTreasure = 0; iTreasure < Treasure.TREASURE_COUNT; ++iTreasure) {
+            final Treasure tTreasure = new Treasure(iTreasure, getRandomLocation(iSize, tUsedPoints, tRandom));
+            board.setTreasure(tTreasure.unique_id, tTreasure.x, tTreasure.y);
+            mtTreasures.add(tTreasure);
+        }
+        mtGhosts = new ArrayList<Ghost>(iPlayers);
+        for (int iPlayer = 0; iPlayer < iPlayers; ++iPlayer) {
+            final Ghost tGhost = new Ghost(iPlayer, getRandomLocation(iSize, tUsedPoints, tRandom));
+            board.setGhost(tGhost.unique_id, tGhost.x, tGhost.y);
+            mtGhosts.add(tGhost);
+        }
+    }
+
+    /**
+     * Sets the pieces of the provided game to those of the board that was
+     * built.  The fields are set directly, without any events, since the
+     * clients are sent the pieces packed into <code>board_state</code>.
+     */
+    final void populate(final LabyrinthObject tGameObject) {
+        tGameObject.board_size = board.width;
+        tGameObject.walls = new DSet<Wall>(mtWalls.iterator());
+        tGameObject.floating_wall = mtFloatingWall;
+        tGameObject.treasures = new DSet<Treasure>(mtTreasures.iterator());
+        tGameObject.ghosts = new DSet<Ghost>(mtGhosts.iterator());
+    }
+
+    /**
+     * Private method which places the provided wall into the board and adds it
+     * to the walls within the maze.
+     */
+    private final void addWall(final Wall tWall) {
+        board.setWall(tWall.unique_id, tWall.x, tWall.y, tWall.shape, tWall.orientation);
+        mtWalls.add(tWall);
+    }
+
+    /**
+     * Private static method which creates one of the walls of fixed shape and
+     * orientation found on the odd rows and columns of the maze.  The corners
+     * turn inward, the edges branch inward and the center is straight with a
+     * random orientation.  The remaining walls are branches with a random
+     * orientation.  The orientations are picked by the provided random number
+     * generator.
+     */
+    private static final Wall createFixedWall(final int iUniqueID, final int iX, final int iY, final int iLast, final Random tRandom) {
+
+        // Determine which edges of the maze the wall lies on, if any.
+        final boolean bNorth = (iY == 1);
+        final boolean bSouth = (iY == iLast);
+        final boolean bWest  = (iX == 1);
+        final boolean bEast  = (iX == iLast);
+
+        // Corners.
+        if (bNorth && bWest)
+            return new Wall(iUniqueID, iX, iY, Wall.L_SHAPE, DirectionCodes.EAST);
+        if (bNorth && bEast)
+            return new Wall(iUniqueID, iX, iY, Wall.L_SHAPE, DirectionCodes.SOUTH);
+        if (bSouth && bWest)
+            return new Wall(iUniqueID, iX, iY, Wall.L_SHAPE, DirectionCodes.NORTH);
+        if (bSouth && bEast)
+            return new Wall(iUniqueID, iX, iY, Wall.L_SHAPE, DirectionCodes.WEST);
+
+        // Edges.
+        if (bNorth)
+            return new Wall(iUniqueID, iX, iY, Wall.T_SHAPE, DirectionCodes.SOUTH);
+        if (bSouth)
+            return new Wall(iUniqueID, iX, iY, Wall.T_SHAPE, DirectionCodes.NORTH);
+        if (bWest)
+            return new Wall(iUniqueID, iX, iY, Wall.T_SHAPE, DirectionCodes.EAST);
+        if (bEast)
+            return new Wall(iUniqueID, iX, iY, Wall.T_SHAPE, DirectionCodes.WEST);
+
+        // The center square.
+        final int iCenter = (iLast + 1) / 2;
+        if (iX == iCenter && iY == iCenter)
+            return new Wall(iUniqueID, iX, iY, Wall.STRAIGHT, tRandom.nextBoolean() ? DirectionCodes.NORTH : DirectionCodes.EAST);
+
+        // Every other fixed square within the maze.
+        final Wall tWall = new Wall(iUniqueID, Wall.T_SHAPE, tRandom);
+        tWall.x = iX;
+        tWall.y = iY;
+        return tWall;
+    }
+
+    /**
+     * Private static method which returns a random square within the maze that
+     * is not among the provided squares, and adds it to them.
+     */
+    private static final Point getRandomLocation(final int iSize, final Set<Point> tUsedPoints, final Random tRandom) {
+        Point tPoint;
+        do {
+            tPoint = new Point(1 + tRandom.nextInt(iSize - 2), 1 + tRandom.nextInt(iSize - 2));
+        } while (!tUsedPoints.add(tPoint));
+        return tPoint;
+    }
+
+}
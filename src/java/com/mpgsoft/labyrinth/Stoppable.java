@@ -0,0 +1,22 @@
+//
+// $Id$
+
+package com.mpgsoft.labyrinth;
+
+/**
+ * This interface is implemented by the work an AI player can be asked to
+ * give up: the ponder of an opponent's turn, which stops once the turn ends,
+ * and the search of it's own turn, which stops once the game does.  The
+ * searches poll it every so often and, once it is stopped, abandon what they
+ * were doing as though their deadline had passed.
+ *
+ * @author Jeffrey D. Hoffman
+ */
+interface Stoppable {
+
+    /**
+     * Returns true if the work should stop.  This may be called from any thread.
+     */
+    boolean isStopped();
+
+}
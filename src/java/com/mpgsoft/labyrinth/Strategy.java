@@ -0,0 +1,25 @@
+//
+// $Id$
+
+package com.mpgsoft.labyrinth;
+
+/**
+ * This interface is implemented by the ways an AI player can select it's
+ * moves.  A move is encoded as by {@link Moves}: a shift of the maze followed
+ * by the ghost taking the active treasure if it can reach it and otherwise
+ * moving to the reachable square closest to it.
+ * <p>
+ * A strategy may keep state between the turns of the player it was created
+ * for, so each player of each game is given it's own.
+ *
+ * @author Jeffrey D. Hoffman
+ */
+interface Strategy {
+
+    /**
+     * Returns the move the designated player makes from the provided board,
+     * whose regions are also provided.  Neither may be modified.
+     */
+    int selectMove(Board tBoard, Connectivity tConnectivity, int iPlayer);
+
+}
@@ -0,0 +1,108 @@
+//
+// $Id$
+
+package com.mpgsoft.labyrinth;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is the search of an AI player's turn as it waits for, and then
+ * runs on, one of the {@link AIScheduler}'s search threads.  The turns of the
+ * games being followed by real players are searched before those of the
+ * games no one is following and otherwise the turns are searched in the
+ * order they started.  A turn is cancelled, whether it is still waiting or
+ * already being searched, once it's game ends or shuts down.
+ *
+ * @author Jeffrey D. Hoffman
+ */
+abstract class Turn implements Runnable, Comparable<Turn>, Stoppable {
+
+    /**
+     * Static counter which orders the turns as they are created.
+     */
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    /**
+     * This is the manager of the game the turn belongs to.
+     */
+    final LabyrinthManager mtGameManager;
+
+    /**
+     * This is set if real players are following the game.
+     */
+    private final boolean mbWatched;
+
+    /**
+     * This is the order in which the turn was created.
+     */
+    private final long mlSequence = SEQUENCE.getAndIncrement();
+
+    /**
+     * This is when, as given by <code>System.nanoTime()</code>, the turn started
+     * waiting for a search thread.
+     */
+    private final long mlQueued = System.nanoTime();
+
+    /**
+     * This is set once the turn's game has ended.
+     */
+    private volatile boolean mbCancelled;
+
+    /**
+     * Constructs a turn of the game managed by the provided manager, which is
+     * searched first if the game is being watched.
+     */
+    Turn(final LabyrinthManager tGameManager, final boolean bWatched) {
+        mtGameManager = tGameManager;
+        mbWatched = bWatched;
+    }
+
+    /**
+     * Searches the turn and arranges for it's moves to be made.  This is run on
+     * a search thread unless the turn was cancelled while it waited.  The turn
+     * is responsible for ending itself with the {@link AIScheduler} once it's
+     * moves have been made, or abandoned.
+     */
+    protected abstract void search();
+
+    /**
+     * Cancels the turn for good.
+     */
+    final void cancel() {
+        mbCancelled = true;
+    }
+
+    /* (non-Javadoc)
+     * The turn stops once it has been cancelled.  This is polled while the
+     * turn is searched.
+     * @see com.mpgsoft.labyrinth.Stoppable#isStopped()
+     */
+    public final boolean isStopped() {
+        return mbCancelled;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Runnable#run()
+     */
+    public final void run() {
+        AIScheduler.recordWait(System.nanoTime() - mlQueued);
+        try {
+            if (mbCancelled)
+                AIScheduler.endTurn();
+            else
+                search();
+        } finally {
+            AIScheduler.finishTurn(this);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Comparable#compareTo(java.lang.Object)
+     */
+    public final int compareTo(final Turn tTurn) {
+        if (mbWatched != tTurn.mbWatched)
+            return mbWatched ? -1 : 1;
+        return (mlSequence < tTurn.mlSequence) ? -1 : ((mlSequence == tTurn.mlSequence) ? 0 : 1);
+    }
+
+}
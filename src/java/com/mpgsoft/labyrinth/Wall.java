@@ -3,6 +3,8 @@
 
 package com.mpgsoft.labyrinth;
 
+import java.util.Random;
+
 import com.samskivert.util.RandomUtil;
 import com.threerings.util.DirectionCodes;
 
@@ -23,6 +25,17 @@ public final class Wall extends Piece {
     public static final int L_SHAPE  = 1;
     public static final int T_SHAPE  = 2;
 
+    /**
+     * Static constants defining the bits of an exit mask.  Each bit corresponds
+     * to the index of the direction in the <code>ORIENTATIONS</code> array so
+     * that rotating a mask is a simple bit rotation.
+     * @see Wall#getExitMask(int, int)
+     */
+    static final int NORTH_EXIT = 1;
+    static final int EAST_EXIT  = 2;
+    static final int SOUTH_EXIT = 4;
+    static final int WEST_EXIT  = 8;
+
     /**
      * This is a private array of directions used when randomly selecting
      * an orientation for this wall.
@@ -49,6 +62,43 @@ public final class Wall extends Piece {
         EXITS[L_SHAPE]  = new int[] { DirectionCodes.NORTH, DirectionCodes.EAST };
         EXITS[T_SHAPE]  = new int[] { DirectionCodes.NORTH, DirectionCodes.EAST, DirectionCodes.WEST };        
     }
+
+    /**
+     * These are private lookup tables that are precomputed from the shapes and
+     * orientations above so that no rotation needs to happen while the game is
+     * being played.  Tables indexed by orientation use the 
+     * <code>DirectionCodes</code> value directly.
+     * <p>
+     * <code>EXIT_MASKS[shape][orientation]</code> is the mask of the 
+     * <code>*_EXIT</code> bits, <code>ROTATED_EXITS[shape][orientation]</code> is 
+     * the array returned by <code>getExits()</code>, <code>CLOCKWISE[orientation]</code>
+     * is the orientation after a 90-degree rotation, <code>ENTRY_MASKS[direction]</code>
+     * is the exit needed to enter a tile travelling in that direction and
+     * <code>OPPOSITE_EXITS[exit]</code> is the exit bit facing the other way.
+     */
+    private static final int[][] EXIT_MASKS = new int[EXITS.length][DirectionCodes.DIRECTION_COUNT];
+    private static final int[][][] ROTATED_EXITS = new int[EXITS.length][DirectionCodes.DIRECTION_COUNT][];
+    private static final int[] CLOCKWISE = new int[DirectionCodes.DIRECTION_COUNT];
+    private static final int[] ENTRY_MASKS = new int[DirectionCodes.DIRECTION_COUNT];
+    private static final int[] OPPOSITE_EXITS = new int[WEST_EXIT + 1];
+    static {
+        for (int iOrientation : ORIENTATIONS) {
+            CLOCKWISE[iOrientation] = rotate(iOrientation, DEGREES_90);
+            ENTRY_MASKS[iOrientation] = 1 << getOrientationIndex(rotate(iOrientation, DEGREES_180));
+
+            // Rotate the exits of each shape to this orientation.
+            for (int iShape = 0; iShape < EXITS.length; ++iShape) {
+                final int[] aiExits = new int[EXITS[iShape].length];
+                for (int iIndex = 0; iIndex < aiExits.length; ++iIndex) {
+                    aiExits[iIndex] = rotate(EXITS[iShape][iIndex], getOrientationIndex(iOrientation));
+                    EXIT_MASKS[iShape][iOrientation] |= 1 << getOrientationIndex(aiExits[iIndex]);
+                }
+                ROTATED_EXITS[iShape][iOrientation] = aiExits;
+            }
+        }
+        for (int iIndex = 0; iIndex < ORIENTATIONS.length; ++iIndex)
+            OPPOSITE_EXITS[1 << iIndex] = 1 << ((iIndex + DEGREES_180) % ORIENTATIONS.length);
+    }
     
     /**
      * This is the index of the shape this tile corresponds to.
@@ -72,6 +122,14 @@ public final class Wall extends Piece {
     Wall(final int iUniqueID, final int iShape) {
         this(iUniqueID, 0, 0, iShape, ORIENTATIONS[RandomUtil.getInt(ORIENTATIONS.length)]);
     }
+
+    /**
+     * Convenience constructor used during game setup that creates a new wall
+     * shape with an orientation picked by the provided random number generator.
+     */
+    Wall(final int iUniqueID, final int iShape, final Random tRandom) {
+        this(iUniqueID, 0, 0, iShape, ORIENTATIONS[tRandom.nextInt(ORIENTATIONS.length)]);
+    }
     
     /**
      * Convenience constructor used during game setup.
@@ -88,61 +146,58 @@ public final class Wall extends Piece {
      * Returns true if this wall segment can be entered from the designated 
      * direction based on it's shape and orientation.
      */
-    final boolean canBeEnteredFrom(int iDirection) {
+    final boolean canBeEnteredFrom(final int iDirection) {
         
-        // If we're entering from this direction, we need to look for an
-        // exit in the opposite direction.
-        iDirection = rotate(iDirection, DEGREES_180);
-        
-        // Get the list of exits.
-        final int[] aiExits = getExits();
-        
-        // Step through the list of exits and see if this direction is among them.
-        for (int iIndex = 0; iIndex < aiExits.length; ++iIndex) {
-            if (iDirection == aiExits[iIndex])
-                return true;
-        }
-
-        // You can not enter this tile from that direction.
-        return false;
+        // If we're entering from this direction, we need an exit in the opposite
+        // direction.
+        return (EXIT_MASKS[shape][orientation] & ENTRY_MASKS[iDirection]) != 0;
     }
 
     /**
      * Returns an array of the directions (e.g. <code>DirectionCodes.NORTH, 
      * DirectionCodes.EAST</code>) that are possible exits from this tile 
-     * based on it's shape and orientation.  
+     * based on it's shape and orientation.  The array is shared and must
+     * not be modified.
      */
     final int[] getExits() {
+        return ROTATED_EXITS[shape][orientation];
+    }
 
-        // Get the list of unrotated exists.
-        final int[] aiExits = EXITS[shape];
+    /**
+     * Returns the exits from this tile as a mask of the <code>*_EXIT</code> bits
+     * based on it's shape and orientation.
+     */
+    final int getExitMask() {
+        return EXIT_MASKS[shape][orientation];
+    }
 
-        // This will hold the list of exits.
-        final int[] aiRelativeExits;
-        
-        // If we're oriented NORTH, it is unnecessary to do any array manipulation.
-        if (orientation == DirectionCodes.NORTH)
-            aiRelativeExits = aiExits;
-        
-        // Otherwise, we need to rotate the exits based on the current orientation
-        // of the tile.
-        else {
-            
-            // Create an array to hold the rotated exits.
-            aiRelativeExits = new int[aiExits.length];
-            
-            // Get the current orientation index.  This value represents the 
-            // number of rotations that need to be performed to each direction.
-            final int iOrientationIndex = getOrientationIndex(orientation);
-            
-            // Step through the list of exits and rotate them based on the 
-            // orientation of this shape.
-            for (int iIndex = 0; iIndex < aiRelativeExits.length; ++iIndex)
-                aiRelativeExits[iIndex] = rotate(aiExits[iIndex], iOrientationIndex);
-                        
+    /**
+     * Returns true if the designated direction is one of the four orientations
+     * a wall can take.
+     */
+    static final boolean isOrientation(final int iOrientation) {
+        for (int iCandidate : ORIENTATIONS) {
+            if (iCandidate == iOrientation)
+                return true;
         }
-        
-        return aiRelativeExits;        
+        return false;
+    }
+
+    /**
+     * Returns the exits for the designated shape and orientation as a mask of
+     * the <code>*_EXIT</code> bits.
+     */
+    static final int getExitMask(final int iShape, final int iOrientation) {
+        return EXIT_MASKS[iShape][iOrientation];
+    }
+
+    /**
+     * Returns true if a ghost can travel through the designated exit (one of
+     * the <code>*_EXIT</code> bits) from a tile with the first exit mask into
+     * the adjacent tile with the second exit mask.
+     */
+    static final boolean canConnect(final int iFromExits, final int iToExits, final int iExit) {
+        return (iFromExits & iExit) != 0 && (iToExits & OPPOSITE_EXITS[iExit]) != 0;
     }
     
     /**
@@ -151,7 +206,7 @@ public final class Wall extends Piece {
     final void rotate() {
         
         // Rotate the wall by one 90-degree increment.
-        orientation = rotate(orientation, DEGREES_90);
+        orientation = CLOCKWISE[orientation];
         
     }
     
@@ -0,0 +1,106 @@
+//
+// $Id$
+
+package com.mpgsoft.labyrinth;
+
+/**
+ * This class provides the random 64-bit keys used to hash the state of a
+ * {@link Board}.  The hash of a board is the exclusive-or of the keys of each
+ * feature of the position (a wall of a given shape and orientation in a given
+ * square, a ghost in a given square and so on) so it can be updated as pieces
+ * move by removing the old key and adding the new one.
+ * <p>
+ * Rather than holding a table of keys for every size of board, each key is
+ * derived by mixing the numbers that identify the feature.  The keys are the
+ * same in every process so hashes can be compared between the server and
+ * the clients.
+ *
+ * @author Jeffrey D. Hoffman
+ */
+final class Zobrist {
+
+    /**
+     * Private static constants identifying each kind of feature.
+     */
+    private static final int WALL            = 1;
+    private static final int FLOATING_WALL   = 2;
+    private static final int FLOATING_ORIGIN = 3;
+    private static final int GHOST           = 4;
+    private static final int TREASURE        = 5;
+    private static final int ACTIVE_TREASURE = 6;
+    private static final int TURN_HOLDER     = 7;
+
+    /**
+     * This class can not be instantiated.
+     */
+    private Zobrist() { }
+
+    /**
+     * Returns the key of a wall of the designated shape and orientation in the
+     * square with the designated index.
+     */
+    static final long getWallKey(final int iIndex, final int iShape, final int iOrientation) {
+        return getKey(WALL, iIndex, iShape, iOrientation);
+    }
+
+    /**
+     * Returns the key of a floating wall of the designated shape and orientation.
+     */
+    static final long getFloatingWallKey(final int iShape, final int iOrientation) {
+        return getKey(FLOATING_WALL, 0, iShape, iOrientation);
+    }
+
+    /**
+     * Returns the key of the location from which the floating wall was shifted
+     * out of the maze.
+     */
+    static final long getFloatingOriginKey(final int iOrigin) {
+        return getKey(FLOATING_ORIGIN, iOrigin, 0, 0);
+    }
+
+    /**
+     * Returns the key of the designated player's ghost in the square with the
+     * designated index.
+     */
+    static final long getGhostKey(final int iPlayer, final int iIndex) {
+        return getKey(GHOST, iIndex, iPlayer, 0);
+    }
+
+    /**
+     * Returns the key of the designated treasure in the square with the
+     * designated index.
+     */
+    static final long getTreasureKey(final int iTreasure, final int iIndex) {
+        return getKey(TREASURE, iIndex, iTreasure, 0);
+    }
+
+    /**
+     * Returns the key of the designated treasure being the active treasure.
+     */
+    static final long getActiveTreasureKey(final int iTreasure) {
+        return getKey(ACTIVE_TREASURE, iTreasure, 0, 0);
+    }
+
+    /**
+     * Returns the key of the designated player holding the turn.  This is not
+     * part of the hash of a board but is combined with it when positions are
+     * compared during a search.
+     */
+    static final long getTurnHolderKey(final int iPlayer) {
+        return getKey(TURN_HOLDER, iPlayer, 0, 0);
+    }
+
+    /**
+     * Private method which combines the numbers identifying a feature and
+     * scrambles them into a key.  The scrambling is the finalizer of the
+     * SplitMix64 generator which spreads every input bit across the key.
+     */
+    private static final long getKey(final int iKind, final int iIndex, final int iFirst, final int iSecond) {
+        long lKey = ((long) iKind << 56) ^ ((long) iIndex << 24) ^ ((long) iFirst << 8) ^ iSecond;
+        lKey += 0x9E3779B97F4A7C15L;
+        lKey = (lKey ^ (lKey >>> 30)) * 0xBF58476D1CE4E5B9L;
+        lKey = (lKey ^ (lKey >>> 27)) * 0x94D049BB133111EBL;
+        return lKey ^ (lKey >>> 31);
+    }
+
+}